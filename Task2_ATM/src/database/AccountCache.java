@@ -0,0 +1,246 @@
+package database;
+
+import model.AccountModel;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * AccountCache is a bounded cache of accounts by account id and by user ID, used by logins and recipient lookups.
+ * <p>
+ * Every cached account carries a version: the id of the newest ledger row of the account it reflects. Writes made
+ * through {@link DatabaseManager} are written through to the cache once they are committed (see
+ * {@link PooledConnection#commit()}), and a write only replaces a cached balance that is older than itself, so
+ * commits published out of order never roll a balance back. Any other change to an account row is seen by
+ * SQLite's update hook and evicts the account. Commits of other processes evict the whole cache, at most one poll
+ * interval of the {@link ExternalChangeWatcher} after they happened.
+ * <p>
+ * An account read from the database is only cached if no write or eviction of that account was published while it
+ * was being read, so a read racing a commit can't put the balance from before the commit back into the cache.
+ * <p>
+ * The cache is thread safe, the least recently used account is evicted when it is full.
+ *
+ * @author <a href="https://github.com/itsyourap">Ankan Pal</a>
+ */
+class AccountCache {
+    // Number of slots used to remember when accounts were last changed, a power of two
+    private static final int CHANGE_SLOTS = 1024;
+
+    // Cached accounts by account id, in access order (least recently used first)
+    private final LinkedHashMap<Long, Entry> accounts;
+
+    // Account ids of the cached accounts by user ID
+    private final Map<String, Long> accountIdsByUserId = new HashMap<>();
+
+    // Generation at which an account hashing to each slot was last changed
+    private final long[] changedAt = new long[CHANGE_SLOTS];
+
+    // Incremented every time a change is published
+    private long generation;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Creates an empty account cache
+     *
+     * @param maxSize the maximum number of accounts kept
+     */
+    AccountCache(int maxSize) {
+        this.accounts = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                if (size() <= maxSize)
+                    return false;
+                accountIdsByUserId.remove(eldest.getValue().getUserId());
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached account with the given id
+     *
+     * @param accountId the account id
+     * @return the account, or null if it is not cached
+     */
+    synchronized Entry get(long accountId) {
+        return count(accounts.get(accountId));
+    }
+
+    /**
+     * Returns the cached account with the given user ID
+     *
+     * @param userId the user ID
+     * @return the account, or null if it is not cached
+     */
+    synchronized Entry getByUserId(String userId) {
+        Long accountId = accountIdsByUserId.get(userId);
+        return count(accountId == null ? null : accounts.get(accountId));
+    }
+
+    private Entry count(Entry entry) {
+        if (entry == null)
+            misses.increment();
+        else
+            hits.increment();
+        return entry;
+    }
+
+    /**
+     * Returns the current generation, to be passed to {@link #load(Entry, long)} for an account read after this call
+     *
+     * @return the current generation
+     */
+    synchronized long generation() {
+        return generation;
+    }
+
+    /**
+     * Caches an account read from the database.
+     * The account is not cached if it was changed since {@code readGeneration}, or if a newer version is cached.
+     *
+     * @param entry          the account as read from the database
+     * @param readGeneration the {@link #generation()} taken before the account was read
+     */
+    synchronized void load(Entry entry, long readGeneration) {
+        if (changedAt[slot(entry.getId())] > readGeneration)
+            return;
+
+        Entry cached = accounts.get(entry.getId());
+        if (cached != null && cached.getVersion() >= entry.getVersion())
+            return;
+        accounts.put(entry.getId(), entry);
+        accountIdsByUserId.put(entry.getUserId(), entry.getId());
+    }
+
+    /**
+     * Writes a committed balance through to the cache
+     *
+     * @param accountId the account id
+     * @param balance   the balance of the account after the write
+     * @param version   the id of the ledger row written
+     */
+    synchronized void applyBalance(long accountId, long balance, long version) {
+        changedAt[slot(accountId)] = ++generation;
+
+        Entry cached = accounts.get(accountId);
+        if (cached != null && cached.getVersion() < version)
+            accounts.put(accountId, cached.withBalance(balance, version));
+    }
+
+    /**
+     * Evicts an account that was changed outside the ledger write path
+     *
+     * @param accountId the account id
+     */
+    synchronized void invalidate(long accountId) {
+        changedAt[slot(accountId)] = ++generation;
+
+        Entry cached = accounts.remove(accountId);
+        if (cached != null)
+            accountIdsByUserId.remove(cached.getUserId());
+    }
+
+    /**
+     * Evicts every account, used when the database was changed by another process
+     */
+    synchronized void invalidateAll() {
+        generation++;
+        Arrays.fill(changedAt, generation);
+        accounts.clear();
+        accountIdsByUserId.clear();
+    }
+
+    private static int slot(long accountId) {
+        return (int) (accountId ^ (accountId >>> 32)) & (CHANGE_SLOTS - 1);
+    }
+
+    long getHits() {
+        return hits.sum();
+    }
+
+    long getMisses() {
+        return misses.sum();
+    }
+
+    synchronized int size() {
+        return accounts.size();
+    }
+
+    /**
+     * An immutable snapshot of an account row
+     */
+    static class Entry {
+        private final long id;
+        private final String userId;
+        private final String userName;
+        private final long balance;
+        private final byte[] pinSalt;
+        private final byte[] pinHash;
+        private final Integer legacyPin;
+        private final long version;
+
+        Entry(long id, String userId, String userName, long balance, byte[] pinSalt, byte[] pinHash,
+              Integer legacyPin, long version) {
+            this.id = id;
+            this.userId = userId;
+            this.userName = userName;
+            this.balance = balance;
+            this.pinSalt = pinSalt;
+            this.pinHash = pinHash;
+            this.legacyPin = legacyPin;
+            this.version = version;
+        }
+
+        private Entry withBalance(long balance, long version) {
+            return new Entry(id, userId, userName, balance, pinSalt, pinHash, legacyPin, version);
+        }
+
+        long getId() {
+            return id;
+        }
+
+        String getUserId() {
+            return userId;
+        }
+
+        byte[] getPinSalt() {
+            return pinSalt;
+        }
+
+        byte[] getPinHash() {
+            return pinHash;
+        }
+
+        /**
+         * Returns the plain text PIN of an account migrated from plain text PINs that hasn't logged in since
+         *
+         * @return the PIN, or null if the PIN of the account is hashed
+         */
+        Integer getLegacyPin() {
+            return legacyPin;
+        }
+
+        long getVersion() {
+            return version;
+        }
+
+        /**
+         * Returns a new {@link AccountModel} for this account, callers are free to modify it
+         *
+         * @return the account
+         */
+        AccountModel toAccountModel() {
+            AccountModel account = new AccountModel();
+            account.setId(id);
+            account.setUserId(userId);
+            account.setUserName(userName);
+            account.setBalance(balance);
+            return account;
+        }
+    }
+}
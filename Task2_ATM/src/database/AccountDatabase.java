@@ -0,0 +1,87 @@
+package database;
+
+import model.AccountModel;
+import model.TransactionModel;
+
+import java.util.ArrayList;
+
+/**
+ * AccountDatabase is the storage engine of the ATM: accounts, their balances and the transaction ledger.
+ * <p>
+ * {@link DatabaseManager} keeps everything in SQLite, with the balance of every account stored in the accounts
+ * table. {@link EventSourcedLedger} keeps an append-only log of ledger events and derives the balances from it.
+ * Both are used the same way, so they can be compared head-to-head.
+ *
+ * @author <a href="https://github.com/itsyourap">Ankan Pal</a>
+ */
+public interface AccountDatabase extends AutoCloseable {
+    /**
+     * Retrieves an account by user ID after checking its PIN
+     *
+     * @param userId  the user ID of the account
+     * @param userPin the user PIN of the account
+     * @return the account, or null if the account is not found, the PIN is wrong or an error occurs
+     */
+    AccountModel getAccount(String userId, int userPin);
+
+    /**
+     * Retrieves an account by user ID
+     *
+     * @param userId the user ID of the account
+     * @return the account, or null if the account is not found or an error occurs
+     */
+    AccountModel getAccount(String userId);
+
+    /**
+     * Retrieves an account by account ID
+     *
+     * @param accountId the account ID of the account
+     * @return the account, or null if the account is not found or an error occurs
+     */
+    AccountModel getAccount(long accountId);
+
+    /**
+     * Creates a new account with a zero balance
+     *
+     * @param userId   the user ID of the account, must be unique
+     * @param userName the user name of the account
+     * @param userPin  the user PIN of the account
+     * @return the new account, or null if the account can't be created
+     */
+    AccountModel createAccount(String userId, String userName, int userPin);
+
+    /**
+     * Adds a transaction to the ledger and updates the balance of its account.
+     * A {@link TransactionModel.TransactionType#TRANSFER_WITHDRAW} transaction is written together with its deposit
+     * leg, atomically. A withdrawal or transfer the balance doesn't cover is rejected.
+     *
+     * @param transaction the transaction to be added, its id is set once it is written
+     * @return true if the transaction is successfully added, false otherwise
+     */
+    boolean addTransaction(TransactionModel transaction);
+
+    /**
+     * Retrieves the whole transaction history of an account
+     *
+     * @param account the account
+     * @return the transactions of the account
+     */
+    ArrayList<TransactionModel> getTransactionHistory(AccountModel account);
+
+    /**
+     * Retrieves a page of the transactions of an account older than the given transaction id, newest first
+     *
+     * @param accountId the account
+     * @param beforeId  the id of the last transaction of the previous page, or {@link Long#MAX_VALUE} for the first
+     *                  page
+     * @param limit     the maximum number of transactions returned
+     * @return the transactions of the page, empty if there are no more transactions
+     */
+    ArrayList<TransactionModel> getTransactionPage(long accountId, long beforeId, int limit);
+
+    /**
+     * Writes out pending changes and releases the files and connections of the database
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,75 @@
+package database;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * AccountIdentityCache is a small bounded cache of account display identities (user ID and user name) by account id.
+ * <p>
+ * It is used to resolve the other party of transfer transactions when rendering a transaction history, so the same
+ * handful of counterparties are not looked up over and over again.
+ * Identities never contain balances or transactions, so they can't go stale when money moves.
+ * <p>
+ * The cache is thread safe, the least recently used identity is evicted when it is full.
+ *
+ * @author <a href="https://github.com/itsyourap">Ankan Pal</a>
+ */
+class AccountIdentityCache {
+    // Cached identities by account id, in access order (least recently used first)
+    private final LinkedHashMap<Long, Identity> identities;
+
+    /**
+     * Creates an empty identity cache
+     *
+     * @param maxSize the maximum number of identities kept
+     */
+    AccountIdentityCache(int maxSize) {
+        this.identities = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Identity> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached identity of an account
+     *
+     * @param accountId the account id
+     * @return the identity, or null if it is not cached
+     */
+    synchronized Identity get(long accountId) {
+        return identities.get(accountId);
+    }
+
+    /**
+     * Caches the identity of an account
+     *
+     * @param accountId the account id
+     * @param identity  the identity of the account
+     */
+    synchronized void put(long accountId, Identity identity) {
+        identities.put(accountId, identity);
+    }
+
+    /**
+     * The display identity of an account
+     */
+    static class Identity {
+        private final String userId;
+        private final String userName;
+
+        Identity(String userId, String userName) {
+            this.userId = userId;
+            this.userName = userName;
+        }
+
+        String getUserId() {
+            return userId;
+        }
+
+        String getUserName() {
+            return userName;
+        }
+    }
+}
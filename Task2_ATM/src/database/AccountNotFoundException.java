@@ -0,0 +1,19 @@
+package database;
+
+import java.sql.SQLException;
+
+/**
+ * AccountNotFoundException signals that an account looked up or written to doesn't exist.
+ * <p>
+ * It is an {@link SQLException}, so the blocking API of {@link DatabaseManager} keeps handling it like any other
+ * database error, while callers of {@link AsyncDatabaseManager} can tell it apart from a failing database.
+ *
+ * @author <a href="https://github.com/itsyourap">Ankan Pal</a>
+ */
+public class AccountNotFoundException extends SQLException {
+    private static final long serialVersionUID = 1L;
+
+    public AccountNotFoundException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,150 @@
+package database;
+
+import model.AccountModel;
+import model.TransactionModel;
+
+import java.sql.SQLException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * AsyncDatabaseManager is the non-blocking side of {@link DatabaseManager}: its methods return at once with a
+ * {@link CompletableFuture}, so the caller can do other work (e.g. read the next input) while SQLite is busy, and can
+ * start independent operations concurrently.
+ * <p>
+ * The work runs on two dedicated executors with bounded queues, sized like the connection pools of the
+ * {@link DatabaseManager}: lookups on one thread per read-only connection, writes on a single thread, as every write
+ * goes through the single writer connection anyway and more threads would only wait for it. When a queue is full the
+ * returned future fails with a {@link RejectedExecutionException} instead of the backlog growing without limit.
+ * Writes go through the group commit writer directly when group commit is enabled, without holding an executor thread
+ * while they wait for their batch.
+ * <p>
+ * Unlike the blocking methods, which return null or false for every failure, the futures fail with typed exceptions
+ * (wrapped in a {@link CompletionException}, as usual for dependent stages):
+ * <ul>
+ *     <li>{@link AccountNotFoundException} if an account doesn't exist</li>
+ *     <li>{@link InsufficientBalanceException} if a withdrawal or transfer isn't covered by the balance</li>
+ *     <li>{@link DailyLimitExceededException} if a withdrawal exceeds the daily withdrawal limit</li>
+ *     <li>{@link RequestIdReusedException} if the request id was committed for a different transaction</li>
+ *     <li>{@link SQLException} if the database fails</li>
+ * </ul>
+ *
+ * @author <a href="https://github.com/itsyourap">Ankan Pal</a>
+ * @see DatabaseManager#getAsync()
+ */
+public class AsyncDatabaseManager {
+    // Time given to queued operations to complete when the manager is closed
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 10;
+
+    // The blocking manager the operations are delegated to
+    private final DatabaseManager dbManager;
+
+    // Run the lookups and the writes, bounded in threads and queued operations
+    private final ThreadPoolExecutor readExecutor;
+    private final ThreadPoolExecutor writeExecutor;
+
+    AsyncDatabaseManager(DatabaseManager dbManager, int readThreads, int writeThreads, int queueCapacity) {
+        this.dbManager = dbManager;
+        this.readExecutor = newExecutor("database-async-read-", readThreads, queueCapacity);
+        this.writeExecutor = newExecutor("database-async-write-", writeThreads, queueCapacity);
+    }
+
+    private static ThreadPoolExecutor newExecutor(String threadNamePrefix, int threads, int queueCapacity) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return new ThreadPoolExecutor(
+                threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, threadNamePrefix + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+        );
+    }
+
+    /**
+     * Looks an account up by user ID
+     *
+     * @param userId the user ID of the account
+     * @return a future completed with the account, failing with an {@link AccountNotFoundException} if there is no
+     * account with the user ID
+     */
+    public CompletableFuture<AccountModel> getAccountAsync(String userId) {
+        return submit(readExecutor, () -> dbManager.requireAccount(userId));
+    }
+
+    /**
+     * Looks an account up by account ID
+     *
+     * @param accountId the account ID of the account
+     * @return a future completed with the account, failing with an {@link AccountNotFoundException} if there is no
+     * account with the id
+     */
+    public CompletableFuture<AccountModel> getAccountAsync(long accountId) {
+        return submit(readExecutor, () -> dbManager.requireAccount(accountId));
+    }
+
+    /**
+     * Writes a transaction, like {@link DatabaseManager#addTransaction(TransactionModel)}.
+     * A {@link TransactionModel.TransactionType#TRANSFER_WITHDRAW} transaction is written together with its deposit
+     * leg.
+     *
+     * @param transaction the transaction to write
+     * @return a future completed with the transaction, with the id of its ledger row set, once it is committed
+     */
+    public CompletableFuture<TransactionModel> submitTransaction(TransactionModel transaction) {
+        CompletableFuture<Long> queued = dbManager.tryEnqueueTransaction(transaction);
+        if (queued != null)
+            return queued.thenApply(id -> transaction);
+
+        return submit(writeExecutor, () -> {
+            dbManager.applyTransaction(transaction);
+            return transaction;
+        });
+    }
+
+    private static <T> CompletableFuture<T> submit(ThreadPoolExecutor executor, DatabaseOperation<T> operation) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    future.complete(operation.run());
+                } catch (SQLException | RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Stops accepting operations and waits for the queued ones to complete
+     */
+    void close() {
+        readExecutor.shutdown();
+        writeExecutor.shutdown();
+        try {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(SHUTDOWN_TIMEOUT_SECONDS);
+            boolean terminated = writeExecutor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                    && readExecutor.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            if (!terminated)
+                System.out.println("Error closing async database manager: queued operations didn't complete");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * A blocking database operation
+     */
+    @FunctionalInterface
+    private interface DatabaseOperation<T> {
+        T run() throws SQLException;
+    }
+}
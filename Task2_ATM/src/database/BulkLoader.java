@@ -0,0 +1,289 @@
+package database;
+
+import model.TransactionModel;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * BulkLoader writes large numbers of accounts and ledger rows straight into an ATM database, e.g. to produce a
+ * database of production size for capacity tests.
+ * <p>
+ * It trades every safety net of the regular write path for speed, so it must only be used on a database nothing
+ * else has open:
+ * <ul>
+ *     <li>the database is locked exclusively, the rollback journal is kept in memory and fsyncs are turned off while
+ *     loading, so a crash during the load can corrupt the database</li>
+ *     <li>the secondary indexes of the accounts and transactions tables are dropped before the load and created
+ *     again by {@link #finish()}, which builds each of them in one sorted pass instead of updating it row by row</li>
+ *     <li>rows are inserted with multi-row prepared {@code INSERT}s and committed every {@link #COMMIT_EVERY_ROWS}
+ *     rows, with explicit ids, so they are appended at the end of their tables</li>
+ * </ul>
+ * The daily totals of the loaded ledger rows are computed by {@link #finish()} in one aggregating pass.
+ * Balances are written as given, the caller is responsible for keeping them in line with the ledger rows.
+ * All loaded accounts share the same PIN (and PIN hash), deriving a hash per account would dominate the load time.
+ *
+ * @author <a href="https://github.com/itsyourap">Ankan Pal</a>
+ */
+public class BulkLoader implements AutoCloseable {
+    // Number of rows inserted by a single INSERT statement
+    private static final int ROWS_PER_INSERT = 256;
+
+    // Number of rows written per database transaction
+    private static final int COMMIT_EVERY_ROWS = 1_000_000;
+
+    private static final String INSERT_ACCOUNTS =
+            "INSERT INTO accounts (id, user_id, user_name, balance, pin_salt, pin_hash) VALUES ";
+    private static final String ACCOUNT_ROW = "(?, ?, ?, ?, ?, ?)";
+    private static final String INSERT_TRANSACTIONS =
+            "INSERT INTO transactions (id, account_id, transaction_type, amount, other_party_account_id, created_at) " +
+                    "VALUES ";
+    private static final String TRANSACTION_ROW = "(?, ?, ?, ?, ?, ?)";
+
+    // The exclusive connection of the load
+    private final Connection conn;
+
+    // The dropped indexes, as their CREATE INDEX statements
+    private final List<String> droppedIndexes = new ArrayList<>();
+
+    // The shared PIN of every loaded account
+    private final byte[] pinSalt;
+    private final byte[] pinHash;
+
+    // Multi-row inserts and the values of the rows not inserted yet
+    private final PreparedStatement accountInsert;
+    private final PreparedStatement transactionInsert;
+    private final List<Object[]> pendingAccounts = new ArrayList<>(ROWS_PER_INSERT);
+    private final List<Object[]> pendingTransactions = new ArrayList<>(ROWS_PER_INSERT);
+
+    // Ids following the largest ids in the database when the load started
+    private final long firstTransactionId;
+    private long nextAccountId;
+    private long nextTransactionId;
+
+    // Rows written since the last commit
+    private long uncommittedRows;
+
+    /**
+     * Prepares the database for the load.
+     * The database is created and migrated first if necessary, so the load always targets the latest schema.
+     *
+     * @param url the JDBC URL of the database
+     * @param pin the PIN of every loaded account
+     * @throws SQLException if the database can't be prepared
+     */
+    public BulkLoader(String url, int pin) throws SQLException {
+        DatabaseManager.open(url).close();
+
+        pinSalt = PinHasher.newSalt();
+        pinHash = PinHasher.hash(pin, pinSalt);
+
+        conn = DriverManager.getConnection(url);
+        try (Statement statement = conn.createStatement()) {
+            statement.execute("PRAGMA journal_mode = MEMORY");
+            statement.execute("PRAGMA synchronous = OFF");
+            statement.execute("PRAGMA locking_mode = EXCLUSIVE");
+            statement.execute("PRAGMA temp_store = MEMORY");
+            statement.execute("PRAGMA cache_size = -1048576");
+
+            List<String> indexNames = new ArrayList<>();
+            try (ResultSet rs = statement.executeQuery(
+                    "SELECT name, sql FROM sqlite_master " +
+                            "WHERE type = 'index' AND sql IS NOT NULL AND tbl_name IN ('accounts', 'transactions')"
+            )) {
+                while (rs.next()) {
+                    indexNames.add(rs.getString("name"));
+                    droppedIndexes.add(rs.getString("sql"));
+                }
+            }
+            for (String indexName : indexNames)
+                statement.execute("DROP INDEX " + indexName);
+
+            nextAccountId = maxId(statement, "accounts") + 1;
+            firstTransactionId = maxId(statement, "transactions") + 1;
+            nextTransactionId = firstTransactionId;
+        }
+
+        accountInsert = conn.prepareStatement(multiRowInsert(INSERT_ACCOUNTS, ACCOUNT_ROW, ROWS_PER_INSERT));
+        transactionInsert =
+                conn.prepareStatement(multiRowInsert(INSERT_TRANSACTIONS, TRANSACTION_ROW, ROWS_PER_INSERT));
+        conn.setAutoCommit(false);
+    }
+
+    private static long maxId(Statement statement, String table) throws SQLException {
+        try (ResultSet rs = statement.executeQuery("SELECT COALESCE(MAX(id), 0) FROM " + table)) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    private static String multiRowInsert(String insert, String row, int rows) {
+        StringBuilder sql = new StringBuilder(insert);
+        for (int i = 0; i < rows; i++)
+            sql.append(i == 0 ? "" : ", ").append(row);
+        return sql.toString();
+    }
+
+    /**
+     * Returns the id the next account added to this loader will get
+     *
+     * @return the account id
+     */
+    public long getNextAccountId() {
+        return nextAccountId;
+    }
+
+    /**
+     * Returns the id the next transaction added to this loader will get
+     *
+     * @return the transaction id
+     */
+    public long getNextTransactionId() {
+        return nextTransactionId;
+    }
+
+    /**
+     * Adds an account, with the shared PIN
+     *
+     * @param userId   the user ID of the account, must be unique
+     * @param userName the user name of the account
+     * @param balance  the balance of the account, in minor units
+     * @return the id of the account
+     * @throws SQLException if the rows can't be written
+     */
+    public long addAccount(String userId, String userName, long balance) throws SQLException {
+        long id = nextAccountId++;
+        pendingAccounts.add(new Object[]{id, userId, userName, balance, pinSalt, pinHash});
+        if (pendingAccounts.size() == ROWS_PER_INSERT)
+            flush(accountInsert, pendingAccounts);
+        return id;
+    }
+
+    /**
+     * Adds a ledger row, the balance of its account is not changed
+     *
+     * @param accountId           the account of the transaction
+     * @param transactionType     the type of the transaction
+     * @param amount              the amount, in minor units
+     * @param otherPartyAccountId the other party of a transfer, 0 for other transactions
+     * @param createdAt           when the transaction was written, in milliseconds since the epoch
+     * @return the id of the transaction
+     * @throws SQLException if the rows can't be written
+     */
+    public long addTransaction(long accountId, TransactionModel.TransactionType transactionType, long amount,
+                               long otherPartyAccountId, long createdAt) throws SQLException {
+        long id = nextTransactionId++;
+        pendingTransactions.add(new Object[]{
+                id, accountId, transactionType.getValue(), amount,
+                otherPartyAccountId == 0 ? null : otherPartyAccountId, createdAt
+        });
+        if (pendingTransactions.size() == ROWS_PER_INSERT)
+            flush(transactionInsert, pendingTransactions);
+        return id;
+    }
+
+    /**
+     * Inserts the pending rows, with the full multi-row statement if there are enough of them
+     */
+    private void flush(PreparedStatement multiRowStatement, List<Object[]> rows) throws SQLException {
+        if (rows.isEmpty())
+            return;
+
+        if (rows.size() == ROWS_PER_INSERT) {
+            bind(multiRowStatement, rows);
+            multiRowStatement.executeUpdate();
+        } else {
+            boolean accounts = multiRowStatement == accountInsert;
+            String sql = multiRowInsert(
+                    accounts ? INSERT_ACCOUNTS : INSERT_TRANSACTIONS,
+                    accounts ? ACCOUNT_ROW : TRANSACTION_ROW,
+                    rows.size()
+            );
+            try (PreparedStatement statement = conn.prepareStatement(sql)) {
+                bind(statement, rows);
+                statement.executeUpdate();
+            }
+        }
+
+        uncommittedRows += rows.size();
+        rows.clear();
+        if (uncommittedRows >= COMMIT_EVERY_ROWS) {
+            conn.commit();
+            uncommittedRows = 0;
+        }
+    }
+
+    private static void bind(PreparedStatement statement, List<Object[]> rows) throws SQLException {
+        int index = 1;
+        for (Object[] row : rows) {
+            for (Object value : row) {
+                if (value == null)
+                    statement.setNull(index++, Types.INTEGER);
+                else
+                    statement.setObject(index++, value);
+            }
+        }
+    }
+
+    /**
+     * Writes the remaining rows, adds the loaded rows to the daily totals, creates the dropped indexes again and
+     * switches the database back to WAL mode
+     *
+     * @throws SQLException if the load can't be completed
+     */
+    public void finish() throws SQLException {
+        flush(accountInsert, pendingAccounts);
+        flush(transactionInsert, pendingTransactions);
+        try (PreparedStatement statement = conn.prepareStatement(SchemaMigrations.ADD_DAILY_TOTALS)) {
+            statement.setLong(1, firstTransactionId);
+            statement.executeUpdate();
+        }
+        conn.commit();
+        conn.setAutoCommit(true);
+
+        try (Statement statement = conn.createStatement()) {
+            for (String index : droppedIndexes)
+                statement.execute(index);
+            droppedIndexes.clear();
+
+            statement.execute("ANALYZE");
+            statement.execute("PRAGMA locking_mode = NORMAL");
+            statement.execute("PRAGMA journal_mode = WAL");
+        }
+    }
+
+    /**
+     * Closes the connection of the load.
+     * Indexes dropped for a load that wasn't finished are created again, so the database stays usable.
+     */
+    @Override
+    public void close() {
+        try {
+            if (!conn.getAutoCommit()) {
+                conn.rollback();
+                conn.setAutoCommit(true);
+            }
+            try (Statement statement = conn.createStatement()) {
+                for (String index : droppedIndexes)
+                    statement.execute(index);
+                statement.execute("PRAGMA journal_mode = WAL");
+            }
+        } catch (SQLException e) {
+            System.out.println("Error closing bulk load: " + e.getMessage());
+        }
+
+        try {
+            accountInsert.close();
+            transactionInsert.close();
+            conn.close();
+        } catch (SQLException e) {
+            System.out.println("Error closing database connection: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package database;
+
+import model.TransactionModel;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * CommittedRequestCache is a small bounded cache of the transactions committed for recent client request ids.
+ * <p>
+ * A client that times out waiting for a transaction retries it with the same request id. If the first attempt was
+ * committed after all, the retry is answered from this cache with the committed ledger row, without touching the
+ * database. Requests that are not cached (anymore) are looked up by the unique request_id index instead, so the cache
+ * only saves work, the database alone guarantees that a request is written at most once. A cached request keeps the
+ * account, type, amount and other party of its ledger row, so a transaction that reuses the request id of a different
+ * one is told apart from a retry.
+ * Committed ledger rows never change, so cached entries can't go stale.
+ * <p>
+ * The cache is thread safe, the least recently used request is evicted when it is full.
+ *
+ * @author <a href="https://github.com/itsyourap">Ankan Pal</a>
+ */
+class CommittedRequestCache {
+    // Committed transactions by request id, in access order (least recently used first)
+    private final LinkedHashMap<String, CommittedRequest> requests;
+
+    // Number of retries answered by the cache
+    private final LongAdder hits = new LongAdder();
+
+    /**
+     * Creates an empty request cache
+     *
+     * @param maxSize the maximum number of requests kept
+     */
+    CommittedRequestCache(int maxSize) {
+        this.requests = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CommittedRequest> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Returns the committed transaction of a request
+     *
+     * @param requestId the request id
+     * @return the committed transaction, or null if it is not cached
+     */
+    CommittedRequest get(String requestId) {
+        CommittedRequest request;
+        synchronized (this) {
+            request = requests.get(requestId);
+        }
+        if (request != null)
+            hits.increment();
+        return request;
+    }
+
+    /**
+     * Caches the committed transaction of a request
+     *
+     * @param requestId the request id
+     * @param request   the committed transaction
+     */
+    synchronized void put(String requestId, CommittedRequest request) {
+        requests.put(requestId, request);
+    }
+
+    /**
+     * Returns the number of retries answered by the cache
+     *
+     * @return the number of cache hits
+     */
+    long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * The ledger row committed for a request
+     */
+    static class CommittedRequest {
+        private final long transactionId;
+        private final long createdAt;
+        private final long accountId;
+        private final TransactionModel.TransactionType transactionType;
+        private final long amount;
+        private final long otherPartyAccountId;
+
+        CommittedRequest(long transactionId, long createdAt, long accountId,
+                         TransactionModel.TransactionType transactionType, long amount, long otherPartyAccountId) {
+            this.transactionId = transactionId;
+            this.createdAt = createdAt;
+            this.accountId = accountId;
+            this.transactionType = transactionType;
+            this.amount = amount;
+            this.otherPartyAccountId = otherPartyAccountId;
+        }
+
+        /**
+         * Creates the committed request of a transaction that was just written
+         *
+         * @param transaction the written transaction, with the id and time of its ledger row
+         */
+        CommittedRequest(TransactionModel transaction) {
+            this(transaction.getId(), transaction.getCreatedAt(), transaction.getAccountId(),
+                    transaction.getTransactionType(), transaction.getAmount(), transaction.getOtherPartyAccountId());
+        }
+
+        /**
+         * Checks that a transaction is a retry of this request: same account, type, amount and other party
+         *
+         * @param transaction the transaction carrying the request id
+         * @return true if the transaction is the committed one
+         */
+        boolean matches(TransactionModel transaction) {
+            return accountId == transaction.getAccountId()
+                    && transactionType == transaction.getTransactionType()
+                    && amount == transaction.getAmount()
+                    && otherPartyAccountId == transaction.getOtherPartyAccountId();
+        }
+
+        long getTransactionId() {
+            return transactionId;
+        }
+
+        long getCreatedAt() {
+            return createdAt;
+        }
+    }
+}
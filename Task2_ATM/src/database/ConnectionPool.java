@@ -0,0 +1,237 @@
+package database;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ConnectionPool is a fixed size pool of SQLite connections used by {@link DatabaseManager}.
+ * <p>
+ * Every unit of work (a lookup, a transaction) borrows its own connection from the pool and gives it back when it is
+ * done, so two sessions in flight never share transaction boundaries.
+ * <p>
+ * Every connection is opened with the following settings:
+ * <ul>
+ *     <li>journal_mode = WAL, so readers never block the single writer (and vice versa)</li>
+ *     <li>synchronous = NORMAL, which is durable in WAL mode and avoids an fsync per commit on the WAL file</li>
+ *     <li>busy_timeout, so a connection waits for the write lock instead of failing with SQLITE_BUSY</li>
+ * </ul>
+ * A pool can be opened read-only, its connections then also get:
+ * <ul>
+ *     <li>query_only = ON, so a write reaching a reader fails instead of competing for the write lock</li>
+ *     <li>a page cache of {@link #READER_CACHE_SIZE_KIB} KiB, so the hot part of the history indexes stays cached</li>
+ *     <li>mmap_size = {@link #READER_MMAP_SIZE}, so pages are read from the memory mapped file (shared by every reader
+ *     through the OS page cache) instead of being copied by read calls</li>
+ * </ul>
+ *
+ * @author <a href="https://github.com/itsyourap">Ankan Pal</a>
+ */
+class ConnectionPool implements AutoCloseable {
+    // How long (in milliseconds) a connection waits for a lock held by another connection
+    private static final int BUSY_TIMEOUT_MILLIS = 5000;
+
+    // How long (in seconds) a caller waits for a free connection before giving up
+    private static final int ACQUIRE_TIMEOUT_SECONDS = 30;
+
+    // Page cache size (in KiB) of every read-only connection
+    private static final int READER_CACHE_SIZE_KIB = 64 * 1024;
+
+    // Number of bytes of the database file read-only connections access through a memory map
+    private static final long READER_MMAP_SIZE = 256L * 1024 * 1024;
+
+    // Maximum number of prepared statements cached per connection
+    private static final int STATEMENT_CACHE_SIZE = 32;
+
+    // Connections that are currently not borrowed by anyone
+    private final BlockingQueue<PooledConnection> idleConnections;
+
+    // Every connection owned by this pool
+    private final List<PooledConnection> allConnections;
+
+    // Run after every commit made with PooledConnection.commit(), null for none
+    private volatile Runnable commitListener;
+
+    /**
+     * Opens {@code size} connections to the given database
+     *
+     * @param url          the JDBC URL of the database
+     * @param size         the number of connections in the pool
+     * @param accountCache the cache committed account changes are published to
+     * @param requestCache the cache committed request ids are published to
+     * @param readOnly     whether the connections only serve reads, see the class documentation
+     * @throws SQLException if any of the connections can't be opened
+     */
+    ConnectionPool(String url, int size, AccountCache accountCache, CommittedRequestCache requestCache,
+                   boolean readOnly) throws SQLException {
+        idleConnections = new ArrayBlockingQueue<>(size);
+        allConnections = new ArrayList<>(size);
+
+        try {
+            for (int i = 0; i < size; i++) {
+                PooledConnection connection = new PooledConnection(
+                        this, openConnection(url, readOnly), STATEMENT_CACHE_SIZE, accountCache, requestCache
+                );
+                allConnections.add(connection);
+                idleConnections.add(connection);
+            }
+        } catch (SQLException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens a single connection and applies the pragmas described in the class documentation
+     *
+     * @param url      the JDBC URL of the database
+     * @param readOnly whether the connection only serves reads
+     * @return the configured connection
+     * @throws SQLException if the connection can't be opened or configured
+     */
+    static Connection openConnection(String url, boolean readOnly) throws SQLException {
+        Connection connection = DriverManager.getConnection(url);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("PRAGMA journal_mode = WAL");
+            statement.execute("PRAGMA synchronous = NORMAL");
+            statement.execute("PRAGMA busy_timeout = " + BUSY_TIMEOUT_MILLIS);
+            if (readOnly) {
+                statement.execute("PRAGMA cache_size = -" + READER_CACHE_SIZE_KIB);
+                statement.execute("PRAGMA mmap_size = " + READER_MMAP_SIZE);
+                statement.execute("PRAGMA query_only = ON");
+            }
+        } catch (SQLException e) {
+            connection.close();
+            throw e;
+        }
+        return connection;
+    }
+
+    /**
+     * Borrows a connection from the pool, waiting for one to become free if necessary.
+     * The connection must be given back by closing the returned {@link PooledConnection}.
+     *
+     * @return a connection that is exclusively owned by the caller until it is closed
+     * @throws SQLException if no connection becomes free in time
+     */
+    PooledConnection acquire() throws SQLException {
+        try {
+            PooledConnection connection = idleConnections.poll(ACQUIRE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            if (connection == null)
+                throw new SQLException("Timed out waiting for a free database connection");
+            return connection;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a free database connection", e);
+        }
+    }
+
+    /**
+     * Sets the listener run after every commit made with {@link PooledConnection#commit()}, on the committing thread.
+     * It must return quickly, it delays the caller of the commit.
+     *
+     * @param commitListener the listener, null for none
+     */
+    void setCommitListener(Runnable commitListener) {
+        this.commitListener = commitListener;
+    }
+
+    /**
+     * Runs the commit listener, if there is one
+     */
+    void fireCommitted() {
+        Runnable listener = commitListener;
+        if (listener != null)
+            listener.run();
+    }
+
+    /**
+     * Gives a connection back to the pool.
+     * Any transaction left open by the borrower is rolled back so the next borrower starts clean.
+     * Account changes made in auto-commit mode are already committed and are published to the account cache.
+     *
+     * @param connection the connection to give back
+     */
+    void release(PooledConnection connection) {
+        Connection conn = connection.getConnection();
+        try {
+            if (conn.getAutoCommit()) {
+                connection.publishChanges();
+            } else {
+                connection.discardChanges();
+                conn.rollback();
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            System.out.println("Error resetting database connection: " + e.getMessage());
+        }
+        idleConnections.offer(connection);
+    }
+
+    /**
+     * Returns the number of connections owned by this pool
+     *
+     * @return the pool size
+     */
+    int size() {
+        return allConnections.size();
+    }
+
+    /**
+     * Returns the number of statements served from the statement caches of all connections
+     *
+     * @return the number of cache hits
+     */
+    long getStatementCacheHits() {
+        long hits = 0;
+        for (PooledConnection connection : allConnections)
+            hits += connection.getStatementCache().getHits();
+        return hits;
+    }
+
+    /**
+     * Returns the number of statements that had to be prepared by all connections
+     *
+     * @return the number of cache misses
+     */
+    long getStatementCacheMisses() {
+        long misses = 0;
+        for (PooledConnection connection : allConnections)
+            misses += connection.getStatementCache().getMisses();
+        return misses;
+    }
+
+    /**
+     * Returns the number of statements evicted from the statement caches of all connections
+     *
+     * @return the number of cache evictions
+     */
+    long getStatementCacheEvictions() {
+        long evictions = 0;
+        for (PooledConnection connection : allConnections)
+            evictions += connection.getStatementCache().getEvictions();
+        return evictions;
+    }
+
+    /**
+     * Closes every connection owned by this pool
+     */
+    @Override
+    public void close() {
+        for (PooledConnection connection : allConnections) {
+            connection.getStatementCache().close();
+            try {
+                connection.getConnection().close();
+            } catch (SQLException e) {
+                System.out.println("Error closing database connection: " + e.getMessage());
+            }
+        }
+        allConnections.clear();
+        idleConnections.clear();
+    }
+}
@@ -0,0 +1,124 @@
+package database;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * CredentialCache remembers recently verified logins for a short time, so repeated logins don't pay for the slow
+ * PIN hash derivation of {@link PinHasher} every time.
+ * <p>
+ * The cache never holds PINs. For every verified login it keeps an HMAC of the user ID and PIN, keyed with a random
+ * key that only lives in this process, and compares it in constant time. Entries expire after a fixed time to live,
+ * and the least recently used entry is evicted when the cache is full.
+ * <p>
+ * The cache is thread safe.
+ *
+ * @author <a href="https://github.com/itsyourap">Ankan Pal</a>
+ */
+class CredentialCache {
+    // MAC algorithm used to derive the cached tokens
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+
+    // Process local key of the MAC
+    private final SecretKeySpec key = new SecretKeySpec(PinHasher.newSalt(), MAC_ALGORITHM);
+
+    // How long (in nanoseconds) a verified login is remembered
+    private final long timeToLiveNanos;
+
+    // Verified logins by user ID, in access order (least recently used first)
+    private final LinkedHashMap<String, Entry> entries;
+
+    /**
+     * Creates an empty credential cache
+     *
+     * @param maxSize          the maximum number of remembered logins
+     * @param timeToLiveMillis how long a verified login is remembered
+     */
+    CredentialCache(int maxSize, long timeToLiveMillis) {
+        this.timeToLiveNanos = timeToLiveMillis * 1_000_000L;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Checks whether the given credentials were verified recently
+     *
+     * @param userId    the user ID entered by the user
+     * @param pin       the PIN entered by the user
+     * @param accountId the id of the account found for the user ID
+     * @return true if the same credentials were verified for the same account and have not expired yet
+     */
+    boolean isVerified(String userId, int pin, long accountId) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(userId);
+            if (entry != null && System.nanoTime() - entry.verifiedAt > timeToLiveNanos) {
+                entries.remove(userId);
+                entry = null;
+            }
+        }
+
+        if (entry == null || entry.accountId != accountId)
+            return false;
+        return MessageDigest.isEqual(token(userId, pin), entry.token);
+    }
+
+    /**
+     * Remembers credentials that were just verified
+     *
+     * @param userId    the user ID
+     * @param pin       the PIN
+     * @param accountId the id of the account
+     */
+    void remember(String userId, int pin, long accountId) {
+        Entry entry = new Entry(accountId, token(userId, pin), System.nanoTime());
+        synchronized (this) {
+            entries.put(userId, entry);
+        }
+    }
+
+    /**
+     * Forgets the verified login of a user, e.g. after the PIN of the account was changed
+     *
+     * @param userId the user ID
+     */
+    synchronized void invalidate(String userId) {
+        entries.remove(userId);
+    }
+
+    private byte[] token(String userId, int pin) {
+        try {
+            Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(key);
+            mac.update(userId.getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) 0);
+            return mac.doFinal(Integer.toString(pin).getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Credential MAC is not available", e);
+        }
+    }
+
+    /**
+     * A verified login
+     */
+    private static class Entry {
+        private final long accountId;
+        private final byte[] token;
+        private final long verifiedAt;
+
+        private Entry(long accountId, byte[] token, long verifiedAt) {
+            this.accountId = accountId;
+            this.token = token;
+            this.verifiedAt = verifiedAt;
+        }
+    }
+}
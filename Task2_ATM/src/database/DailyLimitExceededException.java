@@ -0,0 +1,18 @@
+package database;
+
+import java.sql.SQLException;
+
+/**
+ * DailyLimitExceededException signals that a cash withdrawal was rejected because it would take the withdrawals of
+ * the day over the daily withdrawal limit. Nothing of the rejected withdrawal is written.
+ *
+ * @author <a href="https://github.com/itsyourap">Ankan Pal</a>
+ * @see DatabaseManager#setDailyWithdrawalLimit(long)
+ */
+public class DailyLimitExceededException extends SQLException {
+    private static final long serialVersionUID = 1L;
+
+    public DailyLimitExceededException(String message) {
+        super(message);
+    }
+}
@@ -3,40 +3,174 @@ package database;
 import model.AccountModel;
 import model.TransactionModel;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.nio.file.Path;
 import java.sql.*;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
- * DatabaseManager is a singleton class that manages the database connection and provides methods to interact with the
+ * DatabaseManager is a singleton class that manages the database connections and provides methods to interact with the
  * database.
  * <p>
- * The database is initialized using the initializeDatabase.sql file in the same package.
- * The database is created if it doesn't exist.
- * The database is created with 3 tables:
+ * Connections are kept in {@link ConnectionPool}s opened in WAL mode. Every method borrows its own connection for the
+ * duration of its unit of work, so concurrent ATM sessions never share transaction boundaries.
+ * Reads (logins, account lookups, histories) borrow from a pool of read-only connections, which WAL lets run alongside
+ * the writer, so read throughput scales with the number of readers. Writes are funneled through a single writer
+ * connection: SQLite only ever runs one write transaction at a time anyway, and queueing for the connection is
+ * cheaper than several connections contending for the write lock in SQLite's busy handler.
+ * Account lookups are served from an {@link AccountCache} that every committed write keeps up to date.
+ * <p>
+ * The database is created if it doesn't exist and migrated to the latest schema version on start,
+ * see {@link SchemaMigrations}.
+ * The database has 5 tables:
  *  <ul>
  *      <li>accounts</li>
  *      <li>transaction_type</li>
  *      <li>transactions</li>
+ *      <li>balance_checkpoints</li>
+ *      <li>daily_totals</li>
  * </ul>
+ * <p>
+ * The ledger can be replicated to a hot standby file with {@link #enableReplication(Path, long)}, transaction
+ * histories and exports are then read from the replica, see {@link LedgerReplicator}.
  *
  * @author <a href="https://github.com/itsyourap">Ankan Pal</a>
  */
-public class DatabaseManager {
+public class DatabaseManager implements AccountDatabase {
     // Singleton instance
     private static DatabaseManager instance;
 
     // Database URL
     private static final String DB_URL = "jdbc:sqlite:Task2_ATM/atm_database.db";
 
-    // Database initialization file
-    private static final String DATABASE_INITIALIZATION_FILE = "initializeDatabase.sql";
+    // JDBC URL of the database of this instance
+    private final String url;
+
+    // Number of read-only connections serving reads, writes all go through a single connection
+    private static final int POOL_SIZE = Math.max(4, Runtime.getRuntime().availableProcessors());
+
+    // Number of writer connections, SQLite only runs one write transaction at a time. The ledger replicator relies on
+    // it: ledger row ids are only handed out in commit order while a single writer commits them one by one.
+    private static final int WRITE_POOL_SIZE = 1;
+
+    // How often (in milliseconds) the database is checked for commits of other processes by default
+    private static final long EXTERNAL_CHANGE_POLL_MILLIS = 100;
+
+    // Number of verified logins remembered by the credential cache, and for how long (in milliseconds)
+    static final int CREDENTIAL_CACHE_SIZE = 10_000;
+    static final long CREDENTIAL_CACHE_TTL_MILLIS = 60_000;
+
+    // Number of transfers written per commit by transferAll
+    private static final int BULK_TRANSFER_BATCH_SIZE = 1000;
+
+    // Number of accounts kept by the account cache
+    private static final int ACCOUNT_CACHE_SIZE = 10_000;
+
+    // Number of operations the async manager queues before it rejects new ones
+    private static final int ASYNC_QUEUE_CAPACITY = 1024;
+
+    // Number of account identities kept for resolving the other party of transfers
+    private static final int IDENTITY_CACHE_SIZE = 1024;
+
+    // Number of committed request ids remembered for answering retries
+    private static final int REQUEST_CACHE_SIZE = 10_000;
+
+    // Maximum amount (in minor units) of cash withdrawn from an account per day, 0 for no limit
+    private volatile long dailyWithdrawalLimit;
+
+    // Database connection pools, every unit of work borrows its own connection from one of them: reads from the
+    // read-only pool, writes from the pool of the single writer connection
+    private ConnectionPool readPool;
+    private ConnectionPool writePool;
+
+    // Recently used accounts, kept up to date by every committed write
+    private final AccountCache accountCache = new AccountCache(ACCOUNT_CACHE_SIZE);
+
+    // Evicts the account cache when another process writes to the database, null unless enabled
+    private ExternalChangeWatcher externalChangeWatcher;
+
+    // Transactions committed for recent request ids, so retried requests are answered without reading the database
+    private final CommittedRequestCache requestCache = new CommittedRequestCache(REQUEST_CACHE_SIZE);
 
-    // Database connection
-    private Connection conn;
+    // User IDs and names of recently seen accounts, used to render the other party of transfers
+    private final AccountIdentityCache identityCache = new AccountIdentityCache(IDENTITY_CACHE_SIZE);
+
+    // Recently verified logins, so repeated logins skip the slow PIN hash derivation
+    private final CredentialCache credentialCache = new CredentialCache(CREDENTIAL_CACHE_SIZE, CREDENTIAL_CACHE_TTL_MILLIS);
+
+    // Writer coalescing ledger writes into group commits, null unless group commit is enabled
+    private volatile GroupCommitWriter groupCommitWriter;
+
+    // Latencies, call counts and errors of the operations below
+    private final DatabaseMetrics metrics = new DatabaseMetrics();
+
+    // Verifies balances against the ledger, created on first use
+    private LedgerVerifier ledgerVerifier;
+
+    // Exports transaction histories, created on first use
+    private LedgerExporter ledgerExporter;
+
+    // Non-blocking facade of this instance, created on first use
+    private AsyncDatabaseManager asyncManager;
+
+    // Ships the ledger to a hot standby replica that serves history reads, null unless replication is enabled
+    private volatile LedgerReplicator replicator;
+
+    // Queries used on the hot path, kept as constants so they hit the per-connection statement cache
+    private static final String SELECT_ACCOUNT =
+            "SELECT a.id, a.user_id, a.user_name, a.balance, a.pin_salt, a.pin_hash, a.legacy_pin, " +
+                    "COALESCE((SELECT MAX(t.id) FROM transactions t WHERE t.account_id = a.id), 0) AS version " +
+                    "FROM accounts a ";
+    private static final String SELECT_ACCOUNT_BY_USER_ID = SELECT_ACCOUNT + "WHERE a.user_id = ?";
+    private static final String SELECT_ACCOUNT_BY_ID = SELECT_ACCOUNT + "WHERE a.id = ?";
+    private static final String INSERT_TRANSACTION =
+            "INSERT INTO transactions " +
+                    "(account_id, transaction_type, amount, other_party_account_id, created_at, request_id) " +
+                    "VALUES (?, ?, ?, ?, ?, ?)";
+    private static final String SELECT_REQUEST =
+            "SELECT id, created_at, account_id, transaction_type, amount, other_party_account_id " +
+                    "FROM transactions WHERE request_id = ?";
+    private static final String UPSERT_DAILY_TOTAL =
+            "INSERT INTO daily_totals (account_id, day, transaction_type, transaction_count, amount) " +
+                    "VALUES (?, ?, ?, 1, ?) " +
+                    "ON CONFLICT (account_id, day, transaction_type) " +
+                    "DO UPDATE SET transaction_count = transaction_count + 1, amount = amount + excluded.amount " +
+                    "RETURNING amount";
+    private static final String SELECT_DAILY_TOTAL =
+            "SELECT amount FROM daily_totals WHERE account_id = ? AND day = ? AND transaction_type = ?";
+    private static final String SELECT_ACCOUNT_EXISTS = "SELECT 1 FROM accounts WHERE id = ?";
+    private static final String SELECT_LAST_INSERT_ID = "SELECT last_insert_rowid() AS id";
+    private static final String CREDIT_BALANCE =
+            "UPDATE accounts SET balance = balance + ? WHERE id = ? RETURNING balance";
+    private static final String DEBIT_BALANCE =
+            "UPDATE accounts SET balance = balance - ? WHERE id = ? AND balance >= ? RETURNING balance";
+    private static final String INSERT_ACCOUNT =
+            "INSERT INTO accounts (id, user_id, user_name, balance, pin_salt, pin_hash) VALUES (?, ?, ?, 0, ?, ?)";
+    private static final String SELECT_MAX_ACCOUNT_ID = "SELECT COALESCE(MAX(id), 0) AS id FROM accounts";
+    private static final String HASH_LEGACY_PIN =
+            "UPDATE accounts SET pin_salt = ?, pin_hash = ?, legacy_pin = NULL WHERE id = ? AND legacy_pin = ?";
+    // The transaction type is read as its integer value and decoded by TransactionType.fromValue
+    private static final String SELECT_TRANSACTIONS =
+            "SELECT t.id, t.account_id, t.transaction_type, t.amount, t.other_party_account_id, t.created_at " +
+                    "FROM transactions t ";
+    private static final String SELECT_TRANSACTION_HISTORY =
+            SELECT_TRANSACTIONS + "WHERE t.account_id = ?";
+    private static final String SELECT_TRANSACTIONS_BETWEEN =
+            SELECT_TRANSACTIONS + "WHERE t.account_id = ? AND t.created_at >= ? AND t.created_at < ? " +
+                    "ORDER BY t.created_at DESC, t.id DESC";
+    private static final String SELECT_TRANSACTION_PAGE =
+            SELECT_TRANSACTIONS + "WHERE t.account_id = ? AND t.id < ? " +
+                    "ORDER BY t.id DESC " +
+                    "LIMIT ?";
 
     /**
      * Returns the singleton instance of DatabaseManager
@@ -45,130 +179,165 @@ public class DatabaseManager {
     public static DatabaseManager getInstance() {
         synchronized (DatabaseManager.class) {
             if (instance == null)
-                instance = new DatabaseManager();
+                instance = new DatabaseManager(DB_URL);
             return instance;
         }
     }
 
+    /**
+     * Opens a DatabaseManager on another database file than the one of the ATM, e.g. a scratch database for
+     * benchmarks. The database is created and migrated like the ATM database.
+     * The returned instance is independent of the singleton and must be closed by the caller.
+     *
+     * @param url the JDBC URL of the database, e.g. {@code jdbc:sqlite:/tmp/atm.db}
+     * @return a new DatabaseManager for that database
+     * @see #close()
+     */
+    public static DatabaseManager open(String url) {
+        return new DatabaseManager(url);
+    }
+
     /**
      * Private constructor to prevent instantiation
-     * Initializes the database connection and creates the database if it doesn't exist
+     * Initializes the database connection and creates or migrates the database
+     *
+     * @param url the JDBC URL of the database
      */
-    private DatabaseManager() {
+    private DatabaseManager(String url) {
+        this.url = url;
         initializeDatabaseConnection();
-        createDatabaseIfNotExists();
+        migrateDatabase();
+        if (writePool != null)
+            enableExternalChangeDetection(EXTERNAL_CHANGE_POLL_MILLIS);
     }
 
     /**
-     * Initializes the database connection
+     * Initializes the database connection pools, the writer first so a new database is created in WAL mode before
+     * the readers open it. Every write goes through the single writer connection, which keeps ledger row ids in
+     * commit order as {@link LedgerReplicator} expects
      * Prints an error message if the connection fails
      * Called by the constructor
-     * @see DatabaseManager#DatabaseManager()
+     * @see DatabaseManager#DatabaseManager(String)
+     * @see ConnectionPool
      */
     private void initializeDatabaseConnection() {
         try {
-            conn = DriverManager.getConnection(DB_URL);
+            writePool = new ConnectionPool(url, WRITE_POOL_SIZE, accountCache, requestCache, false);
+            readPool = new ConnectionPool(url, POOL_SIZE, accountCache, requestCache, true);
         } catch (SQLException e) {
             System.out.println("Couldn't Connect to Database...");
         }
     }
 
     /**
-     * Creates the database if it does not already exist
-     * Checks if tables 'accounts', 'transaction_type', and 'transactions' exist
-     * If any of the tables do not exist, calls the initializeDatabase method
-     * @see DatabaseManager#initializeDatabase()
+     * Creates the database if it doesn't exist and brings it up to the latest schema version.
+     * An up to date database costs a single {@code PRAGMA user_version} read.
+     * The transaction_type table is then checked against {@link TransactionModel.TransactionType}, as transactions
+     * are read by their type value without joining it.
+     * Prints an error message if a migration or the check fails
+     * @see SchemaMigrations
      */
-    private void createDatabaseIfNotExists() {
-        if (!doesTableExist("accounts") || !doesTableExist("transaction_type") || !doesTableExist("transactions")) {
-            initializeDatabase();
+    private void migrateDatabase() {
+        try (PooledConnection pc = writePool.acquire()) {
+            SchemaMigrations.migrate(pc.getConnection());
+        } catch (SQLException e) {
+            System.out.println("Error migrating database: " + e.getMessage());
+            return;
+        }
+
+        try (PooledConnection pc = writePool.acquire()) {
+            SchemaMigrations.checkTransactionTypes(pc.getConnection());
+        } catch (SQLException e) {
+            System.out.println("Error checking transaction types: " + e.getMessage());
         }
     }
 
     /**
-     * Checks if a table exists in the database
+     * Retrieves an account based on the provided user ID and user PIN.
+     * <p>
+     * The account is looked up by its (unique, indexed) user ID, in the {@link AccountCache} first, and the PIN is
+     * checked against the salted hash stored for the account. Logins verified within the last minute are answered from
+     * the {@link CredentialCache} without deriving the hash again.
+     * <p>
+     * An account migrated from plain text PINs (see {@link SchemaMigrations}) still has its legacy PIN until its first
+     * successful login, which replaces it with a salted hash.
      *
-     * @param tableName the name of the table to check
-     * @return true if the table exists, false otherwise
+     * @param userId  the user ID of the account
+     * @param userPin the user PIN of the account
+     * @return the {@link AccountModel} object representing the account, or null if the account is not found or an error occurs
+     * @see AccountModel
      */
-    @SuppressWarnings("BooleanMethodIsAlwaysInverted")
-    private boolean doesTableExist(String tableName) {
-        boolean tableExists = false;
+    public AccountModel getAccount(String userId, int userPin) {
+        long start = metrics.start();
+        AccountCache.Entry entry;
         try {
-            DatabaseMetaData meta = conn.getMetaData();
-            ResultSet tables = meta.getTables(null, null, tableName, new String[]{"TABLE"});
-
-            if (tables.next()) {
-                tableExists = true;
-            }
+            entry = findAccount(userId);
         } catch (SQLException e) {
-            System.out.println("Error checking table existence: " + e.getMessage());
+            metrics.recordFailure(DatabaseMetrics.Operation.LOGIN, start, e);
+            System.out.println("Error retrieving account: " + e.getMessage());
+            return null;
         }
-        return tableExists;
+
+        AccountModel account = verifyPin(entry, userId, userPin) ? toAccountModel(entry) : null;
+        metrics.recordSuccess(DatabaseMetrics.Operation.LOGIN, start);
+        return account;
     }
 
     /**
-     * Initializes the database by executing SQL queries from the {@link #DATABASE_INITIALIZATION_FILE}  file
-     * Prints an error message if the execution fails
-     * @see DatabaseManager#DATABASE_INITIALIZATION_FILE
+     * Checks a PIN against the PIN hash of an account
+     *
+     * @param entry   the account, or null if there is no account with the user ID
+     * @param userId  the user ID the PIN was entered for
+     * @param userPin the entered PIN
+     * @return true if the account exists and the PIN is correct
      */
-    private void initializeDatabase() {
-        try (Statement statement = conn.createStatement()) {
-            InputStream inputStream = getClass().getResourceAsStream(DATABASE_INITIALIZATION_FILE);
-            assert inputStream != null;
-            BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
-
-            StringBuilder query = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                query.append(line);
-            }
-            reader.close();
-
-            String[] queries = query.toString().split(";");
-
-            for (String sqlQuery : queries) {
-                if (!sqlQuery.trim().isEmpty()) {
-                    statement.addBatch(sqlQuery);
-                }
-            }
-
-            statement.executeBatch();
-            System.out.println("Database Created Successfully");
-        } catch (SQLException | IOException e) {
-            System.out.println("Error executing SQL from file: " + e.getMessage());
+    private boolean verifyPin(AccountCache.Entry entry, String userId, int userPin) {
+        // The PIN is verified after the connection went back to the pool, the hash derivation is slow
+        if (entry != null && entry.getLegacyPin() != null)
+            return verifyLegacyPin(entry, userId, userPin);
+        if (entry == null || entry.getPinSalt() == null || entry.getPinHash() == null) {
+            PinHasher.dummyVerify(userPin);
+            return false;
         }
+        if (credentialCache.isVerified(userId, userPin, entry.getId()))
+            return true;
+        if (!PinHasher.verify(userPin, entry.getPinSalt(), entry.getPinHash()))
+            return false;
+
+        credentialCache.remember(userId, userPin, entry.getId());
+        return true;
     }
 
     /**
-     * Retrieves an account based on the provided user ID and user PIN.
+     * Checks a PIN against the legacy plain text PIN of an account, and replaces the legacy PIN with a salted hash
+     * once it is verified. The hash is derived whether the PIN matches or not, so the response time is the same as
+     * for a hashed PIN. A failure to store the hash doesn't fail the login, the PIN is hashed on a later login then.
      *
-     * @param userId  the user ID of the account
-     * @param userPin the user PIN of the account
-     * @return the {@link AccountModel} object representing the account, or null if the account is not found or an error occurs
-     * @see AccountModel
+     * @param entry   the account, with a legacy PIN
+     * @param userId  the user ID the PIN was entered for
+     * @param userPin the entered PIN
+     * @return true if the PIN is correct
      */
-    public AccountModel getAccount(String userId, int userPin) {
-        String query = "SELECT id, user_id, user_name, balance FROM accounts WHERE user_id = ? AND user_pin = ?";
-        AccountModel account = null;
+    private boolean verifyLegacyPin(AccountCache.Entry entry, String userId, int userPin) {
+        byte[] pinSalt = PinHasher.newSalt();
+        byte[] pinHash = PinHasher.hash(userPin, pinSalt);
+        if (entry.getLegacyPin() != userPin)
+            return false;
 
-        try (PreparedStatement stmt = conn.prepareStatement(query)) {
-            stmt.setString(1, userId);
-            stmt.setInt(2, userPin);
-            ResultSet rs = stmt.executeQuery();
-
-            if (rs.next()) {
-                account = new AccountModel();
-                account.setId(rs.getInt("id"));
-                account.setUserId(rs.getString("user_id"));
-                account.setUserName(rs.getString("user_name"));
-                account.setBalance(rs.getDouble("balance"));
-                account.setTransactions(getTransactionHistory(account));
-            }
+        // The account row changes, so the update hook evicts the cached account with its legacy PIN
+        try (PooledConnection pc = writePool.acquire()) {
+            PreparedStatement stmt = pc.prepare(HASH_LEGACY_PIN);
+            stmt.setBytes(1, pinSalt);
+            stmt.setBytes(2, pinHash);
+            stmt.setLong(3, entry.getId());
+            stmt.setInt(4, userPin);
+            stmt.executeUpdate();
         } catch (SQLException e) {
-            System.out.println("Error retrieving account: " + e.getMessage());
+            System.out.println("Error hashing legacy PIN: " + e.getMessage());
         }
-        return account;
+
+        credentialCache.remember(userId, userPin, entry.getId());
+        return true;
     }
 
     /**
@@ -179,25 +348,14 @@ public class DatabaseManager {
      * @see AccountModel
      */
     public AccountModel getAccount(String userId) {
-        String query = "SELECT id, user_id, user_name, balance FROM accounts WHERE user_id = ?";
-        AccountModel account = null;
-
-        try (PreparedStatement stmt = conn.prepareStatement(query)) {
-            stmt.setString(1, userId);
-            ResultSet rs = stmt.executeQuery();
-
-            if (rs.next()) {
-                account = new AccountModel();
-                account.setId(rs.getInt("id"));
-                account.setUserId(rs.getString("user_id"));
-                account.setUserName(rs.getString("user_name"));
-                account.setBalance(rs.getDouble("balance"));
-                account.setTransactions(getTransactionHistory(account));
-            }
+        try {
+            return requireAccount(userId);
+        } catch (AccountNotFoundException e) {
+            return null;
         } catch (SQLException e) {
             System.out.println("Error retrieving account: " + e.getMessage());
+            return null;
         }
-        return account;
     }
 
     /**
@@ -209,127 +367,1266 @@ public class DatabaseManager {
      * @see AccountModel
      */
     public AccountModel getAccount(long accountId) {
-        String query = "SELECT id, user_id, user_name, balance FROM accounts WHERE id = ?";
-        AccountModel account = null;
+        try {
+            return requireAccount(accountId);
+        } catch (AccountNotFoundException e) {
+            return null;
+        } catch (SQLException e) {
+            System.out.println("Error retrieving account: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Retrieves an account based on the provided user ID, telling a missing account apart from a database error
+     *
+     * @param userId the user ID of the account
+     * @return the account
+     * @throws AccountNotFoundException if there is no account with the user ID
+     * @throws SQLException             if the account can't be read
+     */
+    AccountModel requireAccount(String userId) throws SQLException {
+        long start = metrics.start();
+        AccountCache.Entry entry;
+        try {
+            entry = findAccount(userId);
+        } catch (SQLException e) {
+            metrics.recordFailure(DatabaseMetrics.Operation.ACCOUNT_FETCH, start, e);
+            throw e;
+        }
+        metrics.recordSuccess(DatabaseMetrics.Operation.ACCOUNT_FETCH, start);
+
+        if (entry == null)
+            throw new AccountNotFoundException("No account with user ID " + userId);
+        return toAccountModel(entry);
+    }
+
+    /**
+     * Retrieves an account based on the provided account ID, telling a missing account apart from a database error
+     *
+     * @param accountId the account ID of the account
+     * @return the account
+     * @throws AccountNotFoundException if there is no account with the id
+     * @throws SQLException             if the account can't be read
+     */
+    AccountModel requireAccount(long accountId) throws SQLException {
+        long start = metrics.start();
+        AccountCache.Entry entry;
+        try {
+            entry = findAccount(accountId);
+        } catch (SQLException e) {
+            metrics.recordFailure(DatabaseMetrics.Operation.ACCOUNT_FETCH, start, e);
+            throw e;
+        }
+        metrics.recordSuccess(DatabaseMetrics.Operation.ACCOUNT_FETCH, start);
+
+        if (entry == null)
+            throw new AccountNotFoundException("Account " + accountId + " does not exist");
+        return toAccountModel(entry);
+    }
+
+    /**
+     * Returns a new {@link AccountModel} for a cached account, whose transaction history is read from this database
+     *
+     * @param entry the account
+     * @return the account
+     */
+    private AccountModel toAccountModel(AccountCache.Entry entry) {
+        AccountModel account = entry.toAccountModel();
+        account.setDatabase(this);
+        return account;
+    }
+
+    /**
+     * Looks an account up by user ID, in the account cache first and in the database if it is not cached
+     *
+     * @param userId the user ID of the account
+     * @return the account, or null if there is no such account
+     * @throws SQLException if the account can't be read
+     */
+    private AccountCache.Entry findAccount(String userId) throws SQLException {
+        AccountCache.Entry entry = accountCache.getByUserId(userId);
+        if (entry != null)
+            return entry;
+
+        long generation = accountCache.generation();
+        try (PooledConnection pc = readPool.acquire()) {
+            PreparedStatement stmt = pc.prepare(SELECT_ACCOUNT_BY_USER_ID);
+            stmt.setString(1, userId);
+            entry = readAccount(stmt);
+        }
+        if (entry != null)
+            accountCache.load(entry, generation);
+        return entry;
+    }
+
+    /**
+     * Looks an account up by id, in the account cache first and in the database if it is not cached
+     *
+     * @param accountId the account id
+     * @return the account, or null if there is no such account
+     * @throws SQLException if the account can't be read
+     */
+    private AccountCache.Entry findAccount(long accountId) throws SQLException {
+        AccountCache.Entry entry = accountCache.get(accountId);
+        if (entry != null)
+            return entry;
 
-        try (PreparedStatement stmt = conn.prepareStatement(query)) {
+        long generation = accountCache.generation();
+        try (PooledConnection pc = readPool.acquire()) {
+            PreparedStatement stmt = pc.prepare(SELECT_ACCOUNT_BY_ID);
             stmt.setLong(1, accountId);
-            ResultSet rs = stmt.executeQuery();
-
-            if (rs.next()) {
-                account = new AccountModel();
-                account.setId(rs.getInt("id"));
-                account.setUserId(rs.getString("user_id"));
-                account.setUserName(rs.getString("user_name"));
-                account.setBalance(rs.getDouble("balance"));
-                account.setTransactions(getTransactionHistory(account));
+            entry = readAccount(stmt);
+        }
+        if (entry != null)
+            accountCache.load(entry, generation);
+        return entry;
+    }
+
+    private static AccountCache.Entry readAccount(PreparedStatement stmt) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery()) {
+            if (!rs.next())
+                return null;
+            Integer legacyPin = rs.getInt("legacy_pin");
+            if (rs.wasNull())
+                legacyPin = null;
+            return new AccountCache.Entry(
+                    rs.getLong("id"),
+                    rs.getString("user_id"),
+                    rs.getString("user_name"),
+                    rs.getLong("balance"),
+                    rs.getBytes("pin_salt"),
+                    rs.getBytes("pin_hash"),
+                    legacyPin,
+                    rs.getLong("version")
+            );
+        }
+    }
+
+    /**
+     * Creates a new account with a zero balance.
+     *
+     * @param userId   the user ID of the account, must be unique
+     * @param userName the user name of the account
+     * @param userPin  the user PIN of the account, only its salted hash is stored
+     * @return the {@link AccountModel} object representing the new account,
+     * or null if the account can't be created (e.g. because the user ID is taken)
+     */
+    public AccountModel createAccount(String userId, String userName, int userPin) {
+        return createAccount(0, userId, userName, userPin);
+    }
+
+    /**
+     * Creates a new account with a zero balance and the given account ID
+     *
+     * @param accountId the account ID of the account, 0 to have the next free one assigned
+     * @param userId    the user ID of the account, must be unique
+     * @param userName  the user name of the account
+     * @param userPin   the user PIN of the account, only its salted hash is stored
+     * @return the new account, or null if the account can't be created
+     * @see #createAccount(String, String, int)
+     */
+    AccountModel createAccount(long accountId, String userId, String userName, int userPin) {
+        byte[] pinSalt = PinHasher.newSalt();
+        byte[] pinHash = PinHasher.hash(userPin, pinSalt);
+
+        try (PooledConnection pc = writePool.acquire()) {
+            PreparedStatement stmt = pc.prepare(INSERT_ACCOUNT);
+            if (accountId != 0)
+                stmt.setLong(1, accountId);
+            else
+                stmt.setNull(1, Types.INTEGER);
+            stmt.setString(2, userId);
+            stmt.setString(3, userName);
+            stmt.setBytes(4, pinSalt);
+            stmt.setBytes(5, pinHash);
+            stmt.executeUpdate();
+
+            AccountModel account = new AccountModel();
+            account.setDatabase(this);
+            try (ResultSet rs = pc.prepare(SELECT_LAST_INSERT_ID).executeQuery()) {
+                if (rs.next())
+                    account.setId(rs.getLong("id"));
             }
+            account.setUserId(userId);
+            account.setUserName(userName);
+            return account;
         } catch (SQLException e) {
-            System.out.println("Error retrieving account: " + e.getMessage());
+            System.out.println("Error creating account: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Returns the highest account ID in the database
+     *
+     * @return the account ID, 0 if there are no accounts
+     * @throws SQLException if the accounts can't be read
+     */
+    long getMaxAccountId() throws SQLException {
+        try (
+                PooledConnection pc = readPool.acquire();
+                ResultSet rs = pc.prepare(SELECT_MAX_ACCOUNT_ID).executeQuery()
+        ) {
+            return rs.next() ? rs.getLong("id") : 0;
+        }
+    }
+
+    /**
+     * Deletes every account and every ledger row, e.g. the sample accounts of a newly created database
+     *
+     * @throws SQLException if the rows can't be deleted
+     */
+    void deleteAllAccounts() throws SQLException {
+        try (PooledConnection pc = writePool.acquire(); Statement statement = pc.getConnection().createStatement()) {
+            pc.getConnection().setAutoCommit(false);
+            statement.executeUpdate("DELETE FROM daily_totals");
+            statement.executeUpdate("DELETE FROM balance_checkpoints");
+            statement.executeUpdate("DELETE FROM transactions");
+            statement.executeUpdate("DELETE FROM accounts");
+            pc.commit();
+        }
+        accountCache.invalidateAll();
+    }
+
+    /**
+     * Starts a write that is left uncommitted, so it can be committed together with writes on other databases
+     * (see {@link ShardedDatabaseManager}). The writer connection is held until the write is closed, every other write
+     * on this database waits for it until then.
+     *
+     * @return the open write, closing it without committing rolls it back
+     * @throws SQLException if the writer connection can't be acquired
+     */
+    PendingWrite beginWrite() throws SQLException {
+        PooledConnection pc = writePool.acquire();
+        try {
+            pc.getConnection().setAutoCommit(false);
+            return new PendingWrite(pc);
+        } catch (SQLException | RuntimeException e) {
+            pc.close();
+            throw e;
         }
-        return account;
     }
 
     /**
      * Adds a transaction to the database and updates the account balance.
+     * <p>
+     * A {@link TransactionModel.TransactionType#TRANSFER_WITHDRAW} transaction is handed to
+     * {@link #transfer(TransactionModel)}, so both legs of the transfer are written atomically.
+     * If group commit is enabled the transaction is written with the next group commit and this method blocks until
+     * it is committed.
+     * <p>
+     * A withdrawal is only written if the balance stored in the database covers it (the balance is checked and
+     * updated by a single conditional {@code UPDATE}), so concurrent sessions on the same account can never overdraw
+     * it, whatever balance they have cached. Writes are serialized by the single writer connection, so concurrent
+     * writes queue for it whatever accounts they touch.
+     * <p>
+     * A transaction with a request id (see {@link TransactionModel#getRequestId()}) is written at most once: if a
+     * transaction was already committed for the request, e.g. by an attempt the caller timed out on, nothing is
+     * written and the transaction gets the id of the committed ledger row. Recent requests are answered from the
+     * {@link CommittedRequestCache} without reading the database, older ones from the unique request_id index. A
+     * transaction that carries the request id of a different committed transaction is rejected with a
+     * {@link RequestIdReusedException}.
      *
      * @param transaction  the transaction to be added
      * @return true if the transaction is successfully added, false otherwise
      */
     public boolean addTransaction(TransactionModel transaction) {
-        String operation;
-        if (
-                transaction.getTransactionType() == TransactionModel.TransactionType.DEPOSIT ||
-                        transaction.getTransactionType() == TransactionModel.TransactionType.TRANSFER_DEPOSIT
-        )
-            operation = "+";
-        else
-            operation = "-";
+        if (groupCommitWriter == null
+                && transaction.getTransactionType() == TransactionModel.TransactionType.TRANSFER_WITHDRAW)
+            return transfer(transaction);
 
         try {
+            applyTransaction(transaction);
+            return true;
+        } catch (SQLException e) {
+            System.out.println("Error in attempting transaction: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Writes a transaction like {@link #addTransaction(TransactionModel)}, reporting why it failed
+     *
+     * @param transaction the transaction to be added
+     * @throws AccountNotFoundException      if an account of the transaction doesn't exist
+     * @throws InsufficientBalanceException  if the balance doesn't cover a withdrawal or transfer
+     * @throws DailyLimitExceededException   if a withdrawal exceeds the daily withdrawal limit
+     * @throws RequestIdReusedException      if the request id was committed for a different transaction
+     * @throws SQLException                  if the transaction can't be written
+     */
+    void applyTransaction(TransactionModel transaction) throws SQLException {
+        if (answerFromRequestCache(transaction))
+            return;
+
+        CompletableFuture<Long> queued = tryEnqueueTransaction(transaction);
+        if (queued != null) {
+            try {
+                queued.join();
+                return;
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof SQLException)
+                    throw (SQLException) e.getCause();
+                throw new SQLException(e.getCause());
+            }
+        }
+
+        if (transaction.getTransactionType() == TransactionModel.TransactionType.TRANSFER_WITHDRAW) {
+            applyTransfer(transaction);
+            return;
+        }
+
+        DatabaseMetrics.Operation operation = DatabaseMetrics.Operation.forWrite(transaction.getTransactionType());
+        long start = metrics.start();
+        try (PooledConnection pc = writePool.acquire()) {
+            Connection conn = pc.getConnection();
             conn.setAutoCommit(false);
 
-            PreparedStatement addTransactionStatement =
-                    conn.prepareStatement(
-                            "INSERT INTO " +
-                                    "transactions (account_id, transaction_type, amount, other_party_account_id) " +
-                                    "VALUES (?, ?, ?, ?)"
-                    );
+            writeEntry(pc, transaction);
+            pc.commit();
+            metrics.recordSuccess(operation, start);
+        } catch (SQLException e) {
+            metrics.recordFailure(operation, start, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Enqueues a transaction with the group commit writer, if group commit is enabled
+     *
+     * @param transaction the transaction to write
+     * @return a future completed with the id of the ledger row once it is committed, or null if group commit is not
+     * enabled
+     */
+    CompletableFuture<Long> tryEnqueueTransaction(TransactionModel transaction) {
+        GroupCommitWriter writer = groupCommitWriter;
+        if (writer == null)
+            return null;
+        try {
+            if (answerFromRequestCache(transaction))
+                return CompletableFuture.completedFuture(transaction.getId());
+        } catch (RequestIdReusedException e) {
+            return CompletableFuture.failedFuture(e);
+        }
 
-            addTransactionStatement.setLong(1, transaction.getAccountId());
-            addTransactionStatement.setInt(2, transaction.getTransactionType().getValue());
-            addTransactionStatement.setDouble(3, transaction.getAmount());
-            if (transaction.getOtherPartyAccountId() != 0)
-                addTransactionStatement.setLong(4, transaction.getOtherPartyAccountId());
+        DatabaseMetrics.Operation operation = DatabaseMetrics.Operation.forWrite(transaction.getTransactionType());
+        long start = metrics.start();
+        return writer.enqueue(transaction).whenComplete((id, e) -> {
+            if (e == null)
+                metrics.recordSuccess(operation, start);
             else
-                addTransactionStatement.setNull(4, Types.INTEGER);
+                metrics.recordFailure(operation, start, e);
+        });
+    }
 
-            addTransactionStatement.executeUpdate();
-            ResultSet rs = conn.prepareStatement("SELECT last_insert_rowid() AS id;").executeQuery();
-            if (rs.next())
-                transaction.setId(rs.getLong("id"));
+    /**
+     * Transfers money between two accounts.
+     * <p>
+     * Both legs of the transfer (the {@link TransactionModel.TransactionType#TRANSFER_WITHDRAW} on the sender and the
+     * {@link TransactionModel.TransactionType#TRANSFER_DEPOSIT} on the recipient) and both balance updates are
+     * written in a single database transaction, so either the whole transfer is recorded or nothing is, and the
+     * transfer costs a single commit. The transfer fails if the sender's balance doesn't cover it.
+     *
+     * @param transaction the withdraw leg of the transfer, its other party is the recipient
+     * @return true if the transfer is successfully recorded, false otherwise
+     */
+    public boolean transfer(TransactionModel transaction) {
+        try {
+            applyTransfer(transaction);
+            return true;
+        } catch (SQLException e) {
+            System.out.println("Error in attempting transfer: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Transfers money between two accounts like {@link #transfer(TransactionModel)}, reporting why it failed
+     *
+     * @param transaction the withdraw leg of the transfer, its other party is the recipient
+     * @throws SQLException if the transfer can't be recorded, see {@link #applyTransaction(TransactionModel)}
+     */
+    private void applyTransfer(TransactionModel transaction) throws SQLException {
+        transaction.setTransactionType(TransactionModel.TransactionType.TRANSFER_WITHDRAW);
+        if (answerFromRequestCache(transaction))
+            return;
 
+        long start = metrics.start();
+        try (PooledConnection pc = writePool.acquire()) {
+            Connection conn = pc.getConnection();
+            conn.setAutoCommit(false);
 
-            PreparedStatement balanceUpdateStatement = conn.prepareStatement(
-                    "UPDATE accounts SET balance = balance " + operation + " ? WHERE id = ?"
-            );
-            balanceUpdateStatement.setDouble(1, transaction.getAmount());
-            balanceUpdateStatement.setLong(2, transaction.getAccountId());
-            balanceUpdateStatement.executeUpdate();
-            conn.commit();
-
-            if (transaction.getTransactionType() == TransactionModel.TransactionType.TRANSFER_WITHDRAW) {
-                TransactionModel counterTransaction = new TransactionModel();
-                counterTransaction.setAccountId(transaction.getOtherPartyAccountId());
-                counterTransaction.setAmount(transaction.getAmount());
-                counterTransaction.setTransactionType(TransactionModel.TransactionType.TRANSFER_DEPOSIT);
-                counterTransaction.setOtherPartyAccountId(transaction.getAccountId());
-
-                return addTransaction(counterTransaction);
+            if (!findWrittenRequest(pc, transaction))
+                writeTransfer(pc, transaction);
+            pc.commit();
+            metrics.recordSuccess(DatabaseMetrics.Operation.TRANSFER_WITHDRAW, start);
+        } catch (SQLException e) {
+            metrics.recordFailure(DatabaseMetrics.Operation.TRANSFER_WITHDRAW, start, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Applies a large number of transfers (e.g. a payroll file).
+     * <p>
+     * Transfers are written in batches of {@link #BULK_TRANSFER_BATCH_SIZE}, each batch in a single database
+     * transaction, so the cost of a commit is shared by the whole batch.
+     * Every transfer is written under its own savepoint: a transfer that fails (e.g. because the sender's balance
+     * doesn't cover it) is rolled back to its savepoint and skipped, the rest of the batch is still committed.
+     * The id of a transfer that was not recorded is reset to 0.
+     *
+     * @param transfers the withdraw legs of the transfers, their other parties are the recipients
+     * @return the number of transfers that were successfully recorded
+     * @see #transfer(TransactionModel)
+     */
+    public int transferAll(List<TransactionModel> transfers) {
+        int applied = 0;
+
+        for (int from = 0; from < transfers.size(); from += BULK_TRANSFER_BATCH_SIZE) {
+            List<TransactionModel> batch = transfers.subList(from, Math.min(from + BULK_TRANSFER_BATCH_SIZE, transfers.size()));
+
+            List<TransactionModel> written = new ArrayList<>(batch.size());
+            try (PooledConnection pc = writePool.acquire()) {
+                Connection conn = pc.getConnection();
+                conn.setAutoCommit(false);
+
+                for (TransactionModel transaction : batch) {
+                    transaction.setTransactionType(TransactionModel.TransactionType.TRANSFER_WITHDRAW);
+                    Savepoint savepoint = conn.setSavepoint();
+                    int[] changeMark = pc.changeMark();
+                    try {
+                        if (!findWrittenRequest(pc, transaction))
+                            writeTransfer(pc, transaction);
+                        conn.releaseSavepoint(savepoint);
+                        written.add(transaction);
+                    } catch (SQLException e) {
+                        conn.rollback(savepoint);
+                        pc.discardChangesSince(changeMark);
+                        transaction.setId(0);
+                        System.out.println("Error in attempting transfer: " + e.getMessage());
+                    }
+                }
+                pc.commit();
+                applied += written.size();
+            } catch (SQLException e) {
+                System.out.println("Error in committing transfer batch: " + e.getMessage());
+                for (TransactionModel transaction : written)
+                    transaction.setId(0);
             }
+        }
+
+        return applied;
+    }
+
+    /**
+     * Enables group commit: from now on ledger writes of concurrent callers are coalesced by a single writer thread
+     * into one commit per {@code maxBatchSize} transactions or per {@code maxDelayMillis}, whichever comes first.
+     * Does nothing if group commit is already enabled.
+     *
+     * @param maxBatchSize   the maximum number of transactions per commit
+     * @param maxDelayMillis the maximum time a transaction waits for its batch to fill up
+     * @see GroupCommitWriter
+     */
+    public synchronized void enableGroupCommit(int maxBatchSize, long maxDelayMillis) {
+        if (groupCommitWriter == null)
+            groupCommitWriter = new GroupCommitWriter(writePool, this::writeEntry, maxBatchSize, maxDelayMillis);
+    }
 
+    /**
+     * Disables group commit after writing the transactions that are already queued.
+     * Does nothing if group commit is not enabled.
+     */
+    public synchronized void disableGroupCommit() {
+        if (groupCommitWriter != null) {
+            GroupCommitWriter writer = groupCommitWriter;
+            groupCommitWriter = null;
+            writer.stop();
+        }
+    }
+
+    /**
+     * Enqueues a transaction to be written with the next group commit.
+     * A {@link TransactionModel.TransactionType#TRANSFER_WITHDRAW} transaction is written together with its
+     * deposit leg.
+     *
+     * @param transaction the transaction to write
+     * @return a future completed with the id of the ledger row once it is committed,
+     * or completed exceptionally if the transaction could not be written
+     * @throws IllegalStateException if group commit is not enabled
+     * @see #enableGroupCommit(int, long)
+     */
+    public CompletableFuture<Long> enqueueTransaction(TransactionModel transaction) {
+        GroupCommitWriter writer = groupCommitWriter;
+        if (writer == null)
+            throw new IllegalStateException("Group commit is not enabled");
+        return writer.enqueue(transaction);
+    }
+
+    /**
+     * Writes a transaction on the given connection without committing, a transfer is written with both its legs.
+     * Nothing is written if an earlier attempt of the same request is already written, see
+     * {@link #findWrittenRequest(PooledConnection, TransactionModel)}.
+     *
+     * @param pc          the connection with an open transaction
+     * @param transaction the transaction to write
+     * @throws SQLException if any of the writes fails
+     */
+    private void writeEntry(PooledConnection pc, TransactionModel transaction) throws SQLException {
+        if (findWrittenRequest(pc, transaction))
+            return;
+        if (transaction.getTransactionType() == TransactionModel.TransactionType.TRANSFER_WITHDRAW)
+            writeTransfer(pc, transaction);
+        else
+            writeTransaction(pc, transaction);
+    }
+
+    /**
+     * Answers a retried request from the request cache: if a transaction was committed for the request id of the
+     * given transaction, the id and the time of its ledger row are set on the transaction
+     *
+     * @param transaction the transaction to look up
+     * @return true if a transaction was committed for the request, false if it is unknown or has no request id
+     * @throws RequestIdReusedException if the request id was committed for a different transaction
+     */
+    private boolean answerFromRequestCache(TransactionModel transaction) throws RequestIdReusedException {
+        if (transaction.getRequestId() == null)
+            return false;
+
+        CommittedRequestCache.CommittedRequest request = requestCache.get(transaction.getRequestId());
+        if (request == null)
+            return false;
+        answerRetry(request, transaction);
+        return true;
+    }
+
+    /**
+     * Sets the id and the time of the ledger row committed for a request on a retry of it
+     *
+     * @param request     the committed request
+     * @param transaction the retry, carrying the request id
+     * @throws RequestIdReusedException if the transaction is not the committed one
+     */
+    private static void answerRetry(CommittedRequestCache.CommittedRequest request, TransactionModel transaction)
+            throws RequestIdReusedException {
+        if (!request.matches(transaction))
+            throw new RequestIdReusedException(
+                    "Request " + transaction.getRequestId() + " was committed for a different transaction"
+            );
+        transaction.setId(request.getTransactionId());
+        transaction.setCreatedAt(request.getCreatedAt());
+    }
+
+    /**
+     * Looks up whether a ledger row was already written for the request id of the given transaction, in the request
+     * cache and then by the unique request_id index on the given connection, which also sees what the open
+     * transaction wrote. If so, the id and the time of that ledger row are set on the transaction.
+     *
+     * @param pc          the connection with an open transaction
+     * @param transaction the transaction to look up
+     * @return true if a ledger row was written for the request, false if it is unknown or has no request id
+     * @throws RequestIdReusedException if the request id was written for a different transaction
+     * @throws SQLException             if the lookup fails
+     */
+    private boolean findWrittenRequest(PooledConnection pc, TransactionModel transaction) throws SQLException {
+        if (transaction.getRequestId() == null)
+            return false;
+        if (answerFromRequestCache(transaction))
             return true;
-        } catch (SQLException e) {
-            System.out.println("Error in attempting transaction: " + e.getMessage());
+
+        CommittedRequestCache.CommittedRequest request;
+        PreparedStatement stmt = pc.prepare(SELECT_REQUEST);
+        stmt.setString(1, transaction.getRequestId());
+        try (ResultSet rs = stmt.executeQuery()) {
+            if (!rs.next())
+                return false;
+            request = new CommittedRequestCache.CommittedRequest(
+                    rs.getLong("id"),
+                    rs.getLong("created_at"),
+                    rs.getLong("account_id"),
+                    TransactionModel.TransactionType.fromValue(rs.getInt("transaction_type")),
+                    rs.getLong("amount"),
+                    rs.getLong("other_party_account_id")
+            );
+        }
+        answerRetry(request, transaction);
+        pc.recordRequest(transaction.getRequestId(), request);
+        return true;
+    }
+
+    /**
+     * Looks up whether a transaction was committed for the request id of the given transaction, like
+     * {@link #findWrittenRequest(PooledConnection, TransactionModel)} but outside a write transaction
+     *
+     * @param transaction the transaction to look up
+     * @return true if a transaction was committed for the request, false if it is unknown or has no request id
+     * @throws SQLException if the lookup fails
+     */
+    boolean findCommittedRequest(TransactionModel transaction) throws SQLException {
+        if (transaction.getRequestId() == null)
             return false;
+        try (PooledConnection pc = readPool.acquire()) {
+            return findWrittenRequest(pc, transaction);
+        }
+    }
+
+    /**
+     * Writes both legs of a transfer and both balance updates on the given connection, without committing
+     *
+     * @param pc          the connection with an open transaction
+     * @param transaction the withdraw leg of the transfer, its other party is the recipient
+     * @throws SQLException if any of the writes fails
+     */
+    private void writeTransfer(PooledConnection pc, TransactionModel transaction) throws SQLException {
+        transaction.setTransactionType(TransactionModel.TransactionType.TRANSFER_WITHDRAW);
+        writeTransaction(pc, transaction);
+
+        TransactionModel counterTransaction = new TransactionModel();
+        counterTransaction.setAccountId(transaction.getOtherPartyAccountId());
+        counterTransaction.setAmount(transaction.getAmount());
+        counterTransaction.setTransactionType(TransactionModel.TransactionType.TRANSFER_DEPOSIT);
+        counterTransaction.setOtherPartyAccountId(transaction.getAccountId());
+        writeTransaction(pc, counterTransaction);
+    }
+
+    /**
+     * Inserts a single ledger row, updates the balance of its account and the daily total of the account on the given
+     * connection, without committing.
+     * A cash withdrawal fails if it takes the daily total of withdrawals over the daily withdrawal limit.
+     * The id assigned to the row is set on the transaction, and the new balance is recorded on the connection so it is
+     * written through to the account cache once committed.
+     *
+     * @param pc          the connection with an open transaction
+     * @param transaction the transaction to write
+     * @throws SQLException if any of the writes fails
+     */
+    private void writeTransaction(PooledConnection pc, TransactionModel transaction) throws SQLException {
+        // The balance is updated first, so a withdrawal that is not covered fails before anything is inserted
+        long balance;
+        if (
+                transaction.getTransactionType() == TransactionModel.TransactionType.DEPOSIT ||
+                        transaction.getTransactionType() == TransactionModel.TransactionType.TRANSFER_DEPOSIT
+        ) {
+            PreparedStatement creditStatement = pc.prepare(CREDIT_BALANCE);
+            creditStatement.setLong(1, transaction.getAmount());
+            creditStatement.setLong(2, transaction.getAccountId());
+            try (ResultSet rs = creditStatement.executeQuery()) {
+                if (!rs.next())
+                    throw new AccountNotFoundException("Account " + transaction.getAccountId() + " does not exist");
+                balance = rs.getLong("balance");
+            }
+        } else {
+            PreparedStatement debitStatement = pc.prepare(DEBIT_BALANCE);
+            debitStatement.setLong(1, transaction.getAmount());
+            debitStatement.setLong(2, transaction.getAccountId());
+            debitStatement.setLong(3, transaction.getAmount());
+            try (ResultSet rs = debitStatement.executeQuery()) {
+                balance = rs.next() ? rs.getLong("balance") : -1;
+            }
+            if (balance < 0) {
+                // Only a rejected debit pays for telling a missing account apart from an insufficient balance
+                PreparedStatement existsStatement = pc.prepare(SELECT_ACCOUNT_EXISTS);
+                existsStatement.setLong(1, transaction.getAccountId());
+                try (ResultSet rs = existsStatement.executeQuery()) {
+                    if (!rs.next())
+                        throw new AccountNotFoundException("Account " + transaction.getAccountId() + " does not exist");
+                }
+                throw new InsufficientBalanceException(
+                        "Account " + transaction.getAccountId() + " has insufficient balance"
+                );
+            }
+        }
+
+        transaction.setCreatedAt(System.currentTimeMillis());
+        PreparedStatement addTransactionStatement = pc.prepare(INSERT_TRANSACTION);
+        addTransactionStatement.setLong(1, transaction.getAccountId());
+        addTransactionStatement.setInt(2, transaction.getTransactionType().getValue());
+        addTransactionStatement.setLong(3, transaction.getAmount());
+        if (transaction.getOtherPartyAccountId() != 0)
+            addTransactionStatement.setLong(4, transaction.getOtherPartyAccountId());
+        else
+            addTransactionStatement.setNull(4, Types.INTEGER);
+        addTransactionStatement.setLong(5, transaction.getCreatedAt());
+        addTransactionStatement.setString(6, transaction.getRequestId());
+        addTransactionStatement.executeUpdate();
+
+        try (ResultSet rs = pc.prepare(SELECT_LAST_INSERT_ID).executeQuery()) {
+            if (rs.next())
+                transaction.setId(rs.getLong("id"));
+        }
+        if (transaction.getRequestId() != null)
+            pc.recordRequest(transaction.getRequestId(), new CommittedRequestCache.CommittedRequest(transaction));
+
+        long dailyTotal;
+        PreparedStatement dailyTotalStatement = pc.prepare(UPSERT_DAILY_TOTAL);
+        dailyTotalStatement.setLong(1, transaction.getAccountId());
+        dailyTotalStatement.setLong(2, epochDay(transaction.getCreatedAt()));
+        dailyTotalStatement.setInt(3, transaction.getTransactionType().getValue());
+        dailyTotalStatement.setLong(4, transaction.getAmount());
+        try (ResultSet rs = dailyTotalStatement.executeQuery()) {
+            dailyTotal = rs.next() ? rs.getLong("amount") : 0;
         }
+
+        long limit = dailyWithdrawalLimit;
+        boolean cashWithdrawal = transaction.getTransactionType() == TransactionModel.TransactionType.WITHDRAW;
+        if (cashWithdrawal && limit > 0 && dailyTotal > limit)
+            throw new DailyLimitExceededException(
+                    "Account " + transaction.getAccountId() + " exceeded its daily withdrawal limit"
+            );
+
+        pc.recordBalance(transaction.getAccountId(), balance, transaction.getId());
     }
 
     /**
      * Retrieves the transaction history for a given account.
+     * <p>
+     * This loads the whole history into memory, callers that only show part of it should use
+     * {@link #getTransactionPage(long, long, int)} (or {@link AccountModel#getTransactions()}) instead.
      *
      * @param account the account for which to retrieve the transaction history
      * @return an ArrayList of TransactionModel objects representing the transaction history of the account
      */
     public ArrayList<TransactionModel> getTransactionHistory(AccountModel account) {
         ArrayList<TransactionModel> transactionList = new ArrayList<>();
+        long start = metrics.start();
 
-        try (PreparedStatement stmt = conn.prepareStatement(
-                "SELECT t.id, t.account_id, tt.transaction_type, t.amount, t.other_party_account_id " +
-                        "FROM transactions t " +
-                        "LEFT JOIN transaction_type tt ON t.transaction_type = tt.id " +
-                        "WHERE t.account_id = ?"
-        )
-        ) {
-
+        try (PooledConnection pc = readPoolFor(account.getId()).acquire()) {
+            PreparedStatement stmt = pc.prepare(SELECT_TRANSACTION_HISTORY);
             stmt.setLong(1, account.getId());
-            ResultSet rs = stmt.executeQuery();
 
-            while (rs.next()) {
-                TransactionModel transaction = new TransactionModel();
-                transaction.setId(rs.getLong("id"));
-                transaction.setAccountId(rs.getLong("account_id"));
-                transaction.setTransactionType(TransactionModel.TransactionType.valueOf(
-                        rs.getString("transaction_type")
-                ));
-                transaction.setAmount(rs.getDouble("amount"));
-                transaction.setOtherPartyAccountId(rs.getInt("other_party_account_id"));
-                transactionList.add(transaction);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    transactionList.add(readTransaction(rs));
+                }
+            }
+
+            resolveOtherParties(pc, transactionList);
+            metrics.recordSuccess(DatabaseMetrics.Operation.HISTORY_FETCH, start);
+        } catch (SQLException e) {
+            metrics.recordFailure(DatabaseMetrics.Operation.HISTORY_FETCH, start, e);
+            System.out.println("Error retrieving transaction history: " + e.getMessage());
+        }
+
+        return transactionList;
+    }
+
+    /**
+     * Retrieves a single page of the transaction history of an account, newest first.
+     * <p>
+     * Pages are addressed by keyset rather than by offset: the next page starts below the id of the last transaction
+     * of the previous one, so every page is a range scan on the (account_id, id) index no matter how deep it is.
+     *
+     * @param accountId the account for which to retrieve the transactions
+     * @param beforeId  only transactions with an id lower than this are returned,
+     *                  {@link Long#MAX_VALUE} to start from the newest transaction
+     * @param limit     the maximum number of transactions to return
+     * @return an ArrayList of at most {@code limit} TransactionModel objects, ordered by descending id
+     * @see model.TransactionHistory
+     */
+    public ArrayList<TransactionModel> getTransactionPage(long accountId, long beforeId, int limit) {
+        ArrayList<TransactionModel> transactionList = new ArrayList<>(limit);
+        long start = metrics.start();
+
+        try (PooledConnection pc = readPoolFor(accountId).acquire()) {
+            PreparedStatement stmt = pc.prepare(SELECT_TRANSACTION_PAGE);
+            stmt.setLong(1, accountId);
+            stmt.setLong(2, beforeId);
+            stmt.setInt(3, limit);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    transactionList.add(readTransaction(rs));
+                }
             }
+
+            resolveOtherParties(pc, transactionList);
+            metrics.recordSuccess(DatabaseMetrics.Operation.HISTORY_FETCH, start);
         } catch (SQLException e) {
+            metrics.recordFailure(DatabaseMetrics.Operation.HISTORY_FETCH, start, e);
             System.out.println("Error retrieving transaction history: " + e.getMessage());
         }
 
         return transactionList;
     }
+
+    /**
+     * Retrieves the transactions of an account written in the given time range, newest first.
+     * The range is read from the (account_id, created_at) index, so its cost depends on the size of the range rather
+     * than on the size of the account's history.
+     *
+     * @param accountId  the account for which to retrieve the transactions
+     * @param fromMillis the start of the range (inclusive), in milliseconds since the epoch
+     * @param toMillis   the end of the range (exclusive), in milliseconds since the epoch
+     * @return an ArrayList of TransactionModel objects, ordered by descending time
+     */
+    public ArrayList<TransactionModel> getTransactionsBetween(long accountId, long fromMillis, long toMillis) {
+        ArrayList<TransactionModel> transactionList = new ArrayList<>();
+        long start = metrics.start();
+
+        try (PooledConnection pc = readPoolFor(accountId).acquire()) {
+            PreparedStatement stmt = pc.prepare(SELECT_TRANSACTIONS_BETWEEN);
+            stmt.setLong(1, accountId);
+            stmt.setLong(2, fromMillis);
+            stmt.setLong(3, toMillis);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    transactionList.add(readTransaction(rs));
+                }
+            }
+
+            resolveOtherParties(pc, transactionList);
+            metrics.recordSuccess(DatabaseMetrics.Operation.HISTORY_FETCH, start);
+        } catch (SQLException e) {
+            metrics.recordFailure(DatabaseMetrics.Operation.HISTORY_FETCH, start, e);
+            System.out.println("Error retrieving transaction history: " + e.getMessage());
+        }
+
+        return transactionList;
+    }
+
+    /**
+     * Returns the pool to read the transaction history of an account from: the replica if the ledger is replicated
+     * and the replica holds every ledger row of the account (so a session always sees its own writes), the primary
+     * database otherwise
+     *
+     * @param accountId the account whose history is read
+     * @return the connection pool to read from
+     * @throws SQLException if the account can't be read
+     */
+    private ConnectionPool readPoolFor(long accountId) throws SQLException {
+        LedgerReplicator replicator = this.replicator;
+        if (replicator == null)
+            return readPool;
+
+        AccountCache.Entry entry = findAccount(accountId);
+        if (entry == null || entry.getVersion() > replicator.getReplicatedTransactionId())
+            return readPool;
+        return replicator.getReadPool();
+    }
+
+    /**
+     * Retrieves the total amount of the transactions of one type written on an account on the given day
+     *
+     * @param accountId       the account
+     * @param transactionType the type of the transactions
+     * @param day             the day, in the local time zone
+     * @return the total amount in minor units, 0 if there were no such transactions, or -1 if an error occurs
+     */
+    public long getDailyTotal(long accountId, TransactionModel.TransactionType transactionType, LocalDate day) {
+        try (PooledConnection pc = readPool.acquire()) {
+            PreparedStatement stmt = pc.prepare(SELECT_DAILY_TOTAL);
+            stmt.setLong(1, accountId);
+            stmt.setLong(2, day.toEpochDay());
+            stmt.setInt(3, transactionType.getValue());
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getLong("amount") : 0;
+            }
+        } catch (SQLException e) {
+            System.out.println("Error retrieving daily total: " + e.getMessage());
+            return -1;
+        }
+    }
+
+    /**
+     * Returns how much cash can still be withdrawn from an account today
+     *
+     * @param accountId the account
+     * @return the remaining amount in minor units, {@link Long#MAX_VALUE} if there is no daily withdrawal limit
+     * @see #setDailyWithdrawalLimit(long)
+     */
+    public long getRemainingDailyWithdrawal(long accountId) {
+        long limit = dailyWithdrawalLimit;
+        if (limit <= 0)
+            return Long.MAX_VALUE;
+
+        long withdrawn = getDailyTotal(accountId, TransactionModel.TransactionType.WITHDRAW, LocalDate.now());
+        return withdrawn < 0 ? 0 : Math.max(0, limit - withdrawn);
+    }
+
+    /**
+     * Sets the maximum amount of cash that can be withdrawn from an account per (local) day.
+     * Transfers don't count towards the limit. The limit is checked in the same database transaction that writes the
+     * withdrawal, so concurrent sessions can't exceed it together.
+     *
+     * @param limit the limit in minor units, 0 for no limit (the default)
+     */
+    public void setDailyWithdrawalLimit(long limit) {
+        this.dailyWithdrawalLimit = limit;
+    }
+
+    /**
+     * Returns the maximum amount of cash that can be withdrawn from an account per day
+     *
+     * @return the limit in minor units, 0 for no limit
+     */
+    public long getDailyWithdrawalLimit() {
+        return dailyWithdrawalLimit;
+    }
+
+    /**
+     * Returns the local calendar day of a timestamp, as used by the daily_totals table
+     *
+     * @param epochMillis the timestamp in milliseconds since the epoch
+     * @return the number of days since 1970-01-01
+     * @see SchemaMigrations#epochDaySql(String)
+     */
+    private static long epochDay(long epochMillis) {
+        return LocalDate.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault()).toEpochDay();
+    }
+
+    /**
+     * Fills in the user ID and user name of the other party of every transfer in the given list.
+     * <p>
+     * Identities are taken from the identity cache where possible, the remaining ones are loaded with a single
+     * batched query, so rendering a page of history costs a constant number of round trips no matter how many
+     * transfers it contains.
+     *
+     * @param pc           the connection to use for the batched lookup
+     * @param transactions the transactions whose other parties should be resolved
+     * @throws SQLException if the batched lookup fails
+     */
+    private void resolveOtherParties(PooledConnection pc, ArrayList<TransactionModel> transactions) throws SQLException {
+        Set<Long> otherPartyIds = new LinkedHashSet<>();
+        for (TransactionModel transaction : transactions) {
+            if (transaction.getOtherPartyAccountId() != 0)
+                otherPartyIds.add(transaction.getOtherPartyAccountId());
+        }
+
+        Map<Long, AccountIdentityCache.Identity> identities = findIdentities(pc, otherPartyIds);
+        for (TransactionModel transaction : transactions) {
+            AccountIdentityCache.Identity identity = identities.get(transaction.getOtherPartyAccountId());
+            if (identity != null) {
+                transaction.setOtherPartyUserId(identity.getUserId());
+                transaction.setOtherPartyUserName(identity.getUserName());
+            }
+        }
+    }
+
+    /**
+     * Retrieves the user ID and user name of each of the given accounts, from the identity cache where possible and
+     * with a single batched query for the rest. Accounts that don't exist are missing from the result.
+     *
+     * @param accountIds the accounts to look up
+     * @return the identities of the accounts that were found, by account id
+     * @throws SQLException if the batched lookup fails
+     */
+    Map<Long, AccountIdentityCache.Identity> findIdentities(Set<Long> accountIds) throws SQLException {
+        if (accountIds.isEmpty())
+            return new HashMap<>();
+
+        try (PooledConnection pc = readPool.acquire()) {
+            return findIdentities(pc, accountIds);
+        }
+    }
+
+    private Map<Long, AccountIdentityCache.Identity> findIdentities(PooledConnection pc, Set<Long> accountIds)
+            throws SQLException {
+        Map<Long, AccountIdentityCache.Identity> identities = new HashMap<>();
+        Set<Long> missingIds = new LinkedHashSet<>();
+        for (long accountId : accountIds) {
+            AccountIdentityCache.Identity identity = identityCache.get(accountId);
+            if (identity != null)
+                identities.put(accountId, identity);
+            else
+                missingIds.add(accountId);
+        }
+
+        if (missingIds.isEmpty())
+            return identities;
+
+        StringBuilder query = new StringBuilder("SELECT id, user_id, user_name FROM accounts WHERE id IN (");
+        for (int i = 0; i < missingIds.size(); i++)
+            query.append(i == 0 ? "?" : ", ?");
+        query.append(")");
+
+        try (PreparedStatement stmt = pc.getConnection().prepareStatement(query.toString())) {
+            int index = 1;
+            for (long id : missingIds)
+                stmt.setLong(index++, id);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    AccountIdentityCache.Identity identity =
+                            new AccountIdentityCache.Identity(rs.getString("user_id"), rs.getString("user_name"));
+                    identityCache.put(rs.getLong("id"), identity);
+                    identities.put(rs.getLong("id"), identity);
+                }
+            }
+        }
+        return identities;
+    }
+
+    /**
+     * Maps the current row of a transaction query to a {@link TransactionModel}
+     *
+     * @param rs the result set positioned on a transaction row
+     * @return the transaction
+     * @throws SQLException if a column can't be read
+     */
+    private static TransactionModel readTransaction(ResultSet rs) throws SQLException {
+        TransactionModel transaction = new TransactionModel();
+        transaction.setId(rs.getLong("id"));
+        transaction.setAccountId(rs.getLong("account_id"));
+        transaction.setTransactionType(TransactionModel.TransactionType.fromValue(rs.getInt("transaction_type")));
+        transaction.setAmount(rs.getLong("amount"));
+        transaction.setOtherPartyAccountId(rs.getLong("other_party_account_id"));
+        transaction.setCreatedAt(rs.getLong("created_at"));
+        return transaction;
+    }
+
+    /**
+     * A write left uncommitted on the writer connection, see {@link #beginWrite()}
+     */
+    final class PendingWrite implements AutoCloseable {
+        private final PooledConnection pc;
+
+        private PendingWrite(PooledConnection pc) {
+            this.pc = pc;
+        }
+
+        /**
+         * Writes a single ledger row and its balance update, like {@link #addTransaction(TransactionModel)} does for
+         * a deposit or withdrawal. A request id is not looked up first, writing a request twice fails on the unique
+         * request_id index instead.
+         *
+         * @param transaction the transaction to write, its id is set
+         * @throws SQLException if the write fails
+         */
+        void write(TransactionModel transaction) throws SQLException {
+            writeTransaction(pc, transaction);
+        }
+
+        PooledConnection getConnection() {
+            return pc;
+        }
+
+        void commit() throws SQLException {
+            pc.commit();
+        }
+
+        /**
+         * Gives the connection back to the pool, rolling back what wasn't committed
+         */
+        @Override
+        public void close() {
+            pc.close();
+        }
+    }
+
+    /**
+     * Returns the ledger verifier of this database, which checks the stored balances against the transaction ledger
+     *
+     * @return the ledger verifier
+     * @see LedgerVerifier
+     */
+    public synchronized LedgerVerifier getLedgerVerifier() {
+        if (ledgerVerifier == null)
+            ledgerVerifier = new LedgerVerifier(readPool, writePool);
+        return ledgerVerifier;
+    }
+
+    /**
+     * Returns the ledger exporter of this database, which streams transaction histories as CSV or JSON lines.
+     * While the ledger is replicated the exporter reads from the replica, so exports don't compete with ATM sessions
+     * for the primary database and include every transaction up to the replication lag.
+     *
+     * @return the ledger exporter
+     * @see LedgerExporter
+     */
+    public synchronized LedgerExporter getLedgerExporter() {
+        if (replicator != null)
+            return replicator.getLedgerExporter();
+        if (ledgerExporter == null)
+            ledgerExporter = new LedgerExporter(readPool);
+        return ledgerExporter;
+    }
+
+    /**
+     * Returns the non-blocking facade of this database, whose operations run on dedicated bounded executors
+     *
+     * @return the async manager
+     * @see AsyncDatabaseManager
+     */
+    public synchronized AsyncDatabaseManager getAsync() {
+        if (asyncManager == null)
+            asyncManager = new AsyncDatabaseManager(this, POOL_SIZE, WRITE_POOL_SIZE, ASYNC_QUEUE_CAPACITY);
+        return asyncManager;
+    }
+
+    /**
+     * Returns the latency, call count and error metrics of the operations of this database
+     *
+     * @return the metrics
+     * @see DatabaseMetrics
+     */
+    public DatabaseMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Starts watching the database for commits made by other processes, every one of them evicts the whole account
+     * cache. Writes made through this DatabaseManager keep the cache up to date by themselves, but other programs
+     * (another ATM or server, a benchmark) may write the same database file at any time, so every instance starts
+     * watching every {@value #EXTERNAL_CHANGE_POLL_MILLIS} ms when it is opened. This method changes the poll
+     * interval after {@link #disableExternalChangeDetection()}.
+     * Does nothing if the watcher is already running.
+     *
+     * @param pollMillis how often the database is checked for changes
+     * @see ExternalChangeWatcher
+     */
+    public synchronized void enableExternalChangeDetection(long pollMillis) {
+        if (externalChangeWatcher != null)
+            return;
+        try {
+            externalChangeWatcher = new ExternalChangeWatcher(writePool, accountCache, pollMillis);
+        } catch (SQLException e) {
+            System.out.println("Error watching database for external changes: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Stops the watcher started by {@link #enableExternalChangeDetection(long)}
+     */
+    public synchronized void disableExternalChangeDetection() {
+        if (externalChangeWatcher != null) {
+            externalChangeWatcher.close();
+            externalChangeWatcher = null;
+        }
+    }
+
+    /**
+     * Starts replicating the ledger to a hot standby database file. The file is created as a copy of this database,
+     * or brought up to date if it is an earlier copy, then every commit is shipped to it in the background.
+     * <p>
+     * While replication is enabled, transaction histories are read from the replica (unless it doesn't hold the
+     * latest writes of the account yet) and so are exports, see {@link #getLedgerExporter()}. The replication lag is
+     * reported by the {@link DatabaseMetrics}. Does nothing if replication is already enabled.
+     *
+     * @param replicaFile the replica database file
+     * @param pollMillis  how often the replicator looks for changes not announced by a commit (e.g. new accounts)
+     * @see LedgerReplicator
+     */
+    public synchronized void enableReplication(Path replicaFile, long pollMillis) {
+        if (replicator != null)
+            return;
+        try {
+            replicator = new LedgerReplicator(url, readPool, replicaFile, POOL_SIZE, pollMillis, metrics);
+            writePool.setCommitListener(replicator::notifyCommitted);
+        } catch (SQLException e) {
+            System.out.println("Error starting ledger replication: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Stops the replication started by {@link #enableReplication(Path, long)}, reads go to this database again.
+     * The replica file is kept.
+     */
+    public synchronized void disableReplication() {
+        if (replicator != null) {
+            LedgerReplicator stopped = replicator;
+            writePool.setCommitListener(null);
+            replicator = null;
+            stopped.close();
+        }
+    }
+
+    /**
+     * Returns the number of account lookups served from the account cache
+     *
+     * @return the number of account cache hits
+     * @see AccountCache
+     */
+    public long getAccountCacheHits() {
+        return accountCache.getHits();
+    }
+
+    /**
+     * Returns the number of account lookups that had to read the database
+     *
+     * @return the number of account cache misses
+     * @see AccountCache
+     */
+    public long getAccountCacheMisses() {
+        return accountCache.getMisses();
+    }
+
+    /**
+     * Returns the share of account lookups served from the account cache
+     *
+     * @return the hit rate between 0 and 1, 0 if there was no lookup yet
+     * @see AccountCache
+     */
+    public double getAccountCacheHitRate() {
+        long hits = accountCache.getHits();
+        long lookups = hits + accountCache.getMisses();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    /**
+     * Returns the number of accounts currently in the account cache
+     *
+     * @return the account cache size
+     * @see AccountCache
+     */
+    public int getAccountCacheSize() {
+        return accountCache.size();
+    }
+
+    /**
+     * Returns the number of retried requests answered from the request cache, without reading the database
+     *
+     * @return the number of request cache hits
+     * @see CommittedRequestCache
+     */
+    public long getRequestCacheHits() {
+        return requestCache.getHits();
+    }
+
+    /**
+     * Returns the number of prepared statements served from the per-connection statement caches
+     *
+     * @return the number of statement cache hits
+     * @see StatementCache
+     */
+    public long getStatementCacheHits() {
+        return readPool.getStatementCacheHits() + writePool.getStatementCacheHits();
+    }
+
+    /**
+     * Returns the number of prepared statements that had to be compiled because they were not cached
+     *
+     * @return the number of statement cache misses
+     * @see StatementCache
+     */
+    public long getStatementCacheMisses() {
+        return readPool.getStatementCacheMisses() + writePool.getStatementCacheMisses();
+    }
+
+    /**
+     * Returns the number of prepared statements evicted from the per-connection statement caches
+     *
+     * @return the number of statement cache evictions
+     * @see StatementCache
+     */
+    public long getStatementCacheEvictions() {
+        return readPool.getStatementCacheEvictions() + writePool.getStatementCacheEvictions();
+    }
+
+    /**
+     * Stops the background work of this instance (async operations, group commit, replication, periodic checkpoints
+     * and reports, change detection) and closes every database connection
+     */
+    public synchronized void close() {
+        if (asyncManager != null)
+            asyncManager.close();
+        disableGroupCommit();
+        disableReplication();
+        disableExternalChangeDetection();
+        metrics.stopPeriodicReport();
+        if (ledgerVerifier != null)
+            ledgerVerifier.stopPeriodicCheckpoints();
+        readPool.close();
+        writePool.close();
+    }
 }
@@ -0,0 +1,276 @@
+package database;
+
+import model.TransactionModel;
+
+import java.sql.SQLException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * DatabaseMetrics records the latency, the number of calls and the errors of every {@link DatabaseManager}
+ * operation.
+ * <p>
+ * Latencies are kept in a {@link LatencyHistogram} per operation, errors are counted per operation and cause (the
+ * exception type, and the SQLite result code if there is one). Everything is recorded with a handful of atomic
+ * increments, so the metrics stay on for every call.
+ * <p>
+ * {@link #report()} renders the metrics as a text table; {@link #startPeriodicReport(long)} prints it periodically and
+ * starts a new window after every report, so a p99 regression shows up in the next report instead of being averaged
+ * away by everything recorded since the start.
+ * <p>
+ * While the ledger is replicated (see {@link DatabaseManager#enableReplication(java.nio.file.Path, long)}), the
+ * replication lag is reported too. Unlike the latencies it is a gauge: the value measured after the last shipment,
+ * which a new window doesn't reset.
+ *
+ * @author <a href="https://github.com/itsyourap">Ankan Pal</a>
+ * @see DatabaseManager#getMetrics()
+ */
+public class DatabaseMetrics {
+    /**
+     * The operations that are measured
+     */
+    public enum Operation {
+        LOGIN,
+        ACCOUNT_FETCH,
+        HISTORY_FETCH,
+        DEPOSIT,
+        WITHDRAW,
+        TRANSFER_DEPOSIT,
+        TRANSFER_WITHDRAW;
+
+        /**
+         * Returns the operation writing transactions of the given type
+         *
+         * @param transactionType the type of the written transaction
+         * @return the write operation
+         */
+        public static Operation forWrite(TransactionModel.TransactionType transactionType) {
+            return switch (transactionType) {
+                case DEPOSIT -> DEPOSIT;
+                case WITHDRAW -> WITHDRAW;
+                case TRANSFER_DEPOSIT -> TRANSFER_DEPOSIT;
+                case TRANSFER_WITHDRAW -> TRANSFER_WITHDRAW;
+            };
+        }
+    }
+
+    // The metrics of every operation
+    private final Map<Operation, OperationMetrics> operations = new EnumMap<>(Operation.class);
+
+    // When the current window started, see reset()
+    private volatile long windowStartNanos = System.nanoTime();
+
+    // Ledger rows committed on the primary but not shipped to the replica yet, and the age (in milliseconds) of the
+    // oldest of them, as of the last shipment; both -1 while the ledger is not replicated
+    private volatile long replicationLagTransactions = -1;
+    private volatile long replicationLagMillis = -1;
+
+    // Prints the periodic reports, null unless they are started
+    private ScheduledExecutorService scheduler;
+
+    DatabaseMetrics() {
+        for (Operation operation : Operation.values())
+            operations.put(operation, new OperationMetrics());
+    }
+
+    /**
+     * Returns the start time to pass to {@link #recordSuccess(Operation, long)} or
+     * {@link #recordFailure(Operation, long, Throwable)}
+     *
+     * @return the current time in nanoseconds
+     */
+    long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records a successful call
+     *
+     * @param operation  the operation called
+     * @param startNanos the time returned by {@link #start()} when the call started
+     */
+    void recordSuccess(Operation operation, long startNanos) {
+        operations.get(operation).latencies.record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Records a failed call
+     *
+     * @param operation  the operation called
+     * @param startNanos the time returned by {@link #start()} when the call started
+     * @param cause      the reason of the failure
+     */
+    void recordFailure(Operation operation, long startNanos, Throwable cause) {
+        OperationMetrics metrics = operations.get(operation);
+        metrics.latencies.record(System.nanoTime() - startNanos);
+        metrics.errors.computeIfAbsent(describe(cause), key -> new LongAdder()).increment();
+    }
+
+    private static String describe(Throwable cause) {
+        if (cause instanceof SQLException && ((SQLException) cause).getErrorCode() != 0)
+            return cause.getClass().getSimpleName() + " (SQLite code " + ((SQLException) cause).getErrorCode() + ")";
+        return cause.getClass().getSimpleName();
+    }
+
+    /**
+     * Records the replication lag measured after a shipment to the replica
+     *
+     * @param transactions the number of ledger rows not shipped yet, -1 once replication is stopped
+     * @param millis       the age of the oldest ledger row not shipped yet, 0 if there is none, -1 once replication is
+     *                     stopped
+     */
+    void recordReplicationLag(long transactions, long millis) {
+        replicationLagTransactions = transactions;
+        replicationLagMillis = millis;
+    }
+
+    /**
+     * Returns the number of ledger rows committed on the primary database that the replica doesn't hold yet
+     *
+     * @return the number of ledger rows, -1 if the ledger is not replicated
+     */
+    public long getReplicationLagTransactions() {
+        return replicationLagTransactions;
+    }
+
+    /**
+     * Returns how long ago the oldest ledger row the replica doesn't hold yet was committed, i.e. how stale the
+     * replica is
+     *
+     * @return the lag in milliseconds, 0 if the replica is up to date, -1 if the ledger is not replicated
+     */
+    public long getReplicationLagMillis() {
+        return replicationLagMillis;
+    }
+
+    /**
+     * Returns the number of calls of an operation in the current window, failed calls included
+     *
+     * @param operation the operation
+     * @return the number of calls
+     */
+    public long getCount(Operation operation) {
+        return operations.get(operation).latencies.getCount();
+    }
+
+    /**
+     * Returns the latency of an operation at the given percentile in the current window
+     *
+     * @param operation  the operation
+     * @param percentile the percentile, between 0 and 1 (e.g. 0.99 for the 99th percentile)
+     * @return the latency in nanoseconds
+     */
+    public long getLatencyNanos(Operation operation, double percentile) {
+        return operations.get(operation).latencies.getValueAtPercentile(percentile);
+    }
+
+    /**
+     * Returns the number of failed calls of an operation in the current window, by cause
+     *
+     * @param operation the operation
+     * @return the number of failures by cause, sorted by cause
+     */
+    public Map<String, Long> getErrors(Operation operation) {
+        Map<String, Long> errors = new TreeMap<>();
+        operations.get(operation).errors.forEach((cause, count) -> errors.put(cause, count.sum()));
+        return errors;
+    }
+
+    /**
+     * Starts a new window: forgets everything recorded so far
+     */
+    public void reset() {
+        for (OperationMetrics metrics : operations.values()) {
+            metrics.latencies.reset();
+            metrics.errors.clear();
+        }
+        windowStartNanos = System.nanoTime();
+    }
+
+    /**
+     * Renders the metrics of the current window as a text table, one line per operation that was called, followed by
+     * the replication lag while the ledger is replicated
+     *
+     * @return the report
+     */
+    public String report() {
+        double windowSeconds = (System.nanoTime() - windowStartNanos) / 1e9;
+        StringBuilder report = new StringBuilder(String.format(
+                "%-18s %10s %10s %10s %10s %10s %10s %10s  %s%n",
+                "operation", "count", "ops/sec", "mean ms", "p50 ms", "p99 ms", "p99.9 ms", "max ms", "errors"
+        ));
+
+        for (Map.Entry<Operation, OperationMetrics> entry : operations.entrySet()) {
+            LatencyHistogram latencies = entry.getValue().latencies;
+            long count = latencies.getCount();
+            if (count == 0)
+                continue;
+
+            report.append(String.format(
+                    "%-18s %10d %10.1f %10.3f %10.3f %10.3f %10.3f %10.3f  %s%n",
+                    entry.getKey(),
+                    count,
+                    windowSeconds > 0 ? count / windowSeconds : 0,
+                    latencies.getMeanNanos() / 1e6,
+                    latencies.getValueAtPercentile(0.50) / 1e6,
+                    latencies.getValueAtPercentile(0.99) / 1e6,
+                    latencies.getValueAtPercentile(0.999) / 1e6,
+                    latencies.getMaxNanos() / 1e6,
+                    getErrors(entry.getKey())
+            ));
+        }
+
+        long lagTransactions = replicationLagTransactions;
+        if (lagTransactions >= 0)
+            report.append(String.format(
+                    "%-18s %10d transactions behind, oldest %d ms%n",
+                    "REPLICATION_LAG", lagTransactions, replicationLagMillis
+            ));
+        return report.toString();
+    }
+
+    /**
+     * Starts printing the report periodically on a background thread, every report starts a new window.
+     * Does nothing if the periodic reports are already running.
+     *
+     * @param periodMillis the time between two reports
+     */
+    public synchronized void startPeriodicReport(long periodMillis) {
+        if (scheduler != null)
+            return;
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "database-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(() -> {
+            System.out.print(report());
+            reset();
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the periodic reports started by {@link #startPeriodicReport(long)}
+     */
+    public synchronized void stopPeriodicReport() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * The latencies and errors of a single operation
+     */
+    private static class OperationMetrics {
+        private final LatencyHistogram latencies = new LatencyHistogram();
+        private final ConcurrentHashMap<String, LongAdder> errors = new ConcurrentHashMap<>();
+    }
+}
@@ -0,0 +1,572 @@
+package database;
+
+import model.AccountModel;
+import model.TransactionModel;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * EventSourcedLedger is an alternative storage engine to {@link DatabaseManager} in which the ledger is the source of
+ * truth and balances are derived from it.
+ * <p>
+ * The ledger is an append-only file of fixed width records ({@value #RECORD_SIZE} bytes: created at, account id,
+ * other party account id, amount, transaction type and a checksum), memory-mapped in chunks of
+ * {@value #RECORDS_PER_CHUNK} records. A chunk is first mapped with room for {@value #INITIAL_CHUNK_RECORDS} records
+ * and mapped again twice as large whenever it is full, so the file grows with the ledger. The id of a transaction is
+ * its position in the file. Accounts (user ID, name and PIN hash) are kept in a second, much smaller append-only file.
+ * Account ids index the in-memory projection, so there can't be more than {@value #MAX_ACCOUNTS} accounts.
+ * <p>
+ * Balances are a {@code long[]} projection indexed by account id, rebuilt by replaying the whole ledger when the
+ * ledger is opened, together with the positions of the records of every account for the history queries. Replay
+ * stops at the first record whose checksum doesn't match (a record torn by a crash), and at a transfer whose deposit
+ * leg is missing, so a transfer is never half applied. Everything after that point is discarded.
+ * <p>
+ * Logins are verified like in {@link DatabaseManager}: through a {@link CredentialCache}, so repeated logins don't
+ * pay for the PIN hash derivation every time.
+ * <p>
+ * Writes go to the mapped pages without being forced to disk, so they survive a crash of the process but not
+ * necessarily a power loss, which is also the guarantee of SQLite in WAL mode with {@code synchronous = NORMAL}.
+ * {@link #sync()} forces them to disk. Every method is synchronized: writes are serialized, like in SQLite.
+ * <p>
+ * A new ledger is empty, it doesn't contain the sample accounts of the SQLite database.
+ *
+ * @author <a href="https://github.com/itsyourap">Ankan Pal</a>
+ */
+public class EventSourcedLedger implements AccountDatabase {
+    // Size of a ledger record and offsets of its fields
+    private static final int RECORD_SIZE = 40;
+    private static final int CREATED_AT = 0;
+    private static final int ACCOUNT_ID = 8;
+    private static final int OTHER_PARTY_ACCOUNT_ID = 16;
+    private static final int AMOUNT = 24;
+    private static final int TRANSACTION_TYPE = 32;
+    private static final int CHECKSUM = 36;
+
+    // Number of records per mapped chunk of the ledger file
+    private static final int RECORDS_PER_CHUNK = 1 << 20;
+    private static final long CHUNK_SIZE = (long) RECORD_SIZE * RECORDS_PER_CHUNK;
+
+    // Number of records a chunk has room for when it is first mapped
+    private static final int INITIAL_CHUNK_RECORDS = 1 << 12;
+
+    // Highest account id, account ids index arrays
+    private static final int MAX_ACCOUNTS = Integer.MAX_VALUE - 8;
+
+    // Initial number of accounts the projection has room for
+    private static final int INITIAL_ACCOUNTS = 1024;
+
+    // The ledger file and its mapped chunks
+    private final FileChannel ledgerChannel;
+    private final List<MappedByteBuffer> chunks = new ArrayList<>();
+
+    // The accounts file
+    private final FileChannel accountsChannel;
+
+    // The accounts, indexed by account id (account ids start at 1)
+    private Account[] accounts = new Account[INITIAL_ACCOUNTS];
+    private final Map<String, Account> accountsByUserId = new HashMap<>();
+    private int accountCount;
+
+    // The balance projection, indexed by account id
+    private long[] balances = new long[INITIAL_ACCOUNTS];
+
+    // Recently verified logins
+    private final CredentialCache credentialCache =
+            new CredentialCache(DatabaseManager.CREDENTIAL_CACHE_SIZE, DatabaseManager.CREDENTIAL_CACHE_TTL_MILLIS);
+
+    // Number of records in the ledger
+    private long recordCount;
+
+    private EventSourcedLedger(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        accountsChannel = FileChannel.open(directory.resolve("accounts.log"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ledgerChannel = FileChannel.open(directory.resolve("ledger.dat"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        try {
+            replayAccounts();
+            long fileRecords = ledgerChannel.size() / RECORD_SIZE;
+            mapChunks(Math.max(fileRecords, 1));
+            replayLedger(fileRecords);
+        } catch (IOException | RuntimeException e) {
+            accountsChannel.close();
+            ledgerChannel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens the ledger in the given directory, creating it if it doesn't exist, and rebuilds the balances by
+     * replaying it
+     *
+     * @param directory the directory of the ledger files
+     * @return the ledger
+     * @throws IOException if the files can't be opened or read
+     */
+    public static EventSourcedLedger open(Path directory) throws IOException {
+        return new EventSourcedLedger(directory);
+    }
+
+    /**
+     * Reads every complete account record, a record torn by a crash is cut off
+     */
+    private void replayAccounts() throws IOException {
+        ByteBuffer file = ByteBuffer.allocate((int) accountsChannel.size());
+        while (file.hasRemaining()) {
+            if (accountsChannel.read(file, file.position()) < 0)
+                break;
+        }
+        file.flip();
+
+        CRC32 crc = new CRC32();
+        int validLength = 0;
+        while (file.remaining() >= 8) {
+            int length = file.getInt();
+            int checksum = file.getInt();
+            if (length <= 0 || length > file.remaining())
+                break;
+
+            crc.reset();
+            crc.update(file.array(), file.position(), length);
+            if ((int) crc.getValue() != checksum)
+                break;
+
+            ByteBuffer payload = file.slice();
+            payload.limit(length);
+            file.position(file.position() + length);
+
+            long id = payload.getLong();
+            if (id < 1 || id > MAX_ACCOUNTS)
+                break;
+            Account account = new Account(id, readString(payload), readString(payload), readBytes(payload),
+                    readBytes(payload));
+            addAccount(account);
+            validLength = file.position();
+        }
+
+        accountsChannel.truncate(validLength);
+        accountsChannel.position(validLength);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        return new String(readBytes(buffer), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readBytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xffff];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Applies every valid record of the ledger to the projection and clears what follows the last one
+     */
+    private void replayLedger(long fileRecords) {
+        long index = 0;
+        while (index < fileRecords && isValid(index)) {
+            int type = getInt(index, TRANSACTION_TYPE);
+            if (type == TransactionModel.TransactionType.TRANSFER_WITHDRAW.getValue()) {
+                // Both legs of a transfer are appended together, a withdraw leg without its deposit leg is torn
+                if (index + 1 >= fileRecords || !isValid(index + 1) || !isDepositLegOf(index + 1, index))
+                    break;
+                project(index);
+                project(index + 1);
+                index += 2;
+            } else {
+                project(index);
+                index++;
+            }
+        }
+        recordCount = index;
+
+        // Clear the torn records, so they can't be mistaken for valid ones once the ledger has grown past them again
+        for (long i = recordCount; i < fileRecords && !isEmpty(i); i++)
+            clear(i);
+    }
+
+    private boolean isDepositLegOf(long depositIndex, long withdrawIndex) {
+        return getInt(depositIndex, TRANSACTION_TYPE) == TransactionModel.TransactionType.TRANSFER_DEPOSIT.getValue()
+                && getLong(depositIndex, ACCOUNT_ID) == getLong(withdrawIndex, OTHER_PARTY_ACCOUNT_ID)
+                && getLong(depositIndex, OTHER_PARTY_ACCOUNT_ID) == getLong(withdrawIndex, ACCOUNT_ID)
+                && getLong(depositIndex, AMOUNT) == getLong(withdrawIndex, AMOUNT);
+    }
+
+    /**
+     * Applies a record to the balance projection and to the record positions of its account
+     */
+    private void project(long index) {
+        // The account id of a valid record is an existing account, within the bounds of the arrays
+        int accountId = (int) getLong(index, ACCOUNT_ID);
+        long amount = getLong(index, AMOUNT);
+        if (isCredit(TransactionModel.TransactionType.fromValue(getInt(index, TRANSACTION_TYPE))))
+            balances[accountId] += amount;
+        else
+            balances[accountId] -= amount;
+        accounts[accountId].addRecord(index);
+    }
+
+    private static boolean isCredit(TransactionModel.TransactionType type) {
+        return type == TransactionModel.TransactionType.DEPOSIT
+                || type == TransactionModel.TransactionType.TRANSFER_DEPOSIT;
+    }
+
+    @Override
+    public synchronized AccountModel getAccount(String userId, int userPin) {
+        Account account = accountsByUserId.get(userId);
+        if (account == null) {
+            PinHasher.dummyVerify(userPin);
+            return null;
+        }
+        if (credentialCache.isVerified(userId, userPin, account.id))
+            return toAccountModel(account);
+        if (!PinHasher.verify(userPin, account.pinSalt, account.pinHash))
+            return null;
+
+        credentialCache.remember(userId, userPin, account.id);
+        return toAccountModel(account);
+    }
+
+    @Override
+    public synchronized AccountModel getAccount(String userId) {
+        Account account = accountsByUserId.get(userId);
+        return account == null ? null : toAccountModel(account);
+    }
+
+    @Override
+    public synchronized AccountModel getAccount(long accountId) {
+        Account account = findAccount(accountId);
+        return account == null ? null : toAccountModel(account);
+    }
+
+    private Account findAccount(long accountId) {
+        return accountId > 0 && accountId <= accountCount ? accounts[(int) accountId] : null;
+    }
+
+    private AccountModel toAccountModel(Account account) {
+        AccountModel model = new AccountModel();
+        model.setId(account.id);
+        model.setUserId(account.userId);
+        model.setUserName(account.userName);
+        model.setBalance(balances[(int) account.id]);
+        model.setDatabase(this);
+        return model;
+    }
+
+    @Override
+    public synchronized AccountModel createAccount(String userId, String userName, int userPin) {
+        if (accountsByUserId.containsKey(userId)) {
+            System.out.println("Error creating account: user ID " + userId + " is taken");
+            return null;
+        }
+        if (accountCount == MAX_ACCOUNTS) {
+            System.out.println("Error creating account: the ledger holds the maximum number of accounts");
+            return null;
+        }
+
+        byte[] pinSalt = PinHasher.newSalt();
+        Account account = new Account(accountCount + 1, userId, userName, pinSalt, PinHasher.hash(userPin, pinSalt));
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream payload = new DataOutputStream(bytes);
+            payload.writeLong(account.id);
+            writeBytes(payload, userId.getBytes(StandardCharsets.UTF_8));
+            writeBytes(payload, userName.getBytes(StandardCharsets.UTF_8));
+            writeBytes(payload, account.pinSalt);
+            writeBytes(payload, account.pinHash);
+
+            CRC32 crc = new CRC32();
+            crc.update(bytes.toByteArray());
+            ByteBuffer record = ByteBuffer.allocate(8 + bytes.size());
+            record.putInt(bytes.size()).putInt((int) crc.getValue()).put(bytes.toByteArray()).flip();
+            while (record.hasRemaining())
+                accountsChannel.write(record);
+        } catch (IOException e) {
+            System.out.println("Error creating account: " + e.getMessage());
+            return null;
+        }
+
+        addAccount(account);
+        return toAccountModel(account);
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private void addAccount(Account account) {
+        int id = (int) account.id;
+        if (id >= accounts.length) {
+            int capacity = (int) Math.min(Math.max(accounts.length * 2L, id + 1L), MAX_ACCOUNTS + 1L);
+            accounts = Arrays.copyOf(accounts, capacity);
+            balances = Arrays.copyOf(balances, capacity);
+        }
+        accounts[id] = account;
+        accountsByUserId.put(account.userId, account);
+        accountCount = Math.max(accountCount, id);
+    }
+
+    @Override
+    public synchronized boolean addTransaction(TransactionModel transaction) {
+        try {
+            appendTransaction(transaction);
+            return true;
+        } catch (SQLException | IOException e) {
+            System.out.println("Error in attempting transaction: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private void appendTransaction(TransactionModel transaction) throws SQLException, IOException {
+        TransactionModel.TransactionType type = transaction.getTransactionType();
+        long accountId = transaction.getAccountId();
+        long amount = transaction.getAmount();
+        if (findAccount(accountId) == null)
+            throw new AccountNotFoundException("Account " + accountId + " does not exist");
+        if (!isCredit(type) && balances[(int) accountId] < amount)
+            throw new InsufficientBalanceException("Account " + accountId + " has insufficient balance");
+
+        boolean transfer = type == TransactionModel.TransactionType.TRANSFER_WITHDRAW;
+        long otherPartyAccountId = transaction.getOtherPartyAccountId();
+        if (transfer && findAccount(otherPartyAccountId) == null)
+            throw new AccountNotFoundException("Account " + otherPartyAccountId + " does not exist");
+
+        ensureCapacity(recordCount + (transfer ? 2 : 1));
+        long createdAt = System.currentTimeMillis();
+        transaction.setCreatedAt(createdAt);
+        transaction.setId(recordCount + 1);
+        append(createdAt, accountId, otherPartyAccountId, amount, type);
+        if (transfer)
+            append(createdAt, otherPartyAccountId, accountId, amount,
+                    TransactionModel.TransactionType.TRANSFER_DEPOSIT);
+    }
+
+    private void append(long createdAt, long accountId, long otherPartyAccountId, long amount,
+                        TransactionModel.TransactionType type) {
+        long index = recordCount;
+        MappedByteBuffer chunk = chunks.get((int) (index / RECORDS_PER_CHUNK));
+        int offset = (int) (index % RECORDS_PER_CHUNK) * RECORD_SIZE;
+        chunk.putLong(offset + CREATED_AT, createdAt);
+        chunk.putLong(offset + ACCOUNT_ID, accountId);
+        chunk.putLong(offset + OTHER_PARTY_ACCOUNT_ID, otherPartyAccountId);
+        chunk.putLong(offset + AMOUNT, amount);
+        chunk.putInt(offset + TRANSACTION_TYPE, type.getValue());
+        chunk.putInt(offset + CHECKSUM, checksum(createdAt, accountId, otherPartyAccountId, amount, type.getValue()));
+
+        recordCount++;
+        project(index);
+    }
+
+    @Override
+    public synchronized ArrayList<TransactionModel> getTransactionHistory(AccountModel account) {
+        ArrayList<TransactionModel> transactionList = new ArrayList<>();
+        Account stored = findAccount(account.getId());
+        if (stored == null)
+            return transactionList;
+
+        for (int i = 0; i < stored.recordCount; i++)
+            transactionList.add(readTransaction(stored.records[i]));
+        return transactionList;
+    }
+
+    @Override
+    public synchronized ArrayList<TransactionModel> getTransactionPage(long accountId, long beforeId, int limit) {
+        ArrayList<TransactionModel> transactionList = new ArrayList<>();
+        Account account = findAccount(accountId);
+        if (account == null)
+            return transactionList;
+
+        // Transaction ids are record positions + 1, so the records before beforeId are found by binary search
+        long beforeIndex = beforeId == Long.MAX_VALUE ? Long.MAX_VALUE : beforeId - 1;
+        int position = Arrays.binarySearch(account.records, 0, account.recordCount, beforeIndex);
+        int end = position >= 0 ? position : -position - 1;
+        for (int i = end - 1; i >= 0 && transactionList.size() < limit; i--)
+            transactionList.add(readTransaction(account.records[i]));
+        return transactionList;
+    }
+
+    private TransactionModel readTransaction(long index) {
+        TransactionModel transaction = new TransactionModel();
+        transaction.setId(index + 1);
+        transaction.setAccountId(getLong(index, ACCOUNT_ID));
+        transaction.setTransactionType(TransactionModel.TransactionType.fromValue(getInt(index, TRANSACTION_TYPE)));
+        transaction.setAmount(getLong(index, AMOUNT));
+        transaction.setOtherPartyAccountId(getLong(index, OTHER_PARTY_ACCOUNT_ID));
+        transaction.setCreatedAt(getLong(index, CREATED_AT));
+
+        Account otherParty = findAccount(transaction.getOtherPartyAccountId());
+        if (otherParty != null) {
+            transaction.setOtherPartyUserId(otherParty.userId);
+            transaction.setOtherPartyUserName(otherParty.userName);
+        }
+        return transaction;
+    }
+
+    /**
+     * Returns the number of records in the ledger, both legs of a transfer count as a record each
+     *
+     * @return the number of records
+     */
+    public synchronized long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Forces every write to disk
+     *
+     * @throws IOException if the files can't be forced
+     */
+    public synchronized void sync() throws IOException {
+        for (MappedByteBuffer chunk : chunks)
+            chunk.force();
+        accountsChannel.force(true);
+    }
+
+    /**
+     * Forces every write to disk and closes the files.
+     * The mapped chunks stay mapped until they are garbage collected.
+     */
+    @Override
+    public synchronized void close() {
+        try {
+            sync();
+        } catch (IOException e) {
+            System.out.println("Error syncing ledger: " + e.getMessage());
+        }
+
+        try {
+            accountsChannel.close();
+            ledgerChannel.close();
+        } catch (IOException e) {
+            System.out.println("Error closing ledger: " + e.getMessage());
+        }
+    }
+
+    private void ensureCapacity(long records) throws IOException {
+        if (records > mappedRecords())
+            mapChunks(records);
+    }
+
+    /**
+     * Returns the number of records the mapped chunks have room for, only the last chunk may be partly mapped
+     */
+    private long mappedRecords() {
+        if (chunks.isEmpty())
+            return 0;
+        return (chunks.size() - 1L) * RECORDS_PER_CHUNK + chunks.get(chunks.size() - 1).capacity() / RECORD_SIZE;
+    }
+
+    /**
+     * Maps chunks until the given number of records fits, the file grows with the mapping.
+     * A partly mapped last chunk is mapped again twice as large before a new chunk is started.
+     */
+    private void mapChunks(long records) throws IOException {
+        while (mappedRecords() < records) {
+            int last = chunks.size() - 1;
+            if (last >= 0 && chunks.get(last).capacity() < CHUNK_SIZE) {
+                long size = Math.min(chunks.get(last).capacity() * 2L, CHUNK_SIZE);
+                chunks.set(last, ledgerChannel.map(FileChannel.MapMode.READ_WRITE, last * CHUNK_SIZE, size));
+            } else {
+                chunks.add(ledgerChannel.map(FileChannel.MapMode.READ_WRITE, chunks.size() * CHUNK_SIZE,
+                        (long) RECORD_SIZE * INITIAL_CHUNK_RECORDS));
+            }
+        }
+    }
+
+    private long getLong(long index, int field) {
+        return chunks.get((int) (index / RECORDS_PER_CHUNK))
+                .getLong((int) (index % RECORDS_PER_CHUNK) * RECORD_SIZE + field);
+    }
+
+    private int getInt(long index, int field) {
+        return chunks.get((int) (index / RECORDS_PER_CHUNK))
+                .getInt((int) (index % RECORDS_PER_CHUNK) * RECORD_SIZE + field);
+    }
+
+    private boolean isValid(long index) {
+        int type = getInt(index, TRANSACTION_TYPE);
+        if (type < 1 || type > TransactionModel.TransactionType.values().length)
+            return false;
+        long accountId = getLong(index, ACCOUNT_ID);
+        if (findAccount(accountId) == null)
+            return false;
+
+        return getInt(index, CHECKSUM) == checksum(getLong(index, CREATED_AT), accountId,
+                getLong(index, OTHER_PARTY_ACCOUNT_ID), getLong(index, AMOUNT), type);
+    }
+
+    private boolean isEmpty(long index) {
+        for (int field = 0; field < RECORD_SIZE; field += 4) {
+            if (getInt(index, field) != 0)
+                return false;
+        }
+        return true;
+    }
+
+    private void clear(long index) {
+        MappedByteBuffer chunk = chunks.get((int) (index / RECORDS_PER_CHUNK));
+        int offset = (int) (index % RECORDS_PER_CHUNK) * RECORD_SIZE;
+        for (int field = 0; field < RECORD_SIZE; field += 4)
+            chunk.putInt(offset + field, 0);
+    }
+
+    /**
+     * Checksum of a record, never 0 so the zeroed space after the last record never passes as a record
+     */
+    private static int checksum(long createdAt, long accountId, long otherPartyAccountId, long amount, int type) {
+        long hash = type;
+        hash = hash * 0x9E3779B97F4A7C15L + createdAt;
+        hash = hash * 0x9E3779B97F4A7C15L + accountId;
+        hash = hash * 0x9E3779B97F4A7C15L + otherPartyAccountId;
+        hash = hash * 0x9E3779B97F4A7C15L + amount;
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        int checksum = (int) hash;
+        return checksum == 0 ? 1 : checksum;
+    }
+
+    /**
+     * An account and the positions of its records in the ledger, in ascending order
+     */
+    private static class Account {
+        private final long id;
+        private final String userId;
+        private final String userName;
+        private final byte[] pinSalt;
+        private final byte[] pinHash;
+        private long[] records = new long[4];
+        private int recordCount;
+
+        private Account(long id, String userId, String userName, byte[] pinSalt, byte[] pinHash) {
+            this.id = id;
+            this.userId = userId;
+            this.userName = userName;
+            this.pinSalt = pinSalt;
+            this.pinHash = pinHash;
+        }
+
+        private void addRecord(long index) {
+            if (recordCount == records.length)
+                records = Arrays.copyOf(records, recordCount * 2);
+            records[recordCount++] = index;
+        }
+    }
+}
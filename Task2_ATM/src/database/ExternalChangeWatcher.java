@@ -0,0 +1,95 @@
+package database;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ExternalChangeWatcher evicts the {@link AccountCache} when the database file is changed by another process.
+ * <p>
+ * SQLite's update hook only reports changes made on the connection it is registered on, so commits made by other
+ * programs (another ATM, the server, a benchmark) are detected with {@code PRAGMA data_version} instead, polled on
+ * the writer connection of this process. The pragma changes whenever a connection other than the one it is read on
+ * commits. Every write of this process goes through the writer connection and the read connections never write, so
+ * a change of the data version is always a commit of another process, and it evicts every cached account. Commits
+ * of this process don't cost any cache misses.
+ * <p>
+ * A balance changed by another process can be served from the cache until the next poll, at most
+ * {@code pollMillis} (plus the time the poll waits for a write in progress) after that commit. Writes are never
+ * decided on a cached balance, so a stale balance can only be shown, never overdrawn.
+ *
+ * @author <a href="https://github.com/itsyourap">Ankan Pal</a>
+ * @see DatabaseManager#enableExternalChangeDetection(long)
+ */
+class ExternalChangeWatcher implements AutoCloseable {
+    // The pool of the writer connection, the data version is read on it
+    private final ConnectionPool writePool;
+
+    // The cache evicted on changes
+    private final AccountCache accountCache;
+
+    // Runs the polls
+    private final ScheduledExecutorService scheduler;
+
+    // The data version seen by the last poll
+    private long dataVersion;
+
+    /**
+     * Reads the current data version and starts polling
+     *
+     * @param writePool    the pool of the writer connection of the database
+     * @param accountCache the cache to evict on changes
+     * @param pollMillis   the time between two polls
+     * @throws SQLException if the data version can't be read
+     */
+    ExternalChangeWatcher(ConnectionPool writePool, AccountCache accountCache, long pollMillis) throws SQLException {
+        this.writePool = writePool;
+        this.accountCache = accountCache;
+        this.dataVersion = readDataVersion();
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "external-change-watcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::poll, pollMillis, pollMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private long readDataVersion() throws SQLException {
+        try (PooledConnection pc = writePool.acquire();
+             Statement statement = pc.getConnection().createStatement();
+             ResultSet rs = statement.executeQuery("PRAGMA data_version")) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    private void poll() {
+        try {
+            long version = readDataVersion();
+            if (version != dataVersion) {
+                dataVersion = version;
+                accountCache.invalidateAll();
+            }
+        } catch (SQLException e) {
+            // The database can't be checked, so nothing cached can be trusted either
+            accountCache.invalidateAll();
+            System.out.println("Error checking database for external changes: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Stops polling, after the poll in progress
+     */
+    @Override
+    public void close() {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
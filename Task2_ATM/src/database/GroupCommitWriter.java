@@ -0,0 +1,227 @@
+package database;
+
+import model.TransactionModel;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * GroupCommitWriter coalesces ledger writes from many concurrent callers into a small number of commits.
+ * <p>
+ * Callers enqueue their transactions and get a future back. A single writer thread takes transactions from the queue
+ * and writes them in one database transaction, committing either when {@code maxBatchSize} transactions are
+ * collected or when {@code maxDelayMillis} have passed since the first one of the batch was taken, whichever comes
+ * first. The cost of a commit (an fsync) is therefore shared by the whole batch instead of being paid by every write.
+ * <p>
+ * Every transaction of a batch is written under its own savepoint, so a transaction that fails (e.g. because its
+ * account doesn't exist) only fails its own future and does not take the rest of the batch down with it.
+ * Futures are completed with the id assigned to the ledger row once the batch is committed. A transaction whose write
+ * was rolled back, on its own or with its batch, has its id and time cleared again.
+ *
+ * @author <a href="https://github.com/itsyourap">Ankan Pal</a>
+ * @see DatabaseManager#enableGroupCommit(int, long)
+ */
+class GroupCommitWriter {
+    /**
+     * Writes a single transaction on a connection with an open database transaction, without committing
+     */
+    interface LedgerWriter {
+        void write(PooledConnection pc, TransactionModel transaction) throws SQLException;
+    }
+
+    // The pool the writer borrows its connection from
+    private final ConnectionPool pool;
+
+    // Writes the individual transactions of a batch
+    private final LedgerWriter ledgerWriter;
+
+    // Maximum number of transactions per commit
+    private final int maxBatchSize;
+
+    // Maximum time (in milliseconds) a transaction waits for its batch to fill up
+    private final long maxDelayMillis;
+
+    // Marker put on the queue to stop the writer thread
+    private static final PendingTransaction STOP = new PendingTransaction(null, null);
+
+    // Transactions waiting to be written
+    private final BlockingQueue<PendingTransaction> queue = new LinkedBlockingQueue<>();
+
+    // The thread writing the batches
+    private final Thread writerThread;
+
+    // Whether the writer accepts new transactions
+    private volatile boolean running = true;
+
+    GroupCommitWriter(ConnectionPool pool, LedgerWriter ledgerWriter, int maxBatchSize, long maxDelayMillis) {
+        this.pool = pool;
+        this.ledgerWriter = ledgerWriter;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayMillis = maxDelayMillis;
+
+        this.writerThread = new Thread(this::run, "group-commit-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * Enqueues a transaction to be written with the next batch
+     *
+     * @param transaction the transaction to write
+     * @return a future completed with the id of the ledger row once the batch is committed,
+     * or completed exceptionally if the transaction could not be written
+     */
+    CompletableFuture<Long> enqueue(TransactionModel transaction) {
+        CompletableFuture<Long> future = new CompletableFuture<>();
+        if (!running) {
+            future.completeExceptionally(new SQLException("Group commit writer is stopped"));
+            return future;
+        }
+
+        queue.add(new PendingTransaction(transaction, future));
+        return future;
+    }
+
+    /**
+     * Stops accepting new transactions, writes the ones already queued and waits for the writer thread to finish
+     */
+    void stop() {
+        running = false;
+        queue.add(STOP);
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * The writer loop, collects batches and commits them until the writer is stopped
+     */
+    private void run() {
+        List<PendingTransaction> batch = new ArrayList<>(maxBatchSize);
+        boolean stopped = false;
+
+        while (!stopped) {
+            try {
+                stopped = collectBatch(batch);
+            } catch (InterruptedException e) {
+                // The writer thread is never interrupted by this class, treat it as a stop request
+                stopped = true;
+            }
+
+            if (!batch.isEmpty()) {
+                writeBatch(batch);
+                batch.clear();
+            }
+        }
+
+        // Transactions that raced with stop() are not written
+        PendingTransaction pending;
+        while ((pending = queue.poll()) != null) {
+            if (pending != STOP)
+                pending.future.completeExceptionally(new SQLException("Group commit writer is stopped"));
+        }
+    }
+
+    /**
+     * Waits for the first transaction of a batch, then collects more until the batch is full or the delay expired
+     *
+     * @param batch the list to collect the batch into
+     * @return true if the writer was stopped while collecting the batch
+     * @throws InterruptedException if the writer thread is interrupted while waiting
+     */
+    private boolean collectBatch(List<PendingTransaction> batch) throws InterruptedException {
+        PendingTransaction next = queue.take();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+
+        while (next != null) {
+            if (next == STOP)
+                return true;
+
+            batch.add(next);
+            if (batch.size() >= maxBatchSize)
+                return false;
+
+            // Take whatever is already queued without waiting, then wait for the rest of the delay
+            next = queue.poll();
+            if (next == null) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining > 0)
+                    next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes a batch in a single database transaction and completes the futures of its transactions
+     *
+     * @param batch the transactions to write
+     */
+    private void writeBatch(List<PendingTransaction> batch) {
+        List<PendingTransaction> written = new ArrayList<>(batch.size());
+
+        try (PooledConnection pc = pool.acquire()) {
+            Connection conn = pc.getConnection();
+            conn.setAutoCommit(false);
+
+            for (PendingTransaction pending : batch) {
+                Savepoint savepoint = conn.setSavepoint();
+                int[] changeMark = pc.changeMark();
+                try {
+                    ledgerWriter.write(pc, pending.transaction);
+                    conn.releaseSavepoint(savepoint);
+                    written.add(pending);
+                } catch (SQLException e) {
+                    conn.rollback(savepoint);
+                    pc.discardChangesSince(changeMark);
+                    resetWritten(pending.transaction);
+                    pending.future.completeExceptionally(e);
+                }
+            }
+
+            pc.commit();
+        } catch (SQLException e) {
+            System.out.println("Error in committing transaction batch: " + e.getMessage());
+            for (PendingTransaction pending : written)
+                resetWritten(pending.transaction);
+            for (PendingTransaction pending : batch)
+                pending.future.completeExceptionally(e);
+            return;
+        }
+
+        for (PendingTransaction pending : written)
+            pending.future.complete(pending.transaction.getId());
+    }
+
+    /**
+     * Clears the id and time a transaction got from a write that was rolled back
+     *
+     * @param transaction the transaction
+     */
+    private static void resetWritten(TransactionModel transaction) {
+        transaction.setId(0);
+        transaction.setCreatedAt(0);
+    }
+
+    /**
+     * A transaction waiting in the queue together with the future of its caller
+     */
+    private static class PendingTransaction {
+        private final TransactionModel transaction;
+        private final CompletableFuture<Long> future;
+
+        private PendingTransaction(TransactionModel transaction, CompletableFuture<Long> future) {
+            this.transaction = transaction;
+            this.future = future;
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package database;
+
+import java.sql.SQLException;
+
+/**
+ * InsufficientBalanceException signals that a withdrawal or transfer was rejected because the balance of the account
+ * doesn't cover it. Nothing of the rejected transaction is written.
+ *
+ * @author <a href="https://github.com/itsyourap">Ankan Pal</a>
+ */
+public class InsufficientBalanceException extends SQLException {
+    private static final long serialVersionUID = 1L;
+
+    public InsufficientBalanceException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,116 @@
+package database;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LatencyHistogram records latencies (in nanoseconds) into log-linear buckets, in the manner of HdrHistogram.
+ * <p>
+ * Values below 16 get a bucket each. Above that every power of two is split into 16 equally wide buckets, so a
+ * percentile is reported with a relative error of at most 1/16 (about 6%) over the whole range of {@code long},
+ * using a fixed array of 1024 counters. Recording is a couple of bit operations and one atomic increment, so it is
+ * cheap enough for every call on the hot path and can be used from many threads at once.
+ *
+ * @author <a href="https://github.com/itsyourap">Ankan Pal</a>
+ */
+class LatencyHistogram {
+    // Number of buckets every power of two is split into (as a number of bits)
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    // Number of values recorded in every bucket
+    private final AtomicLongArray counts = new AtomicLongArray(64 * SUB_BUCKETS);
+
+    private final LongAdder totalCount = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Records a single latency
+     *
+     * @param nanos the latency in nanoseconds, negative values are recorded as 0
+     */
+    void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(bucketIndex(value));
+        totalCount.increment();
+        totalNanos.add(value);
+        maxNanos.accumulate(value);
+    }
+
+    /**
+     * Returns the latency below which the given share of the recorded latencies fall
+     *
+     * @param percentile the share, between 0 and 1 (e.g. 0.99 for the 99th percentile)
+     * @return the latency in nanoseconds (the upper bound of its bucket), 0 if nothing was recorded
+     */
+    long getValueAtPercentile(double percentile) {
+        long total = 0;
+        for (int i = 0; i < counts.length(); i++)
+            total += counts.get(i);
+        if (total == 0)
+            return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(percentile * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank)
+                return Math.min(bucketUpperBound(i), getMaxNanos());
+        }
+        return getMaxNanos();
+    }
+
+    long getCount() {
+        return totalCount.sum();
+    }
+
+    long getMeanNanos() {
+        long count = totalCount.sum();
+        return count == 0 ? 0 : totalNanos.sum() / count;
+    }
+
+    long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    /**
+     * Forgets every recorded latency
+     */
+    void reset() {
+        for (int i = 0; i < counts.length(); i++)
+            counts.set(i, 0);
+        totalCount.reset();
+        totalNanos.reset();
+        maxNanos.reset();
+    }
+
+    /**
+     * Returns the bucket a value is counted in
+     *
+     * @param value the value, not negative
+     * @return the index of the bucket
+     */
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Returns the largest value counted in a bucket
+     *
+     * @param index the index of the bucket
+     * @return the largest value of the bucket
+     */
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS)
+            return index;
+        int shift = index / SUB_BUCKETS - 1;
+        long lowerBound = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        return lowerBound + (1L << shift) - 1;
+    }
+}
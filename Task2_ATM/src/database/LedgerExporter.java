@@ -0,0 +1,290 @@
+package database;
+
+import model.Money;
+import model.TransactionModel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * LedgerExporter writes transaction histories (e.g. statements) as CSV or JSON lines to a byte channel.
+ * <p>
+ * Rows are streamed from the {@link ResultSet} into a single reusable buffer that is drained to the channel whenever
+ * it fills up, so an export runs in constant memory whatever the number of rows. The other party of transfers is
+ * resolved by the same query, with a primary key lookup per row.
+ * <p>
+ * {@link #exportLedger(Format, long, long, WritableByteChannel)} exports every account in one pass over the
+ * (account_id, id) index, ordered by account, which is how statements for all accounts are generated without loading
+ * the history of every account separately. Exports can be limited to a range of transaction ids, or to a time
+ * range, which is read from the (account_id, created_at) index. An export runs in a single read transaction and
+ * therefore sees a consistent snapshot of the ledger while ATM sessions keep writing.
+ *
+ * @author <a href="https://github.com/itsyourap">Ankan Pal</a>
+ * @see DatabaseManager#getLedgerExporter()
+ */
+public class LedgerExporter {
+    /**
+     * The output formats
+     */
+    public enum Format {
+        CSV,
+        JSON_LINES
+    }
+
+    // Size of the buffer rows are encoded into before they are written to the channel
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final String CSV_HEADER =
+            "id,account_id,created_at,transaction_type,amount,other_party_account_id,other_party_user_id\n";
+
+    private static final String SELECT_EXPORT =
+            "SELECT t.id, t.account_id, t.created_at, t.transaction_type, t.amount, t.other_party_account_id, " +
+                    "o.user_id AS other_party_user_id " +
+                    "FROM transactions t " +
+                    "LEFT JOIN accounts o ON o.id = t.other_party_account_id ";
+    private static final String SELECT_ACCOUNT_EXPORT =
+            SELECT_EXPORT + "WHERE t.account_id = ? AND t.id >= ? AND t.id < ? ORDER BY t.id";
+    private static final String SELECT_LEDGER_EXPORT =
+            SELECT_EXPORT + "WHERE t.id >= ? AND t.id < ? ORDER BY t.account_id, t.id";
+    private static final String SELECT_ACCOUNT_EXPORT_BETWEEN =
+            SELECT_EXPORT + "WHERE t.account_id = ? AND t.created_at >= ? AND t.created_at < ? " +
+                    "ORDER BY t.created_at, t.id";
+    private static final String SELECT_LEDGER_EXPORT_BETWEEN =
+            SELECT_EXPORT + "WHERE t.created_at >= ? AND t.created_at < ? ORDER BY t.account_id, t.created_at, t.id";
+
+    // The pool the exporter borrows its connections from
+    private final ConnectionPool pool;
+
+    LedgerExporter(ConnectionPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Exports the transactions of a single account, oldest first
+     *
+     * @param accountId the account
+     * @param format    the output format
+     * @param fromId    the lowest transaction id exported
+     * @param toId      the transaction id the export stops before, {@link Long#MAX_VALUE} for no limit
+     * @param channel   the channel to write to, it is not closed
+     * @return the number of exported transactions
+     * @throws SQLException if the transactions can't be read
+     * @throws IOException  if the channel can't be written
+     */
+    public long exportAccount(long accountId, Format format, long fromId, long toId, WritableByteChannel channel)
+            throws SQLException, IOException {
+        try (PooledConnection pc = pool.acquire()) {
+            PreparedStatement stmt = pc.prepare(SELECT_ACCOUNT_EXPORT);
+            stmt.setLong(1, accountId);
+            stmt.setLong(2, fromId);
+            stmt.setLong(3, toId);
+            return export(stmt, format, channel);
+        }
+    }
+
+    /**
+     * Exports the transactions of every account, ordered by account and then oldest first
+     *
+     * @param format  the output format
+     * @param fromId  the lowest transaction id exported
+     * @param toId    the transaction id the export stops before, {@link Long#MAX_VALUE} for no limit
+     * @param channel the channel to write to, it is not closed
+     * @return the number of exported transactions
+     * @throws SQLException if the transactions can't be read
+     * @throws IOException  if the channel can't be written
+     */
+    public long exportLedger(Format format, long fromId, long toId, WritableByteChannel channel)
+            throws SQLException, IOException {
+        try (PooledConnection pc = pool.acquire()) {
+            PreparedStatement stmt = pc.prepare(SELECT_LEDGER_EXPORT);
+            stmt.setLong(1, fromId);
+            stmt.setLong(2, toId);
+            return export(stmt, format, channel);
+        }
+    }
+
+    /**
+     * Exports the transactions of a single account written in the given time range, oldest first
+     *
+     * @param accountId  the account
+     * @param format     the output format
+     * @param fromMillis the start of the range (inclusive), in milliseconds since the epoch
+     * @param toMillis   the end of the range (exclusive), in milliseconds since the epoch
+     * @param channel    the channel to write to, it is not closed
+     * @return the number of exported transactions
+     * @throws SQLException if the transactions can't be read
+     * @throws IOException  if the channel can't be written
+     */
+    public long exportAccountBetween(long accountId, Format format, long fromMillis, long toMillis,
+                                     WritableByteChannel channel) throws SQLException, IOException {
+        try (PooledConnection pc = pool.acquire()) {
+            PreparedStatement stmt = pc.prepare(SELECT_ACCOUNT_EXPORT_BETWEEN);
+            stmt.setLong(1, accountId);
+            stmt.setLong(2, fromMillis);
+            stmt.setLong(3, toMillis);
+            return export(stmt, format, channel);
+        }
+    }
+
+    /**
+     * Exports the transactions of every account written in the given time range (e.g. a month, for statements),
+     * ordered by account and then oldest first
+     *
+     * @param format     the output format
+     * @param fromMillis the start of the range (inclusive), in milliseconds since the epoch
+     * @param toMillis   the end of the range (exclusive), in milliseconds since the epoch
+     * @param channel    the channel to write to, it is not closed
+     * @return the number of exported transactions
+     * @throws SQLException if the transactions can't be read
+     * @throws IOException  if the channel can't be written
+     */
+    public long exportLedgerBetween(Format format, long fromMillis, long toMillis, WritableByteChannel channel)
+            throws SQLException, IOException {
+        try (PooledConnection pc = pool.acquire()) {
+            PreparedStatement stmt = pc.prepare(SELECT_LEDGER_EXPORT_BETWEEN);
+            stmt.setLong(1, fromMillis);
+            stmt.setLong(2, toMillis);
+            return export(stmt, format, channel);
+        }
+    }
+
+    private static long export(PreparedStatement stmt, Format format, WritableByteChannel channel)
+            throws SQLException, IOException {
+        RowWriter writer = new RowWriter(channel);
+        if (format == Format.CSV)
+            writer.write(new StringBuilder(CSV_HEADER));
+
+        long rows = 0;
+        StringBuilder row = new StringBuilder(128);
+        try (ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                row.setLength(0);
+                if (format == Format.CSV)
+                    appendCsv(row, rs);
+                else
+                    appendJson(row, rs);
+                writer.write(row);
+                rows++;
+            }
+        }
+
+        writer.drain();
+        return rows;
+    }
+
+    private static void appendCsv(StringBuilder row, ResultSet rs) throws SQLException {
+        row.append(rs.getLong("id")).append(',')
+                .append(rs.getLong("account_id")).append(',');
+        appendTimestamp(row, rs.getLong("created_at"));
+        row.append(',').append(transactionType(rs)).append(',');
+        Money.appendTo(row, rs.getLong("amount")).append(',');
+
+        long otherPartyAccountId = rs.getLong("other_party_account_id");
+        if (otherPartyAccountId != 0)
+            row.append(otherPartyAccountId);
+        row.append(',');
+
+        String otherPartyUserId = rs.getString("other_party_user_id");
+        if (otherPartyUserId != null) {
+            if (otherPartyUserId.indexOf(',') >= 0 || otherPartyUserId.indexOf('"') >= 0
+                    || otherPartyUserId.indexOf('\n') >= 0)
+                row.append('"').append(otherPartyUserId.replace("\"", "\"\"")).append('"');
+            else
+                row.append(otherPartyUserId);
+        }
+        row.append('\n');
+    }
+
+    private static void appendJson(StringBuilder row, ResultSet rs) throws SQLException {
+        row.append("{\"id\":").append(rs.getLong("id"))
+                .append(",\"account_id\":").append(rs.getLong("account_id"))
+                .append(",\"created_at\":\"");
+        appendTimestamp(row, rs.getLong("created_at"));
+        row.append("\",\"transaction_type\":\"").append(transactionType(rs))
+                .append("\",\"amount\":");
+        Money.appendTo(row, rs.getLong("amount"));
+
+        long otherPartyAccountId = rs.getLong("other_party_account_id");
+        if (otherPartyAccountId != 0) {
+            row.append(",\"other_party_account_id\":").append(otherPartyAccountId);
+
+            String otherPartyUserId = rs.getString("other_party_user_id");
+            if (otherPartyUserId != null) {
+                row.append(",\"other_party_user_id\":\"");
+                appendJsonString(row, otherPartyUserId);
+                row.append('"');
+            }
+        }
+        row.append("}\n");
+    }
+
+    /**
+     * Returns the name of the transaction type of the current row, decoded from its value without allocating
+     */
+    private static String transactionType(ResultSet rs) throws SQLException {
+        return TransactionModel.TransactionType.fromValue(rs.getInt("transaction_type")).name();
+    }
+
+    /**
+     * Appends a timestamp as an ISO-8601 instant, nothing for transactions written before timestamps were recorded
+     */
+    private static void appendTimestamp(StringBuilder row, long epochMillis) {
+        if (epochMillis != 0)
+            DateTimeFormatter.ISO_INSTANT.formatTo(Instant.ofEpochMilli(epochMillis), row);
+    }
+
+    private static void appendJsonString(StringBuilder row, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\')
+                row.append('\\').append(c);
+            else if (c < 0x20)
+                row.append(String.format("\\u%04x", (int) c));
+            else
+                row.append(c);
+        }
+    }
+
+    /**
+     * Encodes rows as UTF-8 into a fixed size buffer and drains it to the channel whenever it is full
+     */
+    private static class RowWriter {
+        private final WritableByteChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+
+        private RowWriter(WritableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        private void write(CharSequence row) throws IOException {
+            CharBuffer chars = CharBuffer.wrap(row);
+            while (true) {
+                CoderResult result = encoder.encode(chars, buffer, false);
+                if (result.isOverflow())
+                    drain();
+                else if (result.isUnderflow())
+                    return;
+                else
+                    result.throwException();
+            }
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            buffer.clear();
+        }
+    }
+}
@@ -0,0 +1,411 @@
+package database;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * LedgerReplicator keeps a hot standby copy of an ATM database in a second SQLite file and serves reads from it.
+ * <p>
+ * The replica starts as a full copy of the primary made with {@code VACUUM INTO}, which reads a consistent snapshot
+ * without blocking writers. From then on the committed ledger is shipped to it: ledger rows are append-only and their
+ * ids are handed out in commit order (SQLite has a single writer), so whatever was committed since the last shipment
+ * is exactly the rows above the highest id the replica holds. A shipment reads those rows, and the accounts they
+ * changed plus the accounts created since, in one read transaction on the primary, then applies them to the replica
+ * in one write transaction together with their daily totals. A batch may stop short of the newest row, so the balance
+ * of an account is shipped as of the last row of the batch (the balance on the primary less the rows above it), and
+ * the replica never shows a balance its ledger doesn't add up to.
+ * <p>
+ * Every commit on the primary wakes the replicator (see {@link ConnectionPool#setCommitListener(Runnable)}), so under
+ * load it ships whatever accumulated while the previous batch was applied, at most {@link #MAX_BATCH_SIZE} rows per
+ * batch. Writes made outside an explicit transaction (new accounts) are shipped by the next poll at the latest.
+ * After every round the lag is recorded in the {@link DatabaseMetrics}.
+ * <p>
+ * The shipped position is the id of a ledger row, so it can be compared with the version of an account (the id of
+ * its newest ledger row, see {@link AccountCache}): {@link DatabaseManager} only reads an account's history from the
+ * replica if the replica holds every row of it, so a session always sees its own writes.
+ * <p>
+ * The replica is a complete ATM database. If the primary is lost it can be opened in its place, missing only the
+ * commits that were not shipped yet. Balance checkpoints are only as recent as the initial copy.
+ * An existing replica file is reused if it is a prefix of the primary (same schema version, and its newest ledger
+ * row is also on the primary), otherwise it is copied again.
+ *
+ * @author <a href="https://github.com/itsyourap">Ankan Pal</a>
+ * @see DatabaseManager#enableReplication(Path, long)
+ */
+class LedgerReplicator implements AutoCloseable {
+    // Maximum number of ledger rows shipped per replica transaction
+    static final int MAX_BATCH_SIZE = 10_000;
+
+    private static final String SELECT_NEW_TRANSACTIONS =
+            "SELECT id, account_id, transaction_type, amount, other_party_account_id, created_at, request_id " +
+                    "FROM transactions WHERE id > ? ORDER BY id LIMIT ?";
+    // An account with its balance as of the given ledger row, the rows above it are taken back out
+    private static final String SELECT_ACCOUNT_AS_OF =
+            "SELECT a.id, a.user_id, a.user_name, a.pin_salt, a.pin_hash, a.legacy_pin, " +
+                    "a.balance - COALESCE((SELECT SUM(" + LedgerVerifier.SIGNED_AMOUNT + ") FROM transactions t " +
+                    "WHERE t.account_id = a.id AND t.id > ?), 0) AS balance " +
+                    "FROM accounts a ";
+    private static final String SELECT_REPLICATED_ACCOUNT = SELECT_ACCOUNT_AS_OF + "WHERE a.id = ?";
+    private static final String SELECT_NEW_ACCOUNTS = SELECT_ACCOUNT_AS_OF + "WHERE a.id > ? ORDER BY a.id";
+    private static final String SELECT_PENDING =
+            "SELECT COUNT(*) AS pending, MIN(created_at) AS oldest FROM transactions WHERE id > ?";
+    private static final String SELECT_LEDGER_ROW =
+            "SELECT account_id, transaction_type, amount, created_at FROM transactions WHERE id = ?";
+    private static final String SELECT_MAX_TRANSACTION_ID = "SELECT COALESCE(MAX(id), 0) FROM transactions";
+    private static final String SELECT_MAX_ACCOUNT_ID = "SELECT COALESCE(MAX(id), 0) FROM accounts";
+    private static final String INSERT_TRANSACTION =
+            "INSERT INTO transactions " +
+                    "(id, account_id, transaction_type, amount, other_party_account_id, created_at, request_id) " +
+                    "VALUES (?, ?, ?, ?, ?, ?, ?)";
+    private static final String UPSERT_ACCOUNT =
+            "INSERT INTO accounts (id, user_id, user_name, balance, pin_salt, pin_hash, legacy_pin) " +
+                    "VALUES (?, ?, ?, ?, ?, ?, ?) " +
+                    "ON CONFLICT (id) DO UPDATE SET user_id = excluded.user_id, user_name = excluded.user_name, " +
+                    "balance = excluded.balance, pin_salt = excluded.pin_salt, pin_hash = excluded.pin_hash, " +
+                    "legacy_pin = excluded.legacy_pin";
+
+    // The JDBC URL of the primary database, and the read-only pool shipments read from
+    private final String primaryUrl;
+    private final ConnectionPool primaryPool;
+
+    // The replica database file
+    private final Path replicaFile;
+
+    // The only connection writing to the replica, used by the replicator thread alone
+    private final Connection writer;
+    private final PreparedStatement transactionInsert;
+    private final PreparedStatement accountUpsert;
+    private final PreparedStatement dailyTotalsUpdate;
+
+    // Connections serving reads from the replica
+    private final ConnectionPool readPool;
+
+    // Exports transaction histories from the replica
+    private final LedgerExporter ledgerExporter;
+
+    // The replication lag is recorded in these metrics
+    private final DatabaseMetrics metrics;
+
+    // How long (in milliseconds) the replicator waits for a commit before it looks for changes anyway
+    private final long pollMillis;
+
+    // Ships the ledger
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    // The highest ledger row id and account id the replica holds
+    private volatile long replicatedTransactionId;
+    private long replicatedAccountId;
+
+    /**
+     * Copies the primary database to the replica file if necessary and starts shipping the ledger
+     *
+     * @param primaryUrl   the JDBC URL of the primary database
+     * @param primaryPool  the read-only pool of the primary database
+     * @param replicaFile  the replica database file
+     * @param readPoolSize the number of connections serving reads from the replica
+     * @param pollMillis   how long the replicator waits for a commit before it looks for changes anyway
+     * @param metrics      the metrics the replication lag is recorded in
+     * @throws SQLException if the replica can't be created or opened
+     */
+    LedgerReplicator(String primaryUrl, ConnectionPool primaryPool, Path replicaFile, int readPoolSize,
+                     long pollMillis, DatabaseMetrics metrics) throws SQLException {
+        this.primaryUrl = primaryUrl;
+        this.primaryPool = primaryPool;
+        this.replicaFile = replicaFile;
+        this.pollMillis = pollMillis;
+        this.metrics = metrics;
+
+        String replicaUrl = "jdbc:sqlite:" + replicaFile;
+        if (!Files.exists(replicaFile) || !isPrefixOfPrimary(replicaUrl))
+            copyPrimary();
+
+        writer = ConnectionPool.openConnection(replicaUrl, false);
+        try {
+            try (Statement statement = writer.createStatement()) {
+                replicatedTransactionId = maxId(statement, SELECT_MAX_TRANSACTION_ID);
+                replicatedAccountId = maxId(statement, SELECT_MAX_ACCOUNT_ID);
+            }
+            transactionInsert = writer.prepareStatement(INSERT_TRANSACTION);
+            accountUpsert = writer.prepareStatement(UPSERT_ACCOUNT);
+            dailyTotalsUpdate = writer.prepareStatement(SchemaMigrations.ADD_DAILY_TOTALS);
+            writer.setAutoCommit(false);
+
+            // Nothing is written through the read connections, so their caches always stay empty
+            readPool = new ConnectionPool(
+                    replicaUrl, readPoolSize, new AccountCache(1), new CommittedRequestCache(1), true
+            );
+        } catch (SQLException e) {
+            writer.close();
+            throw e;
+        }
+        ledgerExporter = new LedgerExporter(readPool);
+
+        thread = new Thread(this::run, "ledger-replicator");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static long maxId(Statement statement, String sql) throws SQLException {
+        try (ResultSet rs = statement.executeQuery(sql)) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    /**
+     * Checks that an existing replica can be brought up to date by shipping the rows the primary has on top of it
+     */
+    private boolean isPrefixOfPrimary(String replicaUrl) throws SQLException {
+        try (Connection replica = DriverManager.getConnection(replicaUrl);
+             PooledConnection pc = primaryPool.acquire()) {
+            if (SchemaMigrations.getVersion(replica) != SchemaMigrations.getVersion(pc.getConnection()))
+                return false;
+
+            long lastId;
+            try (Statement statement = replica.createStatement()) {
+                lastId = maxId(statement, SELECT_MAX_TRANSACTION_ID);
+            }
+            if (lastId == 0)
+                return false;
+            return Objects.equals(readLedgerRow(replica, lastId), readLedgerRow(pc.getConnection(), lastId));
+        }
+    }
+
+    private static List<Object> readLedgerRow(Connection conn, long id) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(SELECT_LEDGER_ROW)) {
+            stmt.setLong(1, id);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next())
+                    return null;
+                return List.of(rs.getLong("account_id"), rs.getInt("transaction_type"), rs.getLong("amount"),
+                        rs.getLong("created_at"));
+            }
+        }
+    }
+
+    /**
+     * Replaces the replica file with a consistent copy of the primary database.
+     * The copy is made on a connection of its own: VACUUM INTO is refused by the query_only readers.
+     */
+    private void copyPrimary() throws SQLException {
+        try {
+            Files.deleteIfExists(replicaFile);
+            Files.deleteIfExists(Path.of(replicaFile + "-wal"));
+            Files.deleteIfExists(Path.of(replicaFile + "-shm"));
+        } catch (IOException e) {
+            throw new SQLException("Couldn't delete the old replica: " + e.getMessage(), e);
+        }
+
+        try (Connection conn = DriverManager.getConnection(primaryUrl);
+             PreparedStatement stmt = conn.prepareStatement("VACUUM INTO ?")) {
+            stmt.setString(1, replicaFile.toString());
+            stmt.execute();
+        }
+    }
+
+    /**
+     * Returns the pool of connections serving reads from the replica
+     *
+     * @return the read pool
+     */
+    ConnectionPool getReadPool() {
+        return readPool;
+    }
+
+    /**
+     * Returns the ledger exporter reading from the replica
+     *
+     * @return the ledger exporter
+     */
+    LedgerExporter getLedgerExporter() {
+        return ledgerExporter;
+    }
+
+    /**
+     * Returns the highest ledger row id the replica holds, every row up to it is on the replica
+     *
+     * @return the ledger row id
+     */
+    long getReplicatedTransactionId() {
+        return replicatedTransactionId;
+    }
+
+    /**
+     * Wakes the replicator up to ship what was just committed on the primary, called on the committing thread
+     */
+    void notifyCommitted() {
+        LockSupport.unpark(thread);
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                int shipped;
+                do {
+                    shipped = ship();
+                } while (shipped == MAX_BATCH_SIZE && running);
+                recordLag();
+            } catch (SQLException e) {
+                System.out.println("Error replicating ledger: " + e.getMessage());
+            }
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(pollMillis));
+        }
+    }
+
+    /**
+     * Ships the next batch of ledger rows, and the accounts changed or created since the last batch
+     *
+     * @return the number of shipped ledger rows
+     */
+    private int ship() throws SQLException {
+        List<Object[]> transactions = new ArrayList<>();
+        List<Object[]> accounts = new ArrayList<>();
+
+        try (PooledConnection pc = primaryPool.acquire()) {
+            // A single read transaction, so the accounts are read from the same snapshot as the ledger rows
+            pc.getConnection().setAutoCommit(false);
+
+            Set<Long> changedAccountIds = new TreeSet<>();
+            long lastTransactionId = replicatedTransactionId;
+            PreparedStatement stmt = pc.prepare(SELECT_NEW_TRANSACTIONS);
+            stmt.setLong(1, replicatedTransactionId);
+            stmt.setInt(2, MAX_BATCH_SIZE);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    transactions.add(new Object[]{
+                            rs.getLong("id"),
+                            rs.getLong("account_id"),
+                            rs.getInt("transaction_type"),
+                            rs.getLong("amount"),
+                            rs.getObject("other_party_account_id"),
+                            rs.getLong("created_at"),
+                            rs.getString("request_id")
+                    });
+                    changedAccountIds.add(rs.getLong("account_id"));
+                    lastTransactionId = rs.getLong("id");
+                }
+            }
+
+            stmt = pc.prepare(SELECT_REPLICATED_ACCOUNT);
+            for (long accountId : changedAccountIds) {
+                if (accountId > replicatedAccountId)
+                    continue;
+                stmt.setLong(1, lastTransactionId);
+                stmt.setLong(2, accountId);
+                readAccounts(stmt, accounts);
+            }
+            stmt = pc.prepare(SELECT_NEW_ACCOUNTS);
+            stmt.setLong(1, lastTransactionId);
+            stmt.setLong(2, replicatedAccountId);
+            readAccounts(stmt, accounts);
+        }
+
+        if (transactions.isEmpty() && accounts.isEmpty())
+            return 0;
+
+        try {
+            for (Object[] account : accounts) {
+                bind(accountUpsert, account);
+                accountUpsert.executeUpdate();
+            }
+            for (Object[] transaction : transactions) {
+                bind(transactionInsert, transaction);
+                transactionInsert.executeUpdate();
+            }
+            dailyTotalsUpdate.setLong(1, replicatedTransactionId + 1);
+            dailyTotalsUpdate.executeUpdate();
+            writer.commit();
+        } catch (SQLException e) {
+            writer.rollback();
+            throw e;
+        }
+
+        for (Object[] account : accounts)
+            replicatedAccountId = Math.max(replicatedAccountId, (long) account[0]);
+        if (!transactions.isEmpty())
+            replicatedTransactionId = (long) transactions.get(transactions.size() - 1)[0];
+        return transactions.size();
+    }
+
+    private static void readAccounts(PreparedStatement stmt, List<Object[]> accounts) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                accounts.add(new Object[]{
+                        rs.getLong("id"),
+                        rs.getString("user_id"),
+                        rs.getString("user_name"),
+                        rs.getLong("balance"),
+                        rs.getBytes("pin_salt"),
+                        rs.getBytes("pin_hash"),
+                        rs.getObject("legacy_pin")
+                });
+            }
+        }
+    }
+
+    private static void bind(PreparedStatement statement, Object[] row) throws SQLException {
+        for (int i = 0; i < row.length; i++) {
+            if (row[i] == null)
+                statement.setNull(i + 1, Types.INTEGER);
+            else
+                statement.setObject(i + 1, row[i]);
+        }
+    }
+
+    /**
+     * Measures how far the replica is behind the primary and records it in the metrics
+     */
+    private void recordLag() throws SQLException {
+        try (PooledConnection pc = primaryPool.acquire()) {
+            PreparedStatement stmt = pc.prepare(SELECT_PENDING);
+            stmt.setLong(1, replicatedTransactionId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                long pending = rs.next() ? rs.getLong("pending") : 0;
+                long lagMillis = pending == 0 ? 0 : Math.max(0, System.currentTimeMillis() - rs.getLong("oldest"));
+                metrics.recordReplicationLag(pending, lagMillis);
+            }
+        }
+    }
+
+    /**
+     * Stops shipping, after the shipment in progress, and closes the replica connections.
+     * The replica file is kept, it is brought up to date when replication is enabled again.
+     */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        metrics.recordReplicationLag(-1, -1);
+
+        readPool.close();
+        try {
+            transactionInsert.close();
+            accountUpsert.close();
+            dailyTotalsUpdate.close();
+            writer.rollback();
+            writer.close();
+        } catch (SQLException e) {
+            System.out.println("Error closing database connection: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package database;
+
+import model.TransactionModel;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * LedgerVerifier ties the balances in {@code accounts.balance} back to the {@code transactions} ledger.
+ * <p>
+ * For every account a balance checkpoint is kept in {@code balance_checkpoints}: the balance derived from the ledger
+ * up to (and including) a given transaction id. Verifying an account therefore only needs the transactions written
+ * after its checkpoint, which are read with a range scan on the (account_id, id) index instead of aggregating the
+ * whole ledger.
+ * <p>
+ * Verification streams one row per account, in account order, from a single query, so it runs in constant memory
+ * no matter how many accounts or transactions there are. Since the query runs in a single read transaction it sees a
+ * consistent snapshot of the database even while ATM sessions keep writing.
+ *
+ * @author <a href="https://github.com/itsyourap">Ankan Pal</a>
+ * @see DatabaseManager#getLedgerVerifier()
+ */
+public class LedgerVerifier {
+    // Signed amount of a ledger row: deposits add to the balance, withdrawals subtract from it
+    static final String SIGNED_AMOUNT =
+            "CASE WHEN t.transaction_type IN (" +
+                    TransactionModel.TransactionType.DEPOSIT.getValue() + ", " +
+                    TransactionModel.TransactionType.TRANSFER_DEPOSIT.getValue() +
+                    ") THEN t.amount ELSE -t.amount END";
+
+    // Per account: the stored balance, the checkpoint and the ledger activity since the checkpoint
+    private static final String LEDGER_SINCE_CHECKPOINT =
+            "FROM accounts a " +
+                    "LEFT JOIN balance_checkpoints c ON c.account_id = a.id " +
+                    "LEFT JOIN transactions t ON t.account_id = a.id AND t.id > COALESCE(c.last_transaction_id, 0) " +
+                    "GROUP BY a.id ";
+
+    private static final String SELECT_VERIFICATION =
+            "SELECT a.id, a.balance, " +
+                    "COALESCE(c.balance, 0) + COALESCE(SUM(" + SIGNED_AMOUNT + "), 0) AS ledger_balance, " +
+                    "COUNT(t.id) AS transactions_since_checkpoint " +
+                    LEDGER_SINCE_CHECKPOINT +
+                    "ORDER BY a.id";
+
+    // Moves the checkpoints of the accounts in an id range forward, only accounts with ledger rows written since
+    // their checkpoint are joined, so an idle account costs an index probe and no write
+    private static final String INSERT_CHECKPOINTS =
+            "INSERT OR REPLACE INTO balance_checkpoints (account_id, last_transaction_id, balance, created_at) " +
+                    "SELECT a.id, MAX(t.id), COALESCE(c.balance, 0) + SUM(" + SIGNED_AMOUNT + "), ? " +
+                    "FROM accounts a " +
+                    "LEFT JOIN balance_checkpoints c ON c.account_id = a.id " +
+                    "JOIN transactions t ON t.account_id = a.id AND t.id > COALESCE(c.last_transaction_id, 0) " +
+                    "WHERE a.id > ? AND a.id <= ? " +
+                    "GROUP BY a.id";
+
+    private static final String SELECT_MAX_ACCOUNT_ID = "SELECT COALESCE(MAX(id), 0) AS id FROM accounts";
+
+    // Number of account ids whose checkpoints are moved in one write transaction
+    private static final long CHECKPOINT_CHUNK_ACCOUNTS = 10_000;
+
+    // The pools the verifier borrows its connections from, verifications read and checkpoints write
+    private final ConnectionPool readPool;
+    private final ConnectionPool writePool;
+
+    // Runs the periodic checkpoints, null unless they are started
+    private ScheduledExecutorService scheduler;
+
+    LedgerVerifier(ConnectionPool readPool, ConnectionPool writePool) {
+        this.readPool = readPool;
+        this.writePool = writePool;
+    }
+
+    /**
+     * Recomputes the balance of every account from its last checkpoint and the ledger rows written since, and
+     * compares it with the stored balance.
+     *
+     * @param driftConsumer called for every account whose stored balance doesn't match the ledger, in account order
+     * @return a summary of the verification
+     * @throws SQLException if the verification query fails
+     */
+    public VerificationResult verify(Consumer<Drift> driftConsumer) throws SQLException {
+        long accounts = 0;
+        long transactions = 0;
+        long drifts = 0;
+
+        try (PooledConnection pc = readPool.acquire()) {
+            PreparedStatement stmt = pc.prepare(SELECT_VERIFICATION);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    accounts++;
+                    transactions += rs.getLong("transactions_since_checkpoint");
+
+                    long storedBalance = rs.getLong("balance");
+                    long ledgerBalance = rs.getLong("ledger_balance");
+                    if (storedBalance != ledgerBalance) {
+                        drifts++;
+                        driftConsumer.accept(new Drift(rs.getLong("id"), storedBalance, ledgerBalance));
+                    }
+                }
+            }
+        }
+
+        return new VerificationResult(accounts, transactions, drifts);
+    }
+
+    /**
+     * Moves the checkpoint of every account with ledger rows written since its checkpoint forward to its latest
+     * ledger row. Accounts without new rows keep their checkpoint and cost no write.
+     * <p>
+     * The checkpoints are written in chunks of {@link #CHECKPOINT_CHUNK_ACCOUNTS} account ids, each in its own write
+     * transaction, so the single writer connection is given back between chunks and ATM sessions keep writing while a
+     * large ledger is checkpointed.
+     * <p>
+     * The checkpointed balance is derived from the ledger (previous checkpoint plus the rows since), never copied from
+     * {@code accounts.balance}, so a drifted balance keeps being reported by {@link #verify(Consumer)} after the
+     * checkpoint.
+     *
+     * @return the number of accounts whose checkpoint was moved
+     * @throws SQLException if the checkpoints can't be written, the chunks committed before the failure are kept
+     */
+    public long checkpoint() throws SQLException {
+        return checkpoint(CHECKPOINT_CHUNK_ACCOUNTS);
+    }
+
+    /**
+     * Moves the checkpoints forward like {@link #checkpoint()}, in chunks of the given number of account ids
+     *
+     * @param chunkAccounts the number of account ids per write transaction
+     * @return the number of accounts whose checkpoint was moved
+     * @throws SQLException if the checkpoints can't be written
+     */
+    long checkpoint(long chunkAccounts) throws SQLException {
+        long maxAccountId;
+        try (
+                PooledConnection pc = readPool.acquire();
+                ResultSet rs = pc.prepare(SELECT_MAX_ACCOUNT_ID).executeQuery()
+        ) {
+            maxAccountId = rs.next() ? rs.getLong("id") : 0;
+        }
+
+        long checkpointed = 0;
+        for (long fromId = 0; fromId < maxAccountId; fromId += chunkAccounts) {
+            try (PooledConnection pc = writePool.acquire()) {
+                Connection conn = pc.getConnection();
+                conn.setAutoCommit(false);
+
+                PreparedStatement stmt = pc.prepare(INSERT_CHECKPOINTS);
+                stmt.setLong(1, System.currentTimeMillis());
+                stmt.setLong(2, fromId);
+                stmt.setLong(3, Math.min(fromId + chunkAccounts, maxAccountId));
+                checkpointed += stmt.executeUpdate();
+                pc.commit();
+            }
+        }
+        return checkpointed;
+    }
+
+    /**
+     * Starts verifying the ledger and moving the checkpoints forward periodically on a background thread.
+     * Drifts are printed. Does nothing if the periodic checkpoints are already running.
+     *
+     * @param periodMillis the time between two runs
+     */
+    public synchronized void startPeriodicCheckpoints(long periodMillis) {
+        if (scheduler != null)
+            return;
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ledger-verifier");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::verifyAndCheckpoint, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the periodic checkpoints started by {@link #startPeriodicCheckpoints(long)}
+     */
+    public synchronized void stopPeriodicCheckpoints() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+            scheduler = null;
+        }
+    }
+
+    private void verifyAndCheckpoint() {
+        try {
+            VerificationResult result = verify(drift -> System.out.println("Ledger drift detected: " + drift));
+            if (result.getDrifts() > 0)
+                System.out.println("Ledger verification found drift: " + result);
+            checkpoint();
+        } catch (SQLException e) {
+            System.out.println("Error verifying ledger: " + e.getMessage());
+        }
+    }
+
+    /**
+     * An account whose stored balance doesn't match its ledger
+     */
+    public static class Drift {
+        private final long accountId;
+        private final long storedBalance;
+        private final long ledgerBalance;
+
+        Drift(long accountId, long storedBalance, long ledgerBalance) {
+            this.accountId = accountId;
+            this.storedBalance = storedBalance;
+            this.ledgerBalance = ledgerBalance;
+        }
+
+        public long getAccountId() {
+            return accountId;
+        }
+
+        public long getStoredBalance() {
+            return storedBalance;
+        }
+
+        public long getLedgerBalance() {
+            return ledgerBalance;
+        }
+
+        @Override
+        public String toString() {
+            return "Drift{" +
+                    "accountId=" + accountId +
+                    ", storedBalance=" + storedBalance +
+                    ", ledgerBalance=" + ledgerBalance +
+                    '}';
+        }
+    }
+
+    /**
+     * The summary of a verification run
+     */
+    public static class VerificationResult {
+        private final long accounts;
+        private final long transactions;
+        private final long drifts;
+
+        VerificationResult(long accounts, long transactions, long drifts) {
+            this.accounts = accounts;
+            this.transactions = transactions;
+            this.drifts = drifts;
+        }
+
+        public long getAccounts() {
+            return accounts;
+        }
+
+        public long getTransactions() {
+            return transactions;
+        }
+
+        public long getDrifts() {
+            return drifts;
+        }
+
+        @Override
+        public String toString() {
+            return "VerificationResult{" +
+                    "accounts=" + accounts +
+                    ", transactions=" + transactions +
+                    ", drifts=" + drifts +
+                    '}';
+        }
+    }
+}
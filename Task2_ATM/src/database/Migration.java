@@ -0,0 +1,39 @@
+package database;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Migration is a single step of the database schema history.
+ * <p>
+ * Every migration brings the schema from version {@code getVersion() - 1} to version {@code getVersion()}.
+ * The version of a database is kept in SQLite's {@code PRAGMA user_version}.
+ * Migrations are compiled into the application, see {@link SchemaMigrations} for the list and for how they are applied.
+ *
+ * @author <a href="https://github.com/itsyourap">Ankan Pal</a>
+ */
+interface Migration {
+    /**
+     * Returns the schema version this migration brings the database to
+     *
+     * @return the schema version
+     */
+    int getVersion();
+
+    /**
+     * Returns a short human-readable description of the migration
+     *
+     * @return the description
+     */
+    String getDescription();
+
+    /**
+     * Applies the migration.
+     * It is called inside a transaction that is committed together with the new {@code user_version}, so it must not
+     * commit or roll back by itself.
+     *
+     * @param conn the connection to migrate on
+     * @throws SQLException if the migration fails, the whole migration is rolled back in that case
+     */
+    void apply(Connection conn) throws SQLException;
+}
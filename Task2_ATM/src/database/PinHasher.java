@@ -0,0 +1,89 @@
+package database;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+/**
+ * PinHasher derives salted hashes of user PINs, so PINs are never stored in plain text.
+ * <p>
+ * Hashes are derived with PBKDF2 (HMAC-SHA256) and a random per-account salt. The derivation is deliberately slow,
+ * which is why successful logins are remembered for a short while by the {@link CredentialCache}.
+ *
+ * @author <a href="https://github.com/itsyourap">Ankan Pal</a>
+ */
+final class PinHasher {
+    // Key derivation algorithm
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+
+    // Number of PBKDF2 iterations
+    private static final int ITERATIONS = 65536;
+
+    // Length of the salt in bytes
+    private static final int SALT_LENGTH = 16;
+
+    // Length of the derived hash in bits
+    private static final int HASH_LENGTH_BITS = 256;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    // Salt used to hash PINs of unknown users, so a login for an unknown user takes as long as any other login
+    private static final byte[] DUMMY_SALT = newSalt();
+
+    private PinHasher() {
+
+    }
+
+    /**
+     * Generates a new random salt
+     *
+     * @return the salt
+     */
+    static byte[] newSalt() {
+        byte[] salt = new byte[SALT_LENGTH];
+        RANDOM.nextBytes(salt);
+        return salt;
+    }
+
+    /**
+     * Derives the hash of a PIN
+     *
+     * @param pin  the PIN
+     * @param salt the salt of the account
+     * @return the hash
+     */
+    static byte[] hash(int pin, byte[] salt) {
+        PBEKeySpec spec = new PBEKeySpec(Integer.toString(pin).toCharArray(), salt, ITERATIONS, HASH_LENGTH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("PIN hashing is not available", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    /**
+     * Checks a PIN against a stored hash in constant time
+     *
+     * @param pin          the PIN entered by the user
+     * @param salt         the salt of the account
+     * @param expectedHash the stored hash of the account
+     * @return true if the PIN matches the hash, false otherwise
+     */
+    static boolean verify(int pin, byte[] salt, byte[] expectedHash) {
+        return MessageDigest.isEqual(hash(pin, salt), expectedHash);
+    }
+
+    /**
+     * Spends the same time as {@link #verify(int, byte[], byte[])} without checking anything.
+     * Used when the user ID doesn't exist, so the response time doesn't reveal which user IDs exist.
+     *
+     * @param pin the PIN entered by the user
+     */
+    static void dummyVerify(int pin) {
+        hash(pin, DUMMY_SALT);
+    }
+}
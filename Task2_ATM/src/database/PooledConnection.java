@@ -0,0 +1,187 @@
+package database;
+
+import org.sqlite.SQLiteConnection;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * PooledConnection is a connection borrowed from a {@link ConnectionPool}.
+ * <p>
+ * Closing it gives the connection back to the pool instead of closing the underlying {@link Connection}, so it is
+ * meant to be used with try-with-resources.
+ * <p>
+ * Changes to account rows made on the connection are collected (balances written by the ledger write path, and every
+ * other changed row as reported by SQLite's update hook) and published to the {@link AccountCache} once they are
+ * committed, or dropped if they are rolled back. Request ids written by the ledger write path are published to the
+ * {@link CommittedRequestCache} the same way.
+ *
+ * @author <a href="https://github.com/itsyourap">Ankan Pal</a>
+ */
+class PooledConnection implements AutoCloseable {
+    // The pool this connection belongs to
+    private final ConnectionPool pool;
+
+    // The underlying JDBC connection
+    private final Connection connection;
+
+    // The prepared statements of this connection
+    private final StatementCache statementCache;
+
+    // The cache committed account changes are published to
+    private final AccountCache accountCache;
+
+    // The cache committed request ids are published to
+    private final CommittedRequestCache requestCache;
+
+    // Balances written in the current transaction, as {account id, balance, ledger row id}
+    private final List<long[]> writtenBalances = new ArrayList<>();
+
+    // Request ids written in the current transaction, with their ledger rows
+    private final List<Map.Entry<String, CommittedRequestCache.CommittedRequest>> writtenRequests = new ArrayList<>();
+
+    // Ids of the account rows changed in the current transaction, as reported by the update hook
+    private final Set<Long> changedAccountIds = new HashSet<>();
+
+    PooledConnection(ConnectionPool pool, Connection connection, int statementCacheSize, AccountCache accountCache,
+                     CommittedRequestCache requestCache) throws SQLException {
+        this.pool = pool;
+        this.connection = connection;
+        this.statementCache = new StatementCache(connection, statementCacheSize);
+        this.accountCache = accountCache;
+        this.requestCache = requestCache;
+
+        // The hook runs on the thread executing the statement, which owns this connection
+        connection.unwrap(SQLiteConnection.class).addUpdateListener((type, database, table, rowId) -> {
+            if ("accounts".equals(table))
+                changedAccountIds.add(rowId);
+        });
+    }
+
+    /**
+     * Returns the underlying JDBC connection
+     *
+     * @return the connection
+     */
+    Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Returns the cached prepared statement for the given SQL.
+     * The statement belongs to the connection and must not be closed by the caller.
+     *
+     * @param sql the SQL of the statement
+     * @return the prepared statement
+     * @throws SQLException if the statement can't be prepared
+     * @see StatementCache#prepare(String)
+     */
+    PreparedStatement prepare(String sql) throws SQLException {
+        return statementCache.prepare(sql);
+    }
+
+    /**
+     * Records a balance written by the current transaction, it is written through to the account cache on commit
+     *
+     * @param accountId the account id
+     * @param balance   the balance of the account after the write
+     * @param version   the id of the ledger row written
+     */
+    void recordBalance(long accountId, long balance, long version) {
+        writtenBalances.add(new long[]{accountId, balance, version});
+    }
+
+    /**
+     * Records the ledger row written (or found) by the current transaction for a request id, it is published to the
+     * request cache on commit
+     *
+     * @param requestId the request id
+     * @param request   the ledger row
+     */
+    void recordRequest(String requestId, CommittedRequestCache.CommittedRequest request) {
+        writtenRequests.add(Map.entry(requestId, request));
+    }
+
+    /**
+     * Returns a mark of the balances and requests recorded so far, see {@link #discardChangesSince(int[])}
+     *
+     * @return the mark
+     */
+    int[] changeMark() {
+        return new int[]{writtenBalances.size(), writtenRequests.size()};
+    }
+
+    /**
+     * Drops the balances and requests recorded after the given mark, after rolling back to a savepoint taken at that
+     * mark
+     *
+     * @param mark the mark returned by {@link #changeMark()}
+     */
+    void discardChangesSince(int[] mark) {
+        writtenBalances.subList(mark[0], writtenBalances.size()).clear();
+        writtenRequests.subList(mark[1], writtenRequests.size()).clear();
+    }
+
+    /**
+     * Commits the current transaction, publishes its account changes to the account cache and notifies the commit
+     * listener of the pool
+     *
+     * @throws SQLException if the commit fails, nothing is published in that case
+     * @see ConnectionPool#setCommitListener(Runnable)
+     */
+    void commit() throws SQLException {
+        connection.commit();
+        publishChanges();
+        pool.fireCommitted();
+    }
+
+    /**
+     * Publishes the account changes collected so far, they must be committed
+     */
+    void publishChanges() {
+        Set<Long> writtenAccountIds = new HashSet<>();
+        for (long[] written : writtenBalances) {
+            accountCache.applyBalance(written[0], written[1], written[2]);
+            writtenAccountIds.add(written[0]);
+        }
+        for (long accountId : changedAccountIds) {
+            if (!writtenAccountIds.contains(accountId))
+                accountCache.invalidate(accountId);
+        }
+        for (Map.Entry<String, CommittedRequestCache.CommittedRequest> request : writtenRequests)
+            requestCache.put(request.getKey(), request.getValue());
+        discardChanges();
+    }
+
+    /**
+     * Drops the account changes collected so far, after they were rolled back
+     */
+    void discardChanges() {
+        writtenBalances.clear();
+        writtenRequests.clear();
+        changedAccountIds.clear();
+    }
+
+    /**
+     * Returns the statement cache of this connection
+     *
+     * @return the statement cache
+     */
+    StatementCache getStatementCache() {
+        return statementCache;
+    }
+
+    /**
+     * Gives the connection back to the pool
+     */
+    @Override
+    public void close() {
+        pool.release(this);
+    }
+}
@@ -0,0 +1,18 @@
+package database;
+
+import java.sql.SQLException;
+
+/**
+ * RequestIdReusedException signals that a transaction carries the request id of a committed transaction, but differs
+ * from it (account, type, amount or other party), so it is not a retry of that transaction. Nothing of the rejected
+ * transaction is written.
+ *
+ * @author <a href="https://github.com/itsyourap">Ankan Pal</a>
+ */
+public class RequestIdReusedException extends SQLException {
+    private static final long serialVersionUID = 1L;
+
+    public RequestIdReusedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,454 @@
+package database;
+
+import model.Money;
+import model.TransactionModel;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * SchemaMigrations holds the schema history of the ATM database and brings databases up to date.
+ * <p>
+ * The current version of a database is kept in SQLite's {@code PRAGMA user_version}. On start the version is read
+ * once; a database that is already up to date costs nothing more than that. Otherwise every pending migration is
+ * applied in order, each in its own transaction together with the new version, so an interrupted upgrade resumes
+ * from the last completed migration on the next start.
+ * <p>
+ * The schema history is:
+ * <ol>
+ *     <li>accounts, transaction_type and transactions tables, amounts in minor units</li>
+ *     <li>salted PIN hashes, hashed on the next login of an account, unique user IDs</li>
+ *     <li>index on transactions (account_id, id) for the history pages</li>
+ *     <li>balance_checkpoints table for the ledger verification</li>
+ *     <li>transaction timestamps, index on transactions (account_id, created_at) and daily_totals table</li>
+ *     <li>transfer_decisions table for transfers between shards</li>
+ *     <li>client request ids of transactions, unique, so retried requests are never written twice</li>
+ * </ol>
+ *
+ * @author <a href="https://github.com/itsyourap">Ankan Pal</a>
+ */
+final class SchemaMigrations {
+    // Every migration, ordered by version
+    private static final List<Migration> MIGRATIONS = List.of(
+            new CreateSchema(),
+            new HashPins(),
+            new IndexTransactionsByAccount(),
+            new CreateBalanceCheckpoints(),
+            new TimestampTransactions(),
+            new CreateTransferDecisions(),
+            new AddRequestIds()
+    );
+
+    // The schema version of an up to date database
+    static final int LATEST_VERSION = MIGRATIONS.get(MIGRATIONS.size() - 1).getVersion();
+
+    // Adds the ledger rows with an id of at least the bound parameter to the daily totals in one aggregating pass,
+    // for rows that were written without going through the write path of DatabaseManager
+    static final String ADD_DAILY_TOTALS =
+            "INSERT INTO daily_totals (account_id, day, transaction_type, transaction_count, amount) " +
+                    "SELECT account_id, " + epochDaySql("created_at") + ", " +
+                    "transaction_type, COUNT(*), SUM(amount) " +
+                    "FROM transactions WHERE id >= ? GROUP BY 1, 2, 3 " +
+                    "ON CONFLICT (account_id, day, transaction_type) DO UPDATE SET " +
+                    "transaction_count = transaction_count + excluded.transaction_count, " +
+                    "amount = amount + excluded.amount";
+
+    private SchemaMigrations() {
+
+    }
+
+    /**
+     * Applies every migration the database hasn't seen yet
+     *
+     * @param conn the connection to migrate on
+     * @throws SQLException if a migration fails, the database stays at the version of the last successful migration
+     */
+    static void migrate(Connection conn) throws SQLException {
+        int version = getVersion(conn);
+        if (version >= LATEST_VERSION)
+            return;
+
+        for (Migration migration : MIGRATIONS) {
+            if (migration.getVersion() <= version)
+                continue;
+
+            conn.setAutoCommit(false);
+            try (Statement statement = conn.createStatement()) {
+                migration.apply(conn);
+                statement.execute("PRAGMA user_version = " + migration.getVersion());
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw new SQLException(
+                        "Migration to version " + migration.getVersion() + " failed: " + e.getMessage(), e
+                );
+            } finally {
+                conn.setAutoCommit(true);
+            }
+            System.out.println("Database Migrated to Version " + migration.getVersion()
+                    + " (" + migration.getDescription() + ")");
+        }
+    }
+
+    /**
+     * Reads the schema version of the database
+     *
+     * @param conn the connection to read the version on
+     * @return the schema version, 0 for a new (or pre-versioning) database
+     * @throws SQLException if the version can't be read
+     */
+    static int getVersion(Connection conn) throws SQLException {
+        try (Statement statement = conn.createStatement(); ResultSet rs = statement.executeQuery("PRAGMA user_version")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    /**
+     * Checks that the transaction_type table holds exactly the types of {@link TransactionModel.TransactionType},
+     * with the same values
+     *
+     * @param conn the connection to check on
+     * @throws SQLException if the table can't be read or doesn't match the enum
+     */
+    static void checkTransactionTypes(Connection conn) throws SQLException {
+        Set<TransactionModel.TransactionType> missing = EnumSet.allOf(TransactionModel.TransactionType.class);
+        try (Statement statement = conn.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT id, transaction_type FROM transaction_type")) {
+            while (rs.next()) {
+                int id = rs.getInt("id");
+                String name = rs.getString("transaction_type");
+                TransactionModel.TransactionType type;
+                try {
+                    type = TransactionModel.TransactionType.fromValue(id);
+                } catch (IllegalArgumentException e) {
+                    throw new SQLException("Unknown transaction type " + id + " (" + name + ")");
+                }
+                if (!type.name().equals(name))
+                    throw new SQLException("Transaction type " + id + " is " + name + ", expected " + type.name());
+                missing.remove(type);
+            }
+        }
+        if (!missing.isEmpty())
+            throw new SQLException("Missing transaction types: " + missing);
+    }
+
+    /**
+     * SQL expression of the local calendar day (days since 1970-01-01) of a timestamp in epoch milliseconds, matching
+     * the days computed by {@link DatabaseManager}
+     *
+     * @param epochMillisColumn the column holding the timestamp
+     * @return the SQL expression
+     */
+    static String epochDaySql(String epochMillisColumn) {
+        return "CAST(julianday(date(" + epochMillisColumn + " / 1000, 'unixepoch', 'localtime')) - 2440587.5 " +
+                "AS INTEGER)";
+    }
+
+    private static void execute(Connection conn, String... sqlStatements) throws SQLException {
+        try (Statement statement = conn.createStatement()) {
+            for (String sql : sqlStatements)
+                statement.execute(sql);
+        }
+    }
+
+    /**
+     * Version 1: creates the tables and the sample data.
+     * <p>
+     * Databases created before schema versioning also report version 0 but already have the tables, with balances
+     * and amounts in major units. Those are converted to minor units instead.
+     */
+    private static class CreateSchema implements Migration {
+        @Override
+        public int getVersion() {
+            return 1;
+        }
+
+        @Override
+        public String getDescription() {
+            return "create schema, amounts in minor units";
+        }
+
+        @Override
+        public void apply(Connection conn) throws SQLException {
+            boolean legacyDatabase;
+            try (
+                    Statement statement = conn.createStatement();
+                    ResultSet rs = statement.executeQuery(
+                            "SELECT COUNT(*) FROM sqlite_master WHERE type = 'table' AND name = 'accounts'"
+                    )
+            ) {
+                legacyDatabase = rs.next() && rs.getInt(1) > 0;
+            }
+
+            if (legacyDatabase) {
+                execute(conn,
+                        "UPDATE accounts SET balance = CAST(ROUND(balance * " + Money.MINOR_UNITS_PER_UNIT + ") AS INTEGER)",
+                        "UPDATE transactions SET amount = CAST(ROUND(amount * " + Money.MINOR_UNITS_PER_UNIT + ") AS INTEGER)"
+                );
+                return;
+            }
+
+            execute(conn,
+                    """
+                    CREATE TABLE accounts
+                    (
+                        id        INTEGER PRIMARY KEY AUTOINCREMENT,
+                        user_id   TEXT    NOT NULL,
+                        user_name TEXT    NOT NULL,
+                        user_pin  INTEGER NOT NULL,
+                        balance   INTEGER NOT NULL
+                    )
+                    """,
+                    """
+                    CREATE TABLE transaction_type
+                    (
+                        id               INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL,
+                        transaction_type TEXT                              NOT NULL
+                    )
+                    """,
+                    """
+                    INSERT INTO transaction_type (transaction_type)
+                    VALUES ('DEPOSIT'),
+                           ('WITHDRAW'),
+                           ('TRANSFER_DEPOSIT'),
+                           ('TRANSFER_WITHDRAW')
+                    """,
+                    """
+                    CREATE TABLE transactions
+                    (
+                        id                     INTEGER PRIMARY KEY AUTOINCREMENT,
+                        account_id             INTEGER NOT NULL,
+                        transaction_type       INTEGER NOT NULL,
+                        amount                 INTEGER NOT NULL,
+                        other_party_account_id INTEGER,
+                        FOREIGN KEY (account_id) REFERENCES accounts (id),
+                        FOREIGN KEY (transaction_type) REFERENCES transaction_type (id),
+                        FOREIGN KEY (other_party_account_id) REFERENCES accounts (id)
+                    )
+                    """,
+                    // Sample data, amounts in minor units
+                    """
+                    INSERT INTO accounts (user_id, user_pin, user_name, balance)
+                    VALUES ('test01', 1234, 'Test User 01', 80000),
+                           ('test02', 5678, 'Test User 02', 100000)
+                    """,
+                    """
+                    INSERT INTO transactions (account_id, transaction_type, amount, other_party_account_id)
+                    VALUES (1, 1, 50000, NULL),
+                           (1, 2, 10000, NULL),
+                           (1, 4, 20000, 2),
+                           (2, 3, 20000, 1),
+                           (2, 1, 140000, NULL),
+                           (2, 4, 60000, 1),
+                           (1, 3, 60000, 2)
+                    """
+            );
+        }
+    }
+
+    /**
+     * Version 2: adds salted PIN hashes and makes {@code user_id} unique.
+     * <p>
+     * Existing PINs are not hashed here: a PIN hash costs a deliberately slow PBKDF2 derivation (see
+     * {@link PinHasher}), tens of milliseconds per account, which for a large database would hold the migration
+     * transaction, and the write lock, for hours. The plain text PIN is moved to {@code legacy_pin} instead, and
+     * replaced by a hash with its own random salt on the next successful login of the account (see
+     * {@link DatabaseManager#getAccount(String, int)}), so the migration is a few passes of plain SQL. The unique index
+     * on {@code user_id} turns the login lookup into an index seek.
+     */
+    private static class HashPins implements Migration {
+        @Override
+        public int getVersion() {
+            return 2;
+        }
+
+        @Override
+        public String getDescription() {
+            return "salted PIN hashes, unique user IDs";
+        }
+
+        @Override
+        public void apply(Connection conn) throws SQLException {
+            execute(conn,
+                    "ALTER TABLE accounts ADD COLUMN pin_salt BLOB",
+                    "ALTER TABLE accounts ADD COLUMN pin_hash BLOB",
+                    "ALTER TABLE accounts ADD COLUMN legacy_pin INTEGER",
+                    "UPDATE accounts SET legacy_pin = user_pin",
+                    "ALTER TABLE accounts DROP COLUMN user_pin",
+                    "CREATE UNIQUE INDEX IF NOT EXISTS idx_accounts_user_id ON accounts (user_id)"
+            );
+        }
+    }
+
+    /**
+     * Version 3: index used by the keyset paginated transaction history
+     */
+    private static class IndexTransactionsByAccount implements Migration {
+        @Override
+        public int getVersion() {
+            return 3;
+        }
+
+        @Override
+        public String getDescription() {
+            return "index transactions by account";
+        }
+
+        @Override
+        public void apply(Connection conn) throws SQLException {
+            execute(conn,
+                    "CREATE INDEX IF NOT EXISTS idx_transactions_account_id_id ON transactions (account_id, id)"
+            );
+        }
+    }
+
+    /**
+     * Version 4: per account balance checkpoints used by the {@link LedgerVerifier}
+     */
+    private static class CreateBalanceCheckpoints implements Migration {
+        @Override
+        public int getVersion() {
+            return 4;
+        }
+
+        @Override
+        public String getDescription() {
+            return "balance checkpoints";
+        }
+
+        @Override
+        public void apply(Connection conn) throws SQLException {
+            execute(conn,
+                    """
+                    CREATE TABLE IF NOT EXISTS balance_checkpoints
+                    (
+                        account_id          INTEGER PRIMARY KEY,
+                        last_transaction_id INTEGER NOT NULL,
+                        balance             INTEGER NOT NULL,
+                        created_at          INTEGER NOT NULL,
+                        FOREIGN KEY (account_id) REFERENCES accounts (id)
+                    )
+                    """
+            );
+        }
+    }
+
+    /**
+     * Version 5: records when every transaction was written and keeps per day totals.
+     * <p>
+     * Existing transactions get {@code created_at = 0} (unknown). The {@code daily_totals} table holds the number and
+     * the sum of the transactions of every account, day and transaction type. It is maintained by the ledger write
+     * path, so daily limits and daily reports are a primary key lookup instead of a scan of the account's history.
+     */
+    private static class TimestampTransactions implements Migration {
+        @Override
+        public int getVersion() {
+            return 5;
+        }
+
+        @Override
+        public String getDescription() {
+            return "transaction timestamps, daily totals";
+        }
+
+        @Override
+        public void apply(Connection conn) throws SQLException {
+            execute(conn,
+                    "ALTER TABLE transactions ADD COLUMN created_at INTEGER NOT NULL DEFAULT 0",
+                    "CREATE INDEX IF NOT EXISTS idx_transactions_account_id_created_at " +
+                            "ON transactions (account_id, created_at)",
+                    """
+                    CREATE TABLE IF NOT EXISTS daily_totals
+                    (
+                        account_id        INTEGER NOT NULL,
+                        day               INTEGER NOT NULL,
+                        transaction_type  INTEGER NOT NULL,
+                        transaction_count INTEGER NOT NULL,
+                        amount            INTEGER NOT NULL,
+                        PRIMARY KEY (account_id, day, transaction_type),
+                        FOREIGN KEY (account_id) REFERENCES accounts (id),
+                        FOREIGN KEY (transaction_type) REFERENCES transaction_type (id)
+                    ) WITHOUT ROWID
+                    """,
+                    "INSERT INTO daily_totals (account_id, day, transaction_type, transaction_count, amount) " +
+                            "SELECT account_id, " + epochDaySql("created_at") + ", " +
+                            "transaction_type, COUNT(*), SUM(amount) " +
+                            "FROM transactions GROUP BY 1, 2, 3"
+            );
+        }
+    }
+
+    /**
+     * Version 6: records the transfers to accounts of another shard whose deposit leg may not be committed yet.
+     * <p>
+     * A row is written in the same database transaction as the withdraw leg of the transfer, which makes it the
+     * commit decision of the transfer, and deleted once the deposit leg is committed on the other shard. The deposit
+     * leg carries the random {@code deposit_request_id} of the decision as its request id, which is how an interrupted
+     * transfer tells whether its deposit leg was committed.
+     *
+     * @see ShardedDatabaseManager
+     */
+    private static class CreateTransferDecisions implements Migration {
+        @Override
+        public int getVersion() {
+            return 6;
+        }
+
+        @Override
+        public String getDescription() {
+            return "transfer decisions";
+        }
+
+        @Override
+        public void apply(Connection conn) throws SQLException {
+            execute(conn,
+                    """
+                    CREATE TABLE IF NOT EXISTS transfer_decisions
+                    (
+                        id                       INTEGER PRIMARY KEY,
+                        sender_account_id        INTEGER NOT NULL,
+                        recipient_account_id     INTEGER NOT NULL,
+                        amount                   INTEGER NOT NULL,
+                        deposit_request_id       TEXT    NOT NULL,
+                        FOREIGN KEY (sender_account_id) REFERENCES accounts (id)
+                    )
+                    """
+            );
+        }
+    }
+
+    /**
+     * Version 7: the client request id of every transaction, unique among the transactions that have one.
+     * <p>
+     * A client retrying a request after a timeout sends the same request id again, so an attempt that was committed
+     * after all is found instead of being written a second time. Only the withdraw leg of a transfer carries the
+     * request id of the client (the deposit leg of a transfer between shards carries the request id of its transfer
+     * decision), and transactions written before this version have none.
+     */
+    private static class AddRequestIds implements Migration {
+        @Override
+        public int getVersion() {
+            return 7;
+        }
+
+        @Override
+        public String getDescription() {
+            return "transaction request ids";
+        }
+
+        @Override
+        public void apply(Connection conn) throws SQLException {
+            execute(conn,
+                    "ALTER TABLE transactions ADD COLUMN request_id TEXT",
+                    "CREATE UNIQUE INDEX IF NOT EXISTS idx_transactions_request_id " +
+                            "ON transactions (request_id) WHERE request_id IS NOT NULL"
+            );
+        }
+    }
+}
@@ -0,0 +1,445 @@
+package database;
+
+import model.AccountModel;
+import model.TransactionModel;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * ShardedDatabaseManager spreads the accounts and the ledger over several SQLite files (shards), each with its own
+ * {@link DatabaseManager}, connection pool and write lock, so writes on different shards proceed in parallel instead
+ * of queueing for the single write lock of one file. That only pays off with several cores and a disk that keeps up:
+ * on a single core, deposits are about as fast as with one file, and transfers between shards are slower because
+ * they commit twice.
+ * <p>
+ * An account lives on shard {@code accountId % shardCount}. A new account is placed on the shard picked by the hash of
+ * its user ID, and gets the next account ID of that shard, so lookups by user ID and by account ID both go straight
+ * to the right shard. The ledger rows of an account are stored on its shard.
+ * <p>
+ * Deposits, withdrawals and transfers between accounts of the same shard are written by the shard alone, exactly as
+ * by {@link DatabaseManager}. A transfer between shards is committed in two phases:
+ * <ol>
+ *     <li>both legs are written on their shards without committing, the shards being locked in shard order so
+ *     opposite transfers can't deadlock; a missing account or an insufficient balance aborts both</li>
+ *     <li>the withdraw leg is committed together with a row of the {@code transfer_decisions} table, which is the
+ *     commit point of the transfer; the deposit leg is committed next and the decision row is deleted</li>
+ * </ol>
+ * If the process dies between the two commits, the decision row is still there when the shards are opened again,
+ * and the deposit leg is written again unless it was committed. The deposit leg carries a random request id stored
+ * with the decision, so a committed deposit leg is recognized by the unique request_id index, and never mistaken for
+ * an identical transfer written since. A transfer is therefore either not applied at all, or
+ * applied on both shards.
+ * <p>
+ * A new sharded database is empty, it doesn't contain the sample accounts of the ATM database. The shard count of a
+ * directory can't be changed once it has been created.
+ *
+ * @author <a href="https://github.com/itsyourap">Ankan Pal</a>
+ */
+public class ShardedDatabaseManager implements AccountDatabase {
+    // File names of the shards, followed by the shard number and the extension
+    private static final String SHARD_FILE_PREFIX = "atm_shard_";
+    private static final String SHARD_FILE_EXTENSION = ".db";
+
+    private static final String INSERT_DECISION =
+            "INSERT INTO transfer_decisions " +
+                    "(sender_account_id, recipient_account_id, amount, deposit_request_id) " +
+                    "VALUES (?, ?, ?, ?)";
+    private static final String SELECT_LAST_INSERT_ID = "SELECT last_insert_rowid() AS id";
+    private static final String DELETE_DECISION = "DELETE FROM transfer_decisions WHERE id = ?";
+    private static final String SELECT_DECISIONS =
+            "SELECT id, sender_account_id, recipient_account_id, amount, deposit_request_id " +
+                    "FROM transfer_decisions ORDER BY id";
+    private static final String SELECT_DEPOSIT_LEG = "SELECT 1 FROM transactions WHERE request_id = ?";
+
+    // The shards, indexed by shard number
+    private final DatabaseManager[] shards;
+
+    // The next account ID of every shard
+    private final AtomicLong[] nextAccountIds;
+
+    // The number of interrupted transfers completed when the shards were opened
+    private int recoveredTransfers;
+
+    private ShardedDatabaseManager(DatabaseManager[] shards) throws SQLException {
+        this.shards = shards;
+        this.nextAccountIds = new AtomicLong[shards.length];
+        for (int shard = 0; shard < shards.length; shard++) {
+            long maxAccountId = shards[shard].getMaxAccountId();
+            long next = maxAccountId - Math.floorMod(maxAccountId, shards.length) + shard;
+            if (next <= maxAccountId)
+                next += shards.length;
+            nextAccountIds[shard] = new AtomicLong(next);
+        }
+    }
+
+    /**
+     * Opens the shards in the given directory, creating them if they don't exist, and completes the transfers between
+     * shards that were interrupted.
+     * <p>
+     * The interrupted transfers are completed before this returns, so no request sees a transfer applied on one shard
+     * only. There is at most one decision row per transfer that was in flight when the process died, so this costs
+     * little; {@link #getRecoveredTransfers()} tells how many were completed.
+     *
+     * @param directory  the directory of the shard files
+     * @param shardCount the number of shards
+     * @return the sharded database
+     * @throws IOException  if the directory can't be created or read
+     * @throws SQLException if the shards can't be prepared
+     * @throws IllegalArgumentException if the directory holds a different number of shards
+     */
+    public static ShardedDatabaseManager open(Path directory, int shardCount) throws IOException, SQLException {
+        if (shardCount < 1)
+            throw new IllegalArgumentException("At least one shard is needed");
+
+        Files.createDirectories(directory);
+        long existingShards;
+        try (Stream<Path> files = Files.list(directory)) {
+            existingShards = files.filter(file -> isShardFile(file.getFileName().toString())).count();
+        }
+        if (existingShards != 0 && existingShards != shardCount)
+            throw new IllegalArgumentException(
+                    "The directory holds " + existingShards + " shards, not " + shardCount
+            );
+
+        DatabaseManager[] shards = new DatabaseManager[shardCount];
+        try {
+            for (int shard = 0; shard < shardCount; shard++) {
+                Path file = directory.resolve(SHARD_FILE_PREFIX + shard + SHARD_FILE_EXTENSION);
+                boolean created = Files.notExists(file);
+                shards[shard] = DatabaseManager.open("jdbc:sqlite:" + file);
+
+                // The sample accounts don't follow the placement of accounts on shards
+                if (created && shardCount > 1)
+                    shards[shard].deleteAllAccounts();
+            }
+            ShardedDatabaseManager database = new ShardedDatabaseManager(shards);
+            database.recoveredTransfers = database.completeTransfers();
+            return database;
+        } catch (SQLException | RuntimeException e) {
+            for (DatabaseManager shard : shards) {
+                if (shard != null)
+                    shard.close();
+            }
+            throw e;
+        }
+    }
+
+    private static boolean isShardFile(String fileName) {
+        return fileName.startsWith(SHARD_FILE_PREFIX) && fileName.endsWith(SHARD_FILE_EXTENSION);
+    }
+
+    /**
+     * Returns the number of shards
+     *
+     * @return the shard count
+     */
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * Returns the number of interrupted transfers between shards that were completed when the shards were opened
+     *
+     * @return the number of completed transfers
+     */
+    public int getRecoveredTransfers() {
+        return recoveredTransfers;
+    }
+
+    private int shardIndex(long accountId) {
+        return (int) Math.floorMod(accountId, (long) shards.length);
+    }
+
+    private DatabaseManager shardOf(long accountId) {
+        return shards[shardIndex(accountId)];
+    }
+
+    private DatabaseManager shardOfUserId(String userId) {
+        return shards[Math.floorMod(userId.hashCode(), shards.length)];
+    }
+
+    @Override
+    public AccountModel getAccount(String userId, int userPin) {
+        return ownAccount(shardOfUserId(userId).getAccount(userId, userPin));
+    }
+
+    @Override
+    public AccountModel getAccount(String userId) {
+        return ownAccount(shardOfUserId(userId).getAccount(userId));
+    }
+
+    @Override
+    public AccountModel getAccount(long accountId) {
+        return ownAccount(shardOf(accountId).getAccount(accountId));
+    }
+
+    @Override
+    public AccountModel createAccount(String userId, String userName, int userPin) {
+        int shard = Math.floorMod(userId.hashCode(), shards.length);
+        long accountId = nextAccountIds[shard].getAndAdd(shards.length);
+        return ownAccount(shards[shard].createAccount(accountId, userId, userName, userPin));
+    }
+
+    /**
+     * Points an account read from a shard to the sharded database, so its transaction history resolves the other
+     * parties on every shard and its transfers can cross shards
+     *
+     * @param account the account read from a shard, or null
+     * @return the account
+     */
+    private AccountModel ownAccount(AccountModel account) {
+        if (account != null)
+            account.setDatabase(this);
+        return account;
+    }
+
+    @Override
+    public boolean addTransaction(TransactionModel transaction) {
+        DatabaseManager shard = shardOf(transaction.getAccountId());
+        if (transaction.getTransactionType() != TransactionModel.TransactionType.TRANSFER_WITHDRAW
+                || shardOf(transaction.getOtherPartyAccountId()) == shard)
+            return shard.addTransaction(transaction);
+
+        try {
+            transferAcrossShards(transaction);
+            return true;
+        } catch (SQLException e) {
+            System.out.println("Error in attempting transfer: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Writes a transfer between accounts of different shards in two phases, see the class documentation
+     *
+     * @param transaction the withdraw leg of the transfer, its other party is the recipient
+     * @throws SQLException if the transfer is aborted, nothing is written then
+     */
+    private void transferAcrossShards(TransactionModel transaction) throws SQLException {
+        long senderId = transaction.getAccountId();
+        long recipientId = transaction.getOtherPartyAccountId();
+
+        // A retry of a committed transfer is answered by the sender shard, which holds the request id of the transfer
+        if (shardOf(senderId).findCommittedRequest(transaction))
+            return;
+
+        TransactionModel deposit =
+                depositLeg(senderId, recipientId, transaction.getAmount(), UUID.randomUUID().toString());
+
+        // The writer connection of a shard is held from beginWrite on, so taking them in shard order orders the locks
+        boolean senderFirst = shardIndex(senderId) < shardIndex(recipientId);
+        TransferDecision decision;
+        try (DatabaseManager.PendingWrite first = shardOf(senderFirst ? senderId : recipientId).beginWrite()) {
+            first.write(senderFirst ? transaction : deposit);
+            try (DatabaseManager.PendingWrite second = shardOf(senderFirst ? recipientId : senderId).beginWrite()) {
+                second.write(senderFirst ? deposit : transaction);
+                DatabaseManager.PendingWrite sender = senderFirst ? first : second;
+                DatabaseManager.PendingWrite recipient = senderFirst ? second : first;
+
+                decision = new TransferDecision(
+                        0, senderId, recipientId, transaction.getAmount(), deposit.getRequestId()
+                );
+                decision.id = insertDecision(sender, decision);
+                sender.commit();
+
+                // The transfer is decided, a failure from here on is completed from the decision row
+                try {
+                    recipient.commit();
+                    deleteDecision(sender, decision.id);
+                    sender.commit();
+                    return;
+                } catch (SQLException e) {
+                    System.out.println("Error completing transfer, completing it again: " + e.getMessage());
+                }
+            }
+        }
+
+        try {
+            completeTransfer(decision);
+        } catch (SQLException e) {
+            System.out.println("Error completing transfer, it is completed on the next start: " + e.getMessage());
+        }
+    }
+
+    private static TransactionModel depositLeg(long senderId, long recipientId, long amount, String requestId) {
+        TransactionModel deposit = new TransactionModel();
+        deposit.setAccountId(recipientId);
+        deposit.setTransactionType(TransactionModel.TransactionType.TRANSFER_DEPOSIT);
+        deposit.setAmount(amount);
+        deposit.setOtherPartyAccountId(senderId);
+        deposit.setRequestId(requestId);
+        return deposit;
+    }
+
+    private static long insertDecision(DatabaseManager.PendingWrite sender, TransferDecision decision)
+            throws SQLException {
+        PooledConnection pc = sender.getConnection();
+        PreparedStatement stmt = pc.prepare(INSERT_DECISION);
+        stmt.setLong(1, decision.senderAccountId);
+        stmt.setLong(2, decision.recipientAccountId);
+        stmt.setLong(3, decision.amount);
+        stmt.setString(4, decision.depositRequestId);
+        stmt.executeUpdate();
+
+        try (ResultSet rs = pc.prepare(SELECT_LAST_INSERT_ID).executeQuery()) {
+            if (!rs.next())
+                throw new SQLException("The transfer decision has no id");
+            return rs.getLong("id");
+        }
+    }
+
+    private static void deleteDecision(DatabaseManager.PendingWrite sender, long decisionId) throws SQLException {
+        PreparedStatement stmt = sender.getConnection().prepare(DELETE_DECISION);
+        stmt.setLong(1, decisionId);
+        stmt.executeUpdate();
+    }
+
+    /**
+     * Completes every transfer between shards whose decision row is left, called when the shards are opened
+     *
+     * @return the number of completed transfers
+     * @throws SQLException if a transfer can't be completed
+     */
+    private int completeTransfers() throws SQLException {
+        int completed = 0;
+        for (DatabaseManager shard : shards) {
+            List<TransferDecision> decisions = new ArrayList<>();
+            try (
+                    DatabaseManager.PendingWrite read = shard.beginWrite();
+                    ResultSet rs = read.getConnection().prepare(SELECT_DECISIONS).executeQuery()
+            ) {
+                while (rs.next()) {
+                    decisions.add(new TransferDecision(
+                            rs.getLong("id"),
+                            rs.getLong("sender_account_id"),
+                            rs.getLong("recipient_account_id"),
+                            rs.getLong("amount"),
+                            rs.getString("deposit_request_id")
+                    ));
+                }
+            }
+
+            for (TransferDecision decision : decisions)
+                completeTransfer(decision);
+            completed += decisions.size();
+        }
+        return completed;
+    }
+
+    /**
+     * Writes the deposit leg of a decided transfer unless it is already committed, then deletes the decision
+     *
+     * @param decision the decision of the transfer
+     * @throws SQLException if the deposit leg or the decision can't be written
+     */
+    private void completeTransfer(TransferDecision decision) throws SQLException {
+        try (DatabaseManager.PendingWrite recipient = shardOf(decision.recipientAccountId).beginWrite()) {
+            PreparedStatement stmt = recipient.getConnection().prepare(SELECT_DEPOSIT_LEG);
+            stmt.setString(1, decision.depositRequestId);
+
+            boolean committed;
+            try (ResultSet rs = stmt.executeQuery()) {
+                committed = rs.next();
+            }
+            if (!committed) {
+                recipient.write(depositLeg(decision.senderAccountId, decision.recipientAccountId, decision.amount,
+                        decision.depositRequestId));
+                recipient.commit();
+            }
+        }
+
+        try (DatabaseManager.PendingWrite sender = shardOf(decision.senderAccountId).beginWrite()) {
+            deleteDecision(sender, decision.id);
+            sender.commit();
+        }
+    }
+
+    @Override
+    public ArrayList<TransactionModel> getTransactionHistory(AccountModel account) {
+        return resolveOtherParties(shardOf(account.getId()).getTransactionHistory(account));
+    }
+
+    @Override
+    public ArrayList<TransactionModel> getTransactionPage(long accountId, long beforeId, int limit) {
+        return resolveOtherParties(shardOf(accountId).getTransactionPage(accountId, beforeId, limit));
+    }
+
+    /**
+     * Resolves the other parties that live on other shards than the account, which the shard can't resolve itself.
+     * The other parties are grouped by shard and each group is loaded with one batched query.
+     */
+    private ArrayList<TransactionModel> resolveOtherParties(ArrayList<TransactionModel> transactions) {
+        Map<Integer, Set<Long>> unresolvedByShard = new HashMap<>();
+        for (TransactionModel transaction : transactions) {
+            long otherPartyId = transaction.getOtherPartyAccountId();
+            if (otherPartyId == 0 || transaction.getOtherPartyUserId() != null)
+                continue;
+            unresolvedByShard.computeIfAbsent(shardIndex(otherPartyId), shard -> new HashSet<>()).add(otherPartyId);
+        }
+        if (unresolvedByShard.isEmpty())
+            return transactions;
+
+        Map<Long, AccountIdentityCache.Identity> identities = new HashMap<>();
+        try {
+            for (Map.Entry<Integer, Set<Long>> group : unresolvedByShard.entrySet())
+                identities.putAll(shards[group.getKey()].findIdentities(group.getValue()));
+        } catch (SQLException e) {
+            System.out.println("Error retrieving account: " + e.getMessage());
+        }
+
+        for (TransactionModel transaction : transactions) {
+            if (transaction.getOtherPartyUserId() != null)
+                continue;
+
+            AccountIdentityCache.Identity identity = identities.get(transaction.getOtherPartyAccountId());
+            if (identity != null) {
+                transaction.setOtherPartyUserId(identity.getUserId());
+                transaction.setOtherPartyUserName(identity.getUserName());
+            }
+        }
+        return transactions;
+    }
+
+    /**
+     * Closes every shard
+     */
+    @Override
+    public void close() {
+        for (DatabaseManager shard : shards)
+            shard.close();
+    }
+
+    /**
+     * A row of the transfer_decisions table
+     */
+    private static class TransferDecision {
+        private long id;
+        private final long senderAccountId;
+        private final long recipientAccountId;
+        private final long amount;
+        private final String depositRequestId;
+
+        private TransferDecision(long id, long senderAccountId, long recipientAccountId, long amount,
+                                 String depositRequestId) {
+            this.id = id;
+            this.senderAccountId = senderAccountId;
+            this.recipientAccountId = recipientAccountId;
+            this.amount = amount;
+            this.depositRequestId = depositRequestId;
+        }
+    }
+}
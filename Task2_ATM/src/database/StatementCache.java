@@ -0,0 +1,110 @@
+package database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * StatementCache keeps the prepared statements of a single connection so that hot queries are compiled by SQLite
+ * only once and reused afterwards.
+ * <p>
+ * The cache is bounded; when it is full the least recently used statement is evicted and closed.
+ * Statements handed out by the cache belong to the cache and must not be closed by the caller (their result sets
+ * still must be closed).
+ * <p>
+ * A cache is only ever used by the thread that currently borrowed its connection, the hit/miss counters however may
+ * be read from any thread.
+ *
+ * @author <a href="https://github.com/itsyourap">Ankan Pal</a>
+ */
+class StatementCache implements AutoCloseable {
+    // The connection whose statements are cached
+    private final Connection connection;
+
+    // Cached statements by SQL string, in access order (least recently used first)
+    private final LinkedHashMap<String, PreparedStatement> statements;
+
+    // Number of statements served from the cache
+    private final LongAdder hits = new LongAdder();
+
+    // Number of statements that had to be prepared
+    private final LongAdder misses = new LongAdder();
+
+    // Number of statements evicted because the cache was full
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Creates an empty statement cache for the given connection
+     *
+     * @param connection the connection whose statements are cached
+     * @param maxSize    the maximum number of statements kept open
+     */
+    StatementCache(Connection connection, int maxSize) {
+        this.connection = connection;
+        this.statements = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() <= maxSize)
+                    return false;
+
+                evictions.increment();
+                closeQuietly(eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Returns the prepared statement for the given SQL, preparing it if it is not cached yet
+     *
+     * @param sql the SQL of the statement
+     * @return the cached prepared statement
+     * @throws SQLException if the statement can't be prepared
+     */
+    PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement statement = statements.get(sql);
+        if (statement != null && !statement.isClosed()) {
+            hits.increment();
+            statement.clearParameters();
+            return statement;
+        }
+
+        misses.increment();
+        statement = connection.prepareStatement(sql);
+        statements.put(sql, statement);
+        return statement;
+    }
+
+    long getHits() {
+        return hits.sum();
+    }
+
+    long getMisses() {
+        return misses.sum();
+    }
+
+    long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Closes every cached statement
+     */
+    @Override
+    public void close() {
+        for (PreparedStatement statement : statements.values())
+            closeQuietly(statement);
+        statements.clear();
+    }
+
+    private static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            System.out.println("Error closing prepared statement: " + e.getMessage());
+        }
+    }
+}
@@ -1,15 +1,15 @@
 package model;
 
+import database.AccountDatabase;
 import database.DatabaseManager;
 
-import java.util.ArrayList;
-
 public class AccountModel {
     private long id;
     private String userId;
     private String userName;
-    private double balance;
-    private ArrayList<TransactionModel> transactions;
+    private long balance;
+    private TransactionHistory transactions;
+    private AccountDatabase database;
 
     public AccountModel() {
 
@@ -39,34 +39,53 @@ public class AccountModel {
         this.userName = userName;
     }
 
-    public double getBalance() {
+    /**
+     * Returns the balance of this account in minor units (cents)
+     *
+     * @return the balance in minor units
+     * @see Money
+     */
+    public long getBalance() {
         return balance;
     }
 
-    public void setBalance(double balance) {
+    public void setBalance(long balance) {
         this.balance = balance;
     }
 
-    public ArrayList<TransactionModel> getTransactions() {
-        return transactions;
+    /**
+     * Returns the database this account was read from, which serves its transaction history and new transactions
+     *
+     * @return the database, {@link DatabaseManager#getInstance()} if the account wasn't read from a database
+     */
+    public AccountDatabase getDatabase() {
+        return database == null ? DatabaseManager.getInstance() : database;
     }
 
-    public void setTransactions(ArrayList<TransactionModel> transactions) {
-        this.transactions = transactions;
+    public void setDatabase(AccountDatabase database) {
+        this.database = database;
     }
 
-    public boolean addTransaction(TransactionModel transaction) {
-        if (this.transactions == null)
-            setTransactions(new ArrayList<>());
+    /**
+     * Returns the transaction history of this account.
+     * The history is a lazily loaded view, nothing is read from the database until it is iterated.
+     *
+     * @return the transaction history, newest first
+     * @see TransactionHistory
+     */
+    public TransactionHistory getTransactions() {
+        if (transactions == null || transactions.getAccountId() != id || transactions.getDatabase() != getDatabase())
+            transactions = new TransactionHistory(getDatabase(), id);
+        return transactions;
+    }
 
-        if (DatabaseManager.getInstance().addTransaction(transaction)) {
+    public boolean addTransaction(TransactionModel transaction) {
+        if (getDatabase().addTransaction(transaction)) {
             if (transaction.getTransactionType() == TransactionModel.TransactionType.WITHDRAW ||
                     transaction.getTransactionType() == TransactionModel.TransactionType.TRANSFER_WITHDRAW)
                 this.balance -= transaction.getAmount();
             else
                 this.balance += transaction.getAmount();
-
-            this.transactions.add(transaction);
             return true;
         }
 
@@ -80,7 +99,6 @@ public class AccountModel {
                 ", userId='" + userId + '\'' +
                 ", userName='" + userName + '\'' +
                 ", balance=" + balance +
-                ", transactions=" + transactions +
                 '}';
     }
 }
@@ -0,0 +1,72 @@
+package model;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Money converts between amounts entered or shown to the user (e.g. "12.50") and the fixed-point representation
+ * used everywhere else in the application.
+ * <p>
+ * Amounts and balances are stored and processed as {@code long} minor units (cents), so sums of amounts are exact
+ * and no floating point conversion happens on the way to or from the database.
+ *
+ * @author <a href="https://github.com/itsyourap">Ankan Pal</a>
+ */
+public final class Money {
+    // Number of minor units (cents) in one major unit
+    public static final int MINOR_UNITS_PER_UNIT = 100;
+
+    // Number of decimal places of an amount
+    private static final int SCALE = 2;
+
+    private Money() {
+
+    }
+
+    /**
+     * Parses an amount entered by the user into minor units
+     *
+     * @param amount the amount, e.g. "12", "12.5" or "12.50"
+     * @return the amount in minor units, e.g. 1250
+     * @throws NumberFormatException if the amount is not a number, has more than two decimal places or does not fit
+     *                               into a long
+     */
+    public static long parse(String amount) {
+        try {
+            return new BigDecimal(amount.trim())
+                    .setScale(SCALE, RoundingMode.UNNECESSARY)
+                    .movePointRight(SCALE)
+                    .longValueExact();
+        } catch (ArithmeticException e) {
+            throw new NumberFormatException("Invalid amount: " + amount);
+        }
+    }
+
+    /**
+     * Formats an amount in minor units for display
+     *
+     * @param minorUnits the amount in minor units, e.g. 1250
+     * @return the formatted amount, e.g. "12.50"
+     */
+    public static String format(long minorUnits) {
+        return BigDecimal.valueOf(minorUnits, SCALE).toPlainString();
+    }
+
+    /**
+     * Appends an amount in minor units, formatted like {@link #format(long)}, without creating intermediate objects
+     *
+     * @param builder    the builder to append to
+     * @param minorUnits the amount in minor units, e.g. 1250
+     * @return the builder
+     */
+    public static StringBuilder appendTo(StringBuilder builder, long minorUnits) {
+        long units = minorUnits / MINOR_UNITS_PER_UNIT;
+        long fraction = Math.abs(minorUnits % MINOR_UNITS_PER_UNIT);
+        if (minorUnits < 0 && units == 0)
+            builder.append('-');
+        builder.append(units).append('.');
+        if (fraction < 10)
+            builder.append('0');
+        return builder.append(fraction);
+    }
+}
@@ -0,0 +1,110 @@
+package model;
+
+import database.AccountDatabase;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * TransactionHistory is a lazily loaded view of the transactions of an account.
+ * <p>
+ * Nothing is read from the database until the history is iterated. Transactions are then fetched page by page in
+ * reverse chronological order (newest first), using keyset pagination on the transaction id, so iterating the first
+ * few entries of a long history only costs a single small query and never holds the whole history in memory.
+ * <p>
+ * Every iteration starts from the newest transaction again, so transactions added after the view was created are
+ * always included. The pages are read from the database that produced the account, see
+ * {@link AccountModel#getDatabase()}.
+ *
+ * @author <a href="https://github.com/itsyourap">Ankan Pal</a>
+ * @see AccountDatabase#getTransactionPage(long, long, int)
+ */
+public class TransactionHistory implements Iterable<TransactionModel> {
+    // Number of transactions fetched per page
+    public static final int DEFAULT_PAGE_SIZE = 50;
+
+    // The database the transactions are read from
+    private final AccountDatabase database;
+
+    // The account whose transactions are viewed
+    private final long accountId;
+
+    // Number of transactions fetched per page
+    private final int pageSize;
+
+    public TransactionHistory(AccountDatabase database, long accountId) {
+        this(database, accountId, DEFAULT_PAGE_SIZE);
+    }
+
+    public TransactionHistory(AccountDatabase database, long accountId, int pageSize) {
+        this.database = database;
+        this.accountId = accountId;
+        this.pageSize = pageSize;
+    }
+
+    public AccountDatabase getDatabase() {
+        return database;
+    }
+
+    public long getAccountId() {
+        return accountId;
+    }
+
+    /**
+     * Returns a single page of transactions older than the given transaction id, newest first.
+     *
+     * @param beforeId the id of the last transaction of the previous page, or {@link Long#MAX_VALUE} for the first page
+     * @return the transactions of the page, empty if there are no more transactions
+     */
+    public ArrayList<TransactionModel> getPage(long beforeId) {
+        return database.getTransactionPage(accountId, beforeId, pageSize);
+    }
+
+    /**
+     * Returns an iterator over the transactions of the account, newest first.
+     * Pages are fetched from the database as the iterator advances.
+     *
+     * @return an iterator over the transactions
+     */
+    @Override
+    public Iterator<TransactionModel> iterator() {
+        return new Iterator<>() {
+            private ArrayList<TransactionModel> page = new ArrayList<>();
+            private int index = 0;
+            private long beforeId = Long.MAX_VALUE;
+            private boolean exhausted = false;
+
+            @Override
+            public boolean hasNext() {
+                if (index < page.size())
+                    return true;
+                if (exhausted)
+                    return false;
+
+                page = getPage(beforeId);
+                index = 0;
+                if (page.size() < pageSize)
+                    exhausted = true;
+                if (!page.isEmpty())
+                    beforeId = page.get(page.size() - 1).getId();
+                return !page.isEmpty();
+            }
+
+            @Override
+            public TransactionModel next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return page.get(index++);
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return "TransactionHistory{" +
+                "accountId=" + accountId +
+                ", pageSize=" + pageSize +
+                '}';
+    }
+}
@@ -7,6 +7,20 @@ public class TransactionModel {
         TRANSFER_DEPOSIT(3),
         TRANSFER_WITHDRAW(4);
 
+        // The types indexed by their value, as stored in the transaction_type column
+        private static final TransactionType[] BY_VALUE;
+
+        static {
+            TransactionType[] types = values();
+            int maxValue = 0;
+            for (TransactionType type : types)
+                maxValue = Math.max(maxValue, type.value);
+
+            BY_VALUE = new TransactionType[maxValue + 1];
+            for (TransactionType type : types)
+                BY_VALUE[type.value] = type;
+        }
+
         private final int value;
 
         TransactionType(int i) {
@@ -16,19 +30,37 @@ public class TransactionModel {
         public int getValue() {
             return value;
         }
+
+        /**
+         * Returns the type with the given value, without allocating (unlike looking the type up by name)
+         *
+         * @param value the value of the type, as stored in the database
+         * @return the type
+         * @throws IllegalArgumentException if no type has the value
+         */
+        public static TransactionType fromValue(int value) {
+            TransactionType type = value >= 0 && value < BY_VALUE.length ? BY_VALUE[value] : null;
+            if (type == null)
+                throw new IllegalArgumentException("Unknown transaction type: " + value);
+            return type;
+        }
     }
 
     private long id;
     private long accountId;
     private TransactionType transactionType;
-    private double amount;
+    private long amount;
     private long otherPartyAccountId;
+    private String otherPartyUserId;
+    private String otherPartyUserName;
+    private long createdAt;
+    private String requestId;
 
     public TransactionModel() {
 
     }
 
-    public TransactionModel(long id, long accountId, TransactionType transactionType, double amount, long otherPartyAccountId) {
+    public TransactionModel(long id, long accountId, TransactionType transactionType, long amount, long otherPartyAccountId) {
         this.id = id;
         this.accountId = accountId;
         this.transactionType = transactionType;
@@ -60,11 +92,17 @@ public class TransactionModel {
         this.transactionType = transactionType;
     }
 
-    public double getAmount() {
+    /**
+     * Returns the amount of this transaction in minor units (cents)
+     *
+     * @return the amount in minor units
+     * @see Money
+     */
+    public long getAmount() {
         return amount;
     }
 
-    public void setAmount(double amount) {
+    public void setAmount(long amount) {
         this.amount = amount;
     }
 
@@ -76,6 +114,49 @@ public class TransactionModel {
         this.otherPartyAccountId = otherPartyAccountId;
     }
 
+    public String getOtherPartyUserId() {
+        return otherPartyUserId;
+    }
+
+    public void setOtherPartyUserId(String otherPartyUserId) {
+        this.otherPartyUserId = otherPartyUserId;
+    }
+
+    public String getOtherPartyUserName() {
+        return otherPartyUserName;
+    }
+
+    public void setOtherPartyUserName(String otherPartyUserName) {
+        this.otherPartyUserName = otherPartyUserName;
+    }
+
+    /**
+     * Returns when this transaction was written, in milliseconds since the epoch
+     *
+     * @return the time the transaction was written, 0 for transactions written before timestamps were recorded
+     */
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(long createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    /**
+     * Returns the id the client gave the request writing this transaction. Retries of the request carry the same id,
+     * so the transaction is written at most once however often it is submitted.
+     *
+     * @return the request id, or null if the transaction is not deduplicated
+     */
+    public String getRequestId() {
+        return requestId;
+    }
+
+    public void setRequestId(String requestId) {
+        this.requestId = requestId;
+    }
+
     @Override
     public String toString() {
         return "TransactionModel{" +
@@ -84,6 +165,8 @@ public class TransactionModel {
                 ", transactionType=" + transactionType +
                 ", amount=" + amount +
                 ", otherPartyAccountId=" + otherPartyAccountId +
+                ", createdAt=" + createdAt +
+                ", requestId='" + requestId + '\'' +
                 '}';
     }
 }
@@ -0,0 +1,124 @@
+package session;
+
+import database.DatabaseManager;
+import database.DatabaseMetrics;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * ATMServer serves many ATM sessions from a single process.
+ * <p>
+ * It listens on a local socket and runs every accepted connection as an independent {@link ATMSession} (the same
+ * menu as the console ATM) on its own thread, see {@link SessionExecutors}.
+ * The server only binds to the loopback address, terminals are expected to run on the same host.
+ * <p>
+ * Usage (from the repository root), then connect with e.g. {@code nc localhost 5050}:
+ * <pre>
+ * java -cp "Task2_ATM/src/;lib/sqlite-jdbc-3.44.0.0.jar;lib/slf4j-api-1.7.36.jar" session.ATMServer [port] [metricsSeconds] [replicaFile] [dailyWithdrawalLimit]
+ * </pre>
+ * If {@code metricsSeconds} is given, the latencies and errors of the database operations are printed every
+ * {@code metricsSeconds} seconds, see {@link DatabaseMetrics}.
+ * If {@code replicaFile} is given and not empty, the ledger is replicated to that file, which then serves the
+ * transaction histories, see {@link DatabaseManager#enableReplication(Path, long)}.
+ * If {@code dailyWithdrawalLimit} is given, the cash withdrawn from an account per day is limited to that amount in
+ * minor units, see {@link DatabaseManager#setDailyWithdrawalLimit(long)}. There is no limit by default.
+ *
+ * @author <a href="https://github.com/itsyourap">Ankan Pal</a>
+ */
+public class ATMServer implements AutoCloseable {
+    // Port the server listens on by default
+    public static final int DEFAULT_PORT = 5050;
+
+    // How often (in milliseconds) the replicator looks for changes not announced by a commit
+    private static final long REPLICATION_POLL_MILLIS = 1000;
+
+    // Number of pending connections the operating system queues for the server
+    private static final int BACKLOG = 4096;
+
+    // The socket the server accepts sessions on
+    private final ServerSocket serverSocket;
+
+    // Runs the sessions, one thread per session
+    private final ExecutorService executor = SessionExecutors.newPerSessionExecutor();
+
+    /**
+     * Opens the server socket on the loopback address
+     *
+     * @param port the port to listen on, 0 to pick a free port
+     * @throws IOException if the socket can't be opened
+     */
+    public ATMServer(int port) throws IOException {
+        this.serverSocket = new ServerSocket(port, BACKLOG, InetAddress.getLoopbackAddress());
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        int metricsSeconds = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+        String replicaFile = args.length > 2 && !args[2].isEmpty() ? args[2] : null;
+        long dailyWithdrawalLimit = args.length > 3 ? Long.parseLong(args[3]) : 0;
+
+        DatabaseManager.getInstance().setDailyWithdrawalLimit(dailyWithdrawalLimit);
+        if (replicaFile != null)
+            DatabaseManager.getInstance().enableReplication(Path.of(replicaFile), REPLICATION_POLL_MILLIS);
+        if (metricsSeconds > 0)
+            DatabaseManager.getInstance().getMetrics().startPeriodicReport(metricsSeconds * 1000L);
+
+        try (ATMServer server = new ATMServer(port)) {
+            System.out.println("ATM server listening on port " + server.getPort()
+                    + (SessionExecutors.isUsingVirtualThreads() ? " (virtual threads)" : " (platform threads)"));
+            server.serve();
+        }
+    }
+
+    /**
+     * Returns the port the server listens on
+     *
+     * @return the port
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Accepts sessions until the server is closed
+     */
+    public void serve() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                executor.submit(() -> runSession(socket));
+            } catch (IOException e) {
+                if (!serverSocket.isClosed())
+                    System.out.println("Error accepting session: " + e.getMessage());
+            }
+        }
+    }
+
+    private static void runSession(Socket socket) {
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            new ATMSession(
+                    new BufferedInputStream(socket.getInputStream()),
+                    new BufferedOutputStream(socket.getOutputStream())
+            ).run();
+        } catch (IOException e) {
+            System.out.println("Error in session: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Stops accepting sessions, sessions that are running are allowed to finish
+     */
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,450 @@
+package session;
+
+import database.AccountNotFoundException;
+import database.DailyLimitExceededException;
+import database.DatabaseManager;
+import database.InsufficientBalanceException;
+import database.RequestIdReusedException;
+import model.AccountModel;
+import model.Money;
+import model.TransactionModel;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.NoSuchElementException;
+import java.util.Scanner;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * ATMSession is a single customer session of the ATM, from the login to the exit.
+ * <p>
+ * All state of a session (the logged-in account, the input and the output) lives in the session object, so any
+ * number of sessions can run at the same time, each on its own thread. A session reads its input from and writes
+ * its output to the given streams, which are the console for {@code ATM} and a socket for the {@link ATMServer}.
+ * <p>
+ * A session goes through the following steps:
+ * <ol>
+ * <li>Getting user input for User ID and PIN</li>
+ * <li>Validating the User ID and PIN</li>
+ * <li>Displaying the main menu</li>
+ * <li>Getting user input for the main menu</li>
+ * <li>Performing the selected action</li>
+ * <li>Displaying the result of the action</li>
+ * <li>Returning to the main menu</li>
+ * <li>Exiting the session</li>
+ * </ol>
+ *
+ * @author <a href="https://github.com/itsyourap">Ankan Pal</a>
+ */
+public class ATMSession implements Runnable {
+    // Number of times a transaction is submitted before it is reported as failed
+    private static final int SUBMIT_ATTEMPTS = 3;
+
+    // How long (in milliseconds) a session waits for an answer of the database before it gives up
+    private static final long DATABASE_TIMEOUT_MILLIS = 5_000;
+
+    // Format of the transaction dates shown in the history
+    private static final DateTimeFormatter DATE_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm").withZone(ZoneId.systemDefault());
+
+    // The DatabaseManager instance
+    private final DatabaseManager dbManager = DatabaseManager.getInstance();
+
+    // The Scanner reading the input of this session
+    private final Scanner sc;
+
+    // The stream the output of this session is written to
+    private final PrintStream out;
+
+    // The current account that is logged in
+    private AccountModel currentAccount = null;
+
+    /**
+     * Creates a session reading from and writing to the given streams
+     *
+     * @param in     the input of the session
+     * @param output the output of the session
+     */
+    public ATMSession(InputStream in, OutputStream output) {
+        this.sc = new Scanner(in);
+        this.out = output instanceof PrintStream ? (PrintStream) output : new PrintStream(output, true);
+    }
+
+    /**
+     * Runs the session until the user exits or the input ends
+     */
+    @Override
+    public void run() {
+        try {
+            runSession();
+        } catch (NoSuchElementException e) {
+            // The input ended (e.g. the terminal disconnected) in the middle of the session
+        } finally {
+            out.flush();
+        }
+    }
+
+    private void runSession() {
+        out.println("Welcome to itsyourap's ATM");
+        out.println("---------------------------");
+        out.print("Please Enter User ID: ");
+        String userId = readToken();
+        out.print("Please Enter your PIN: ");
+        int pin = readInt();
+
+        currentAccount = dbManager.getAccount(userId, pin);
+        if (currentAccount == null) {
+            out.println("Invalid User ID or PIN");
+            out.println("Exiting...");
+            return;
+        }
+        out.println();
+
+        outer:
+        while (true) {
+            out.println("---------------------------");
+            out.println("Welcome " + currentAccount.getUserName());
+            out.println("Your current balance is: " + Money.format(currentAccount.getBalance()));
+            out.println("---------------------------");
+            out.println("What would you like to do?");
+            out.println("1. Withdraw");
+            out.println("2. Deposit");
+            out.println("3. Transfer");
+            out.println("4. Show Transaction History");
+            out.println("5. Exit");
+            out.print("Enter your choice: ");
+            int choice = readInt();
+            out.println("---------------------------");
+            switch (choice) {
+                case 1:
+                    withdrawCash();
+                    break;
+
+                case 2:
+                    depositCash();
+                    break;
+
+                case 3:
+                    transferMoney();
+                    break;
+
+                case 4:
+                    showTransactionHistory();
+                    break;
+
+                case 5:
+                    out.println("Exiting...");
+                    break outer;
+
+                default:
+                    out.println("Invalid choice");
+            }
+        }
+    }
+
+    /**
+     * This method is used to read the next token entered by the user.
+     * Pending output (e.g. a prompt) is flushed first, so a remote terminal sees it before the session waits.
+     *
+     * @return the token
+     * @throws NoSuchElementException if the input ended
+     */
+    private String readToken() {
+        out.flush();
+        return sc.next();
+    }
+
+    /**
+     * This method is used to read a number entered by the user.
+     * Input that is not a number is read as -1.
+     *
+     * @return the number, or -1 if the input is not a number
+     * @throws NoSuchElementException if the input ended
+     */
+    private int readInt() {
+        try {
+            return Integer.parseInt(readToken());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * This method is used to withdraw cash from the current account.
+     * It asks the user for the amount to withdraw and then creates a TransactionModel object.
+     * The TransactionModel object is then submitted to the database, see {@link #submitTransaction(TransactionModel)}.
+     * If the transaction is successful, the amount is deducted from the current account's balance.
+     * If the transaction is unsuccessful, the amount is not deducted from the current account's balance.
+     */
+    private void withdrawCash() {
+        out.print("Enter amount to withdraw: ");
+        long amount = readAmount();
+        if (amount <= 0)
+            return;
+        if (amount > currentAccount.getBalance()) {
+            out.println("Insufficient balance");
+            return;
+        }
+        long remaining = dbManager.getRemainingDailyWithdrawal(currentAccount.getId());
+        if (amount > remaining) {
+            out.println("Daily withdrawal limit exceeded, you can withdraw " + Money.format(remaining) + " more today");
+            return;
+        }
+        TransactionModel withdrawTransaction = new TransactionModel();
+        withdrawTransaction.setAmount(amount);
+        withdrawTransaction.setTransactionType(TransactionModel.TransactionType.WITHDRAW);
+        withdrawTransaction.setAccountId(currentAccount.getId());
+        try {
+            submitTransaction(withdrawTransaction);
+            currentAccount.setBalance(currentAccount.getBalance() - amount);
+            out.println("Withdraw successful");
+            out.println("Please collect your cash");
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof TimeoutException)
+                reportTimeout();
+            else
+                reportFailure("Withdraw failed", amount);
+        }
+    }
+
+    /**
+     * This method is used to deposit cash into the current account.
+     * It asks the user for the amount to deposit and then creates a TransactionModel object.
+     * The TransactionModel object is then submitted to the database, see {@link #submitTransaction(TransactionModel)}.
+     * If the transaction is successful, the amount is added to the current account's balance.
+     * If the transaction is unsuccessful, the amount is not added to the current account's balance.
+     */
+    private void depositCash() {
+        out.print("Enter amount to deposit: ");
+        long amount = readAmount();
+        if (amount <= 0)
+            return;
+        TransactionModel depositTransaction = new TransactionModel();
+        depositTransaction.setAmount(amount);
+        depositTransaction.setTransactionType(TransactionModel.TransactionType.DEPOSIT);
+        depositTransaction.setAccountId(currentAccount.getId());
+        try {
+            submitTransaction(depositTransaction);
+            currentAccount.setBalance(currentAccount.getBalance() + amount);
+            out.println("Deposit successful");
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof TimeoutException)
+                reportTimeout();
+            else
+                out.println("Deposit failed");
+        }
+    }
+
+    /**
+     * This method is used to transfer cash from the current account to another account.
+     * It asks the user for the User ID of the recipient and the amount to transfer.
+     * It then creates a TransactionModel object for the withdraw leg of the transfer and adds it to the current account.
+     * The deposit leg on the recipient's account is written in the same database transaction, so either both legs
+     * are recorded and the amount is deducted from the current account's balance, or nothing is.
+     * The recipient is validated before the user is asked for the amount.
+     */
+    private void transferMoney() {
+        out.print("Enter User ID of recipient: ");
+        String recipientId = readToken();
+        AccountModel recipientAccount;
+        try {
+            recipientAccount = await(dbManager.getAsync().getAccountAsync(recipientId));
+        } catch (CompletionException e) {
+            out.println(e.getCause() instanceof AccountNotFoundException ? "Invalid User ID" : "Transfer failed");
+            return;
+        }
+
+        out.print("Enter amount to transfer: ");
+        long amount = readAmount();
+        if (amount <= 0)
+            return;
+        if (amount > currentAccount.getBalance()) {
+            out.println("Insufficient balance");
+            return;
+        }
+        TransactionModel transaction = new TransactionModel();
+        transaction.setAmount(amount);
+        transaction.setTransactionType(TransactionModel.TransactionType.TRANSFER_WITHDRAW);
+        transaction.setAccountId(currentAccount.getId());
+        transaction.setOtherPartyAccountId(recipientAccount.getId());
+        try {
+            submitTransaction(transaction);
+            currentAccount.setBalance(currentAccount.getBalance() - amount);
+            out.println("Transfer successful");
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof InsufficientBalanceException)
+                reportFailure("Insufficient balance", amount);
+            else if (e.getCause() instanceof TimeoutException)
+                reportTimeout();
+            else
+                out.println("Transfer failed");
+        }
+    }
+
+    /**
+     * Submits a transaction and waits for it to be committed.
+     * An attempt that fails for a reason other than the account (e.g. the database was busy, the async queue was
+     * full, or no answer came in time) is retried. Every attempt carries the same request id, so an attempt that was
+     * committed after all is answered with its ledger row instead of being written a second time.
+     * <p>
+     * An attempt that timed out may still be written by the database thread while the next one is pending, so every
+     * attempt submits its own copy of the transaction. The id and time of the attempt that answered are copied to
+     * the given transaction.
+     *
+     * @param transaction the transaction to submit
+     * @throws CompletionException if the transaction fails, with the cause of the last attempt
+     */
+    private void submitTransaction(TransactionModel transaction) {
+        transaction.setRequestId(UUID.randomUUID().toString());
+        for (int attempt = 1; ; attempt++) {
+            TransactionModel submitted = newAttempt(transaction);
+            try {
+                await(dbManager.getAsync().submitTransaction(submitted));
+                transaction.setId(submitted.getId());
+                transaction.setCreatedAt(submitted.getCreatedAt());
+                return;
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause();
+                boolean rejected = cause instanceof AccountNotFoundException
+                        || cause instanceof InsufficientBalanceException
+                        || cause instanceof DailyLimitExceededException
+                        || cause instanceof RequestIdReusedException;
+                if (rejected || cause instanceof InterruptedException || attempt == SUBMIT_ATTEMPTS)
+                    throw e;
+            }
+        }
+    }
+
+    /**
+     * Copies a transaction that is not written yet, for one attempt of {@link #submitTransaction(TransactionModel)}
+     *
+     * @param transaction the transaction to copy
+     * @return a new transaction with the same account, type, amount, other party and request id
+     */
+    private static TransactionModel newAttempt(TransactionModel transaction) {
+        TransactionModel attempt = new TransactionModel(
+                0,
+                transaction.getAccountId(),
+                transaction.getTransactionType(),
+                transaction.getAmount(),
+                transaction.getOtherPartyAccountId()
+        );
+        attempt.setRequestId(transaction.getRequestId());
+        return attempt;
+    }
+
+    /**
+     * Waits at most {@link #DATABASE_TIMEOUT_MILLIS} for the result of a database operation, so a stalled database
+     * doesn't hang the session.
+     *
+     * @param future the pending operation
+     * @param <T>    the type of the result
+     * @return the result of the operation
+     * @throws CompletionException if the operation failed (with its cause), timed out (with a
+     *                             {@link TimeoutException}) or the session was interrupted
+     */
+    private static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.get(DATABASE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw new CompletionException(e.getCause());
+        } catch (TimeoutException e) {
+            throw new CompletionException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CompletionException(e);
+        }
+    }
+
+    /**
+     * This method is used to report a transaction the database didn't answer in time.
+     * The transaction may still be committed later, so the user is asked to check the balance instead of being told
+     * it failed, and the balance is reloaded from the database.
+     */
+    private void reportTimeout() {
+        AccountModel refreshedAccount = dbManager.getAccount(currentAccount.getId());
+        if (refreshedAccount != null)
+            currentAccount.setBalance(refreshedAccount.getBalance());
+        out.println("The bank didn't answer in time, please check your balance before trying again");
+    }
+
+    /**
+     * This method is used to report a failed withdrawal or transfer.
+     * The balance shown to the user may be stale when another session used the same account in the meantime, so the
+     * balance is reloaded from the database to tell an insufficient balance apart from any other failure.
+     *
+     * @param message the message shown if the balance covers the amount
+     * @param amount  the amount that was to be withdrawn or transferred
+     */
+    private void reportFailure(String message, long amount) {
+        AccountModel refreshedAccount = dbManager.getAccount(currentAccount.getId());
+        if (refreshedAccount != null)
+            currentAccount.setBalance(refreshedAccount.getBalance());
+
+        if (amount > currentAccount.getBalance())
+            out.println("Insufficient balance");
+        else
+            out.println(message);
+    }
+
+    /**
+     * This method is used to show the transaction history of the current account.
+     * It gets the transaction history of the current account and then displays it.
+     * The transaction history is displayed in reverse chronological order.
+     * The transaction history is displayed in the following format:
+     * Transaction History
+     * ---------------------------
+     * WITHDRAW
+     * Amount: 1000.00
+     *
+     */
+    private void showTransactionHistory() {
+        out.println("Transaction History");
+        out.println("---------------------------");
+        for (TransactionModel t : currentAccount.getTransactions()) {
+            out.println(t.getTransactionType().toString());
+            if (t.getCreatedAt() != 0)
+                out.println("Date: " + DATE_FORMAT.format(Instant.ofEpochMilli(t.getCreatedAt())));
+            out.println("Amount: " + Money.format(t.getAmount()));
+            if (t.getTransactionType() == TransactionModel.TransactionType.TRANSFER_DEPOSIT || t.getTransactionType() == TransactionModel.TransactionType.TRANSFER_WITHDRAW) {
+                if (t.getTransactionType() == TransactionModel.TransactionType.TRANSFER_DEPOSIT)
+                    out.print("From");
+                else
+                    out.print("To");
+
+                out.println(": " + t.getOtherPartyUserName() + " [" + t.getOtherPartyUserId() + "]");
+            }
+            out.println();
+        }
+    }
+
+    /**
+     * This method is used to read an amount entered by the user.
+     * The amount is converted to minor units (cents), e.g. "12.50" is read as 1250.
+     * If the amount is not a valid positive amount with at most two decimal places, an error message is shown
+     * and 0 is returned.
+     *
+     * @return the amount in minor units, or 0 if the amount is invalid
+     * @see Money#parse(String)
+     */
+    private long readAmount() {
+        String input = readToken();
+        try {
+            long amount = Money.parse(input);
+            if (amount > 0)
+                return amount;
+        } catch (NumberFormatException ignored) {
+        }
+        out.println("Invalid amount");
+        return 0;
+    }
+}
@@ -0,0 +1,49 @@
+package session;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * SessionExecutors creates the executor that runs one thread per session.
+ * <p>
+ * Sessions spend almost all of their time blocked on terminal input, so the cheapest way to run thousands of them is
+ * one virtual thread per session. Virtual threads are only available from Java 21 on, while the project still builds
+ * for Java 17, so the virtual thread executor is looked up reflectively and a cached pool of platform threads is used
+ * on older runtimes.
+ *
+ * @author <a href="https://github.com/itsyourap">Ankan Pal</a>
+ */
+public final class SessionExecutors {
+    private SessionExecutors() {
+
+    }
+
+    /**
+     * Creates an executor that starts a new (virtual, if available) thread for every submitted session
+     *
+     * @return the executor
+     */
+    public static ExecutorService newPerSessionExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * Tells whether {@link #newPerSessionExecutor()} uses virtual threads on this runtime
+     *
+     * @return true if virtual threads are available
+     */
+    public static boolean isUsingVirtualThreads() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package database;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Tests of the write-through and the read race guard of {@link AccountCache}
+ *
+ * @author <a href="https://github.com/itsyourap">Ankan Pal</a>
+ */
+class AccountCacheTest {
+    private final AccountCache cache = new AccountCache(100);
+
+    @Test
+    void committedBalanceIsWrittenThrough() {
+        cache.load(entry(1, 1_000, 10), cache.generation());
+
+        cache.applyBalance(1, 1_500, 11);
+
+        assertEquals(1_500, cache.get(1).toAccountModel().getBalance());
+        assertEquals(11, cache.get(1).getVersion());
+        assertEquals(1_500, cache.getByUserId("user1").toAccountModel().getBalance());
+    }
+
+    @Test
+    void olderWriteDoesNotRollTheBalanceBack() {
+        cache.load(entry(1, 1_000, 10), cache.generation());
+        cache.applyBalance(1, 2_000, 12);
+
+        // Published after the newer write
+        cache.applyBalance(1, 1_500, 11);
+
+        assertEquals(2_000, cache.get(1).toAccountModel().getBalance());
+    }
+
+    @Test
+    void readRacingACommitIsNotCached() {
+        long generation = cache.generation();
+        // The balance read from the database before the commit is published
+        AccountCache.Entry staleRead = entry(1, 1_000, 10);
+        cache.applyBalance(1, 1_500, 11);
+
+        cache.load(staleRead, generation);
+
+        assertNull(cache.get(1));
+    }
+
+    @Test
+    void readRacingAnEvictionIsNotCached() {
+        long generation = cache.generation();
+        AccountCache.Entry staleRead = entry(1, 1_000, 10);
+        cache.invalidateAll();
+
+        cache.load(staleRead, generation);
+
+        assertNull(cache.get(1));
+    }
+
+    @Test
+    void readOfAnUnchangedAccountIsCached() {
+        long generation = cache.generation();
+        AccountCache.Entry read = entry(1, 1_000, 10);
+        cache.applyBalance(2, 500, 11);
+
+        cache.load(read, generation);
+
+        assertEquals(1_000, cache.get(1).toAccountModel().getBalance());
+    }
+
+    @Test
+    void olderReadDoesNotReplaceANewerEntry() {
+        cache.load(entry(1, 2_000, 12), cache.generation());
+
+        cache.load(entry(1, 1_000, 10), cache.generation());
+
+        assertEquals(2_000, cache.get(1).toAccountModel().getBalance());
+    }
+
+    private static AccountCache.Entry entry(long id, long balance, long version) {
+        return new AccountCache.Entry(id, "user" + id, "User " + id, balance, new byte[0], new byte[0], null, version);
+    }
+}
@@ -0,0 +1,290 @@
+package database;
+
+import model.AccountModel;
+import model.TransactionModel;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of the ledger write path of {@link DatabaseManager}: rejected debits, the daily withdrawal limit, atomic
+ * transfers and retried requests
+ *
+ * @author <a href="https://github.com/itsyourap">Ankan Pal</a>
+ */
+class DatabaseManagerTest {
+    @TempDir
+    Path directory;
+
+    private String url;
+    private DatabaseManager db;
+    private AccountModel alice;
+    private AccountModel bob;
+
+    @BeforeEach
+    void openDatabase() {
+        url = "jdbc:sqlite:" + directory.resolve("atm_test.db");
+        db = DatabaseManager.open(url);
+        alice = db.createAccount("alice", "Alice", 1111);
+        bob = db.createAccount("bob", "Bob", 2222);
+        assertNotNull(alice);
+        assertNotNull(bob);
+    }
+
+    @AfterEach
+    void closeDatabase() {
+        db.close();
+    }
+
+    @Test
+    void debitNotCoveredByTheBalanceIsRejected() throws SQLException {
+        db.applyTransaction(transaction(alice, TransactionModel.TransactionType.DEPOSIT, 10_000));
+
+        assertThrows(InsufficientBalanceException.class,
+                () -> db.applyTransaction(transaction(alice, TransactionModel.TransactionType.WITHDRAW, 10_001)));
+
+        assertEquals(10_000, balanceOf(alice));
+        assertEquals(1, ledgerRows(alice));
+    }
+
+    @Test
+    void debitOfMissingAccountIsRejected() {
+        TransactionModel withdrawal = new TransactionModel();
+        withdrawal.setAccountId(999);
+        withdrawal.setTransactionType(TransactionModel.TransactionType.WITHDRAW);
+        withdrawal.setAmount(100);
+
+        assertThrows(AccountNotFoundException.class, () -> db.applyTransaction(withdrawal));
+    }
+
+    @Test
+    void withdrawalOverTheDailyLimitIsRejected() throws SQLException {
+        db.setDailyWithdrawalLimit(5_000);
+        db.applyTransaction(transaction(alice, TransactionModel.TransactionType.DEPOSIT, 20_000));
+        db.applyTransaction(transaction(alice, TransactionModel.TransactionType.WITHDRAW, 3_000));
+
+        assertThrows(DailyLimitExceededException.class,
+                () -> db.applyTransaction(transaction(alice, TransactionModel.TransactionType.WITHDRAW, 2_001)));
+
+        assertEquals(17_000, balanceOf(alice));
+        assertEquals(2_000, db.getRemainingDailyWithdrawal(alice.getId()));
+        db.applyTransaction(transaction(alice, TransactionModel.TransactionType.WITHDRAW, 2_000));
+        assertEquals(15_000, balanceOf(alice));
+        assertEquals(0, db.getRemainingDailyWithdrawal(alice.getId()));
+    }
+
+    @Test
+    void transfersAreNotLimitedByTheDailyWithdrawalLimit() throws SQLException {
+        db.setDailyWithdrawalLimit(5_000);
+        db.applyTransaction(transaction(alice, TransactionModel.TransactionType.DEPOSIT, 20_000));
+
+        assertTrue(db.transfer(transfer(alice, bob, 10_000)));
+        assertEquals(10_000, balanceOf(alice));
+        assertEquals(10_000, balanceOf(bob));
+    }
+
+    @Test
+    void transferToMissingRecipientRollsBackTheWithdrawLeg() throws SQLException {
+        db.applyTransaction(transaction(alice, TransactionModel.TransactionType.DEPOSIT, 10_000));
+        TransactionModel transfer = new TransactionModel();
+        transfer.setAccountId(alice.getId());
+        transfer.setOtherPartyAccountId(999);
+        transfer.setTransactionType(TransactionModel.TransactionType.TRANSFER_WITHDRAW);
+        transfer.setAmount(4_000);
+
+        assertFalse(db.transfer(transfer));
+
+        assertEquals(10_000, balanceOf(alice));
+        assertEquals(1, ledgerRows(alice));
+    }
+
+    @Test
+    void transferWritesBothLegs() throws SQLException {
+        db.applyTransaction(transaction(alice, TransactionModel.TransactionType.DEPOSIT, 10_000));
+
+        assertTrue(db.transfer(transfer(alice, bob, 4_000)));
+
+        assertEquals(6_000, balanceOf(alice));
+        assertEquals(4_000, balanceOf(bob));
+        assertEquals(1, ledgerRows(bob));
+    }
+
+    @Test
+    void replayedRequestIsWrittenOnce() throws SQLException {
+        db.applyTransaction(transaction(alice, TransactionModel.TransactionType.DEPOSIT, 10_000));
+        TransactionModel first = transaction(alice, TransactionModel.TransactionType.WITHDRAW, 1_000);
+        first.setRequestId("request-1");
+        TransactionModel retry = transaction(alice, TransactionModel.TransactionType.WITHDRAW, 1_000);
+        retry.setRequestId("request-1");
+
+        db.applyTransaction(first);
+        db.applyTransaction(retry);
+
+        assertEquals(first.getId(), retry.getId());
+        assertEquals(first.getCreatedAt(), retry.getCreatedAt());
+        assertEquals(9_000, balanceOf(alice));
+        assertEquals(2, ledgerRows(alice));
+        assertEquals(1, db.getRequestCacheHits());
+    }
+
+    @Test
+    void replayedRequestIsFoundInTheDatabaseAfterRestart() throws SQLException {
+        db.applyTransaction(transaction(alice, TransactionModel.TransactionType.DEPOSIT, 10_000));
+        TransactionModel first = transfer(alice, bob, 1_000);
+        first.setRequestId("request-2");
+        assertTrue(db.transfer(first));
+
+        db.close();
+        db = DatabaseManager.open(url);
+        TransactionModel retry = transfer(alice, bob, 1_000);
+        retry.setRequestId("request-2");
+        assertTrue(db.transfer(retry));
+
+        assertEquals(first.getId(), retry.getId());
+        assertEquals(0, db.getRequestCacheHits());
+        assertEquals(9_000, balanceOf(alice));
+        assertEquals(1_000, balanceOf(bob));
+    }
+
+    @Test
+    void requestIdOfAnotherTransactionIsRejected() throws SQLException {
+        db.applyTransaction(transaction(alice, TransactionModel.TransactionType.DEPOSIT, 10_000));
+        db.applyTransaction(transaction(bob, TransactionModel.TransactionType.DEPOSIT, 10_000));
+        TransactionModel first = transaction(alice, TransactionModel.TransactionType.WITHDRAW, 1_000);
+        first.setRequestId("request-3");
+        db.applyTransaction(first);
+
+        TransactionModel other = transaction(bob, TransactionModel.TransactionType.WITHDRAW, 5_000);
+        other.setRequestId("request-3");
+        assertThrows(RequestIdReusedException.class, () -> db.applyTransaction(other));
+        assertFalse(db.addTransaction(other));
+        assertEquals(0, other.getId());
+
+        // Also when the request is only found in the database
+        db.close();
+        db = DatabaseManager.open(url);
+        assertThrows(RequestIdReusedException.class, () -> db.applyTransaction(other));
+        TransactionModel larger = transaction(alice, TransactionModel.TransactionType.WITHDRAW, 2_000);
+        larger.setRequestId("request-3");
+        assertThrows(RequestIdReusedException.class, () -> db.applyTransaction(larger));
+
+        assertEquals(9_000, balanceOf(alice));
+        assertEquals(10_000, balanceOf(bob));
+        assertEquals(1, ledgerRows(bob));
+    }
+
+    @Test
+    void bulkTransfersSkipOnlyTheTransfersThatFail() throws SQLException {
+        db.applyTransaction(transaction(alice, TransactionModel.TransactionType.DEPOSIT, 5_000));
+        TransactionModel uncovered = transfer(alice, bob, 100_000);
+
+        int applied = db.transferAll(List.of(transfer(alice, bob, 1_000), uncovered, transfer(alice, bob, 2_000)));
+
+        assertEquals(2, applied);
+        assertEquals(0, uncovered.getId());
+        assertEquals(2_000, balanceOf(alice));
+        assertEquals(3_000, balanceOf(bob));
+        assertEquals(2, ledgerRows(bob));
+    }
+
+    @Test
+    void bulkTransferToMissingRecipientKeepsNoLegOfIt() throws SQLException {
+        db.applyTransaction(transaction(alice, TransactionModel.TransactionType.DEPOSIT, 5_000));
+        TransactionModel misdirected = transfer(alice, bob, 1_000);
+        misdirected.setOtherPartyAccountId(999);
+
+        int applied = db.transferAll(List.of(misdirected, transfer(alice, bob, 1_000)));
+
+        assertEquals(1, applied);
+        assertEquals(0, misdirected.getId());
+        assertEquals(4_000, balanceOf(alice));
+        assertEquals(2, ledgerRows(alice));
+    }
+
+    @Test
+    void commitOfAnotherProcessEvictsTheCachedBalance() throws SQLException, InterruptedException {
+        assertEquals(0, balanceOf(alice));
+
+        // Another instance on the same file stands for another process, its commits are not seen by the update hook
+        DatabaseManager other = DatabaseManager.open(url);
+        try {
+            other.applyTransaction(transaction(alice, TransactionModel.TransactionType.DEPOSIT, 700));
+        } finally {
+            other.close();
+        }
+
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (balanceOf(alice) != 700 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(700, balanceOf(alice));
+    }
+
+    @Test
+    void loginChecksThePin() {
+        assertNotNull(db.getAccount("alice", 1111));
+        assertNull(db.getAccount("alice", 1112));
+        assertNull(db.getAccount("nobody", 1111));
+    }
+
+    @Test
+    void historyIsReadFromTheDatabaseOfTheAccount() throws SQLException {
+        db.applyTransaction(transaction(alice, TransactionModel.TransactionType.DEPOSIT, 10_000));
+        db.applyTransaction(transfer(alice, bob, 2_500));
+
+        List<Long> amounts = new ArrayList<>();
+        for (TransactionModel transaction : db.getAccount("alice", 1111).getTransactions())
+            amounts.add(transaction.getAmount());
+
+        assertEquals(List.of(2_500L, 10_000L), amounts);
+        assertEquals(1, db.getAccount(bob.getId()).getTransactions().getPage(Long.MAX_VALUE).size());
+    }
+
+    private long balanceOf(AccountModel account) {
+        return db.getAccount(account.getId()).getBalance();
+    }
+
+    private long ledgerRows(AccountModel account) throws SQLException {
+        try (
+                Connection conn = DriverManager.getConnection(url);
+                PreparedStatement stmt = conn.prepareStatement("SELECT COUNT(*) FROM transactions WHERE account_id = ?")
+        ) {
+            stmt.setLong(1, account.getId());
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                return rs.getLong(1);
+            }
+        }
+    }
+
+    private static TransactionModel transaction(AccountModel account, TransactionModel.TransactionType type,
+                                                long amount) {
+        TransactionModel transaction = new TransactionModel();
+        transaction.setAccountId(account.getId());
+        transaction.setTransactionType(type);
+        transaction.setAmount(amount);
+        return transaction;
+    }
+
+    private static TransactionModel transfer(AccountModel sender, AccountModel recipient, long amount) {
+        TransactionModel transfer = transaction(sender, TransactionModel.TransactionType.TRANSFER_WITHDRAW, amount);
+        transfer.setOtherPartyAccountId(recipient.getId());
+        return transfer;
+    }
+}
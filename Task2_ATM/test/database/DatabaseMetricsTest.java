@@ -0,0 +1,76 @@
+package database;
+
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of the windows of {@link DatabaseMetrics}
+ *
+ * @author <a href="https://github.com/itsyourap">Ankan Pal</a>
+ */
+class DatabaseMetricsTest {
+    // SQLite result code of a busy database
+    private static final int SQLITE_BUSY = 5;
+
+    private final DatabaseMetrics metrics = new DatabaseMetrics();
+
+    @Test
+    void callsAndErrorsAreCountedPerOperation() {
+        metrics.recordSuccess(DatabaseMetrics.Operation.DEPOSIT, metrics.start());
+        metrics.recordSuccess(DatabaseMetrics.Operation.DEPOSIT, metrics.start());
+        metrics.recordFailure(DatabaseMetrics.Operation.WITHDRAW, metrics.start(), busy());
+        metrics.recordFailure(
+                DatabaseMetrics.Operation.WITHDRAW, metrics.start(), new InsufficientBalanceException("Balance too low")
+        );
+
+        assertEquals(2, metrics.getCount(DatabaseMetrics.Operation.DEPOSIT));
+        assertEquals(2, metrics.getCount(DatabaseMetrics.Operation.WITHDRAW));
+        assertEquals(Map.of(), metrics.getErrors(DatabaseMetrics.Operation.DEPOSIT));
+        assertEquals(
+                Map.of("SQLException (SQLite code 5)", 1L, "InsufficientBalanceException", 1L),
+                metrics.getErrors(DatabaseMetrics.Operation.WITHDRAW)
+        );
+    }
+
+    @Test
+    void resetStartsANewWindow() {
+        // A call that took about a second, which the new window must not report
+        metrics.recordSuccess(DatabaseMetrics.Operation.LOGIN, metrics.start() - 1_000_000_000L);
+        metrics.recordFailure(DatabaseMetrics.Operation.LOGIN, metrics.start(), busy());
+        assertTrue(metrics.getLatencyNanos(DatabaseMetrics.Operation.LOGIN, 0.99) >= 1_000_000_000L);
+
+        metrics.reset();
+
+        assertEquals(0, metrics.getCount(DatabaseMetrics.Operation.LOGIN));
+        assertEquals(0, metrics.getLatencyNanos(DatabaseMetrics.Operation.LOGIN, 0.99));
+        assertEquals(Map.of(), metrics.getErrors(DatabaseMetrics.Operation.LOGIN));
+        assertFalse(metrics.report().contains("LOGIN"));
+
+        metrics.recordSuccess(DatabaseMetrics.Operation.LOGIN, metrics.start());
+        assertEquals(1, metrics.getCount(DatabaseMetrics.Operation.LOGIN));
+        assertTrue(metrics.getLatencyNanos(DatabaseMetrics.Operation.LOGIN, 0.99) < 1_000_000_000L);
+        assertTrue(metrics.report().contains("LOGIN"));
+    }
+
+    @Test
+    void replicationLagIsKeptAcrossWindows() {
+        assertFalse(metrics.report().contains("REPLICATION_LAG"));
+        metrics.recordReplicationLag(3, 40);
+
+        metrics.reset();
+
+        assertEquals(3, metrics.getReplicationLagTransactions());
+        assertEquals(40, metrics.getReplicationLagMillis());
+        assertTrue(metrics.report().contains("3 transactions behind, oldest 40 ms"));
+    }
+
+    private static SQLException busy() {
+        return new SQLException("database is locked", null, SQLITE_BUSY);
+    }
+}
@@ -0,0 +1,80 @@
+package database;
+
+import model.AccountModel;
+import model.TransactionModel;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of the ledger file and the logins of {@link EventSourcedLedger}
+ *
+ * @author <a href="https://github.com/itsyourap">Ankan Pal</a>
+ */
+class EventSourcedLedgerTest {
+    @TempDir
+    Path directory;
+
+    private EventSourcedLedger ledger;
+
+    @BeforeEach
+    void openLedger() throws IOException {
+        ledger = EventSourcedLedger.open(directory);
+    }
+
+    @AfterEach
+    void closeLedger() {
+        ledger.close();
+    }
+
+    @Test
+    void newLedgerFileIsSmall() throws IOException {
+        assertTrue(Files.size(directory.resolve("ledger.dat")) <= 1 << 20);
+    }
+
+    @Test
+    void ledgerGrowsPastItsFirstMappingAndIsReplayed() throws IOException {
+        AccountModel account = ledger.createAccount("alice", "Alice", 1111);
+        int deposits = 10_000;
+        for (int i = 0; i < deposits; i++)
+            assertTrue(ledger.addTransaction(deposit(account, 1)));
+
+        ledger.close();
+        ledger = EventSourcedLedger.open(directory);
+        assertEquals(deposits, ledger.getRecordCount());
+        assertEquals(deposits, ledger.getAccount(account.getId()).getBalance());
+        assertTrue(Files.size(directory.resolve("ledger.dat")) < 4L * deposits * 40);
+    }
+
+    @Test
+    void loginChecksThePin() throws IOException {
+        ledger.createAccount("alice", "Alice", 1111);
+
+        assertNotNull(ledger.getAccount("alice", 1111));
+        assertNotNull(ledger.getAccount("alice", 1111));
+        assertNull(ledger.getAccount("alice", 1112));
+        assertNull(ledger.getAccount("nobody", 1111));
+
+        ledger.close();
+        ledger = EventSourcedLedger.open(directory);
+        assertNotNull(ledger.getAccount("alice", 1111));
+    }
+
+    private static TransactionModel deposit(AccountModel account, long amount) {
+        TransactionModel deposit = new TransactionModel();
+        deposit.setAccountId(account.getId());
+        deposit.setTransactionType(TransactionModel.TransactionType.DEPOSIT);
+        deposit.setAmount(amount);
+        return deposit;
+    }
+}
@@ -0,0 +1,140 @@
+package database;
+
+import model.TransactionModel;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests of the batch failures of {@link GroupCommitWriter}: an entry that fails on its own and a batch whose commit
+ * fails
+ *
+ * @author <a href="https://github.com/itsyourap">Ankan Pal</a>
+ */
+class GroupCommitWriterTest {
+    // Amount of an entry the ledger writer refuses
+    private static final long REFUSED_AMOUNT = -1;
+
+    // Amount of an entry that references a missing parent, which fails the commit of its batch
+    private static final long ORPHAN_AMOUNT = -2;
+
+    // Long enough that every batch is cut by its size, not by the delay
+    private static final long MAX_DELAY_MILLIS = 60_000;
+
+    @TempDir
+    Path directory;
+
+    private ConnectionPool pool;
+    private GroupCommitWriter writer;
+
+    @BeforeEach
+    void openPool() throws SQLException {
+        pool = new ConnectionPool(
+                "jdbc:sqlite:" + directory.resolve("group_commit.db"), 1, new AccountCache(16),
+                new CommittedRequestCache(16), false
+        );
+        try (PooledConnection pc = pool.acquire(); Statement statement = pc.getConnection().createStatement()) {
+            statement.execute("PRAGMA foreign_keys = ON");
+            statement.execute("CREATE TABLE parents (id INTEGER PRIMARY KEY)");
+            statement.execute("CREATE TABLE entries (id INTEGER PRIMARY KEY, amount INTEGER NOT NULL, " +
+                    "parent_id INTEGER REFERENCES parents (id) DEFERRABLE INITIALLY DEFERRED)");
+        }
+    }
+
+    @AfterEach
+    void closePool() {
+        if (writer != null)
+            writer.stop();
+        pool.close();
+    }
+
+    @Test
+    void failingEntryDoesNotFailTheRestOfItsBatch() throws Exception {
+        writer = new GroupCommitWriter(pool, GroupCommitWriterTest::writeEntry, 3, MAX_DELAY_MILLIS);
+        TransactionModel first = entry(100);
+        TransactionModel refused = entry(REFUSED_AMOUNT);
+        TransactionModel last = entry(300);
+
+        CompletableFuture<Long> firstFuture = writer.enqueue(first);
+        CompletableFuture<Long> refusedFuture = writer.enqueue(refused);
+        CompletableFuture<Long> lastFuture = writer.enqueue(last);
+
+        long firstId = firstFuture.get(10, TimeUnit.SECONDS);
+        long lastId = lastFuture.get(10, TimeUnit.SECONDS);
+        assertNotEquals(0, firstId);
+        assertEquals(firstId, first.getId());
+        assertEquals(lastId, last.getId());
+        ExecutionException e = assertThrows(ExecutionException.class, () -> refusedFuture.get(10, TimeUnit.SECONDS));
+        assertInstanceOf(SQLException.class, e.getCause());
+        assertEquals(0, refused.getId());
+        assertEquals(0, refused.getCreatedAt());
+        assertEquals(400, committedAmount());
+    }
+
+    @Test
+    void failedCommitClearsTheIdsOfTheWholeBatch() throws Exception {
+        writer = new GroupCommitWriter(pool, GroupCommitWriterTest::writeEntry, 2, MAX_DELAY_MILLIS);
+        TransactionModel written = entry(100);
+        TransactionModel orphan = entry(ORPHAN_AMOUNT);
+
+        CompletableFuture<Long> writtenFuture = writer.enqueue(written);
+        CompletableFuture<Long> orphanFuture = writer.enqueue(orphan);
+
+        for (CompletableFuture<Long> future : List.of(writtenFuture, orphanFuture))
+            assertThrows(ExecutionException.class, () -> future.get(10, TimeUnit.SECONDS));
+        for (TransactionModel transaction : List.of(written, orphan)) {
+            assertEquals(0, transaction.getId());
+            assertEquals(0, transaction.getCreatedAt());
+        }
+        assertEquals(0, committedAmount());
+    }
+
+    /**
+     * Writes an entry like the ledger writer of {@link DatabaseManager}: the id and time are set before the commit
+     */
+    private static void writeEntry(PooledConnection pc, TransactionModel transaction) throws SQLException {
+        if (transaction.getAmount() == REFUSED_AMOUNT)
+            throw new SQLException("Entry refused");
+
+        PreparedStatement stmt = pc.prepare("INSERT INTO entries (amount, parent_id) VALUES (?, ?)");
+        stmt.setLong(1, transaction.getAmount());
+        stmt.setObject(2, transaction.getAmount() == ORPHAN_AMOUNT ? 999L : null);
+        stmt.executeUpdate();
+        try (ResultSet rs = pc.prepare("SELECT last_insert_rowid()").executeQuery()) {
+            rs.next();
+            transaction.setId(rs.getLong(1));
+        }
+        transaction.setCreatedAt(System.currentTimeMillis());
+    }
+
+    private long committedAmount() throws SQLException {
+        try (PooledConnection pc = pool.acquire();
+             ResultSet rs = pc.prepare("SELECT COALESCE(SUM(amount), 0) FROM entries").executeQuery()) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    private static TransactionModel entry(long amount) {
+        TransactionModel transaction = new TransactionModel();
+        transaction.setTransactionType(TransactionModel.TransactionType.DEPOSIT);
+        transaction.setAmount(amount);
+        return transaction;
+    }
+}
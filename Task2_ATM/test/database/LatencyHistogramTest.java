@@ -0,0 +1,110 @@
+package database;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of the buckets and percentiles of {@link LatencyHistogram}
+ *
+ * @author <a href="https://github.com/itsyourap">Ankan Pal</a>
+ */
+class LatencyHistogramTest {
+    // Number of counters of a histogram
+    private static final int BUCKETS = 64 * 16;
+
+    @Test
+    void valuesBelowSixteenHaveABucketEach() {
+        for (int value = 0; value < 16; value++) {
+            assertEquals(value, LatencyHistogram.bucketIndex(value));
+            assertEquals(value, LatencyHistogram.bucketUpperBound(value));
+        }
+    }
+
+    @Test
+    void everyValueFallsInsideItsBucketWithinASixteenthOfIt() {
+        for (long value : sampleValues()) {
+            int index = LatencyHistogram.bucketIndex(value);
+            long upperBound = LatencyHistogram.bucketUpperBound(index);
+
+            assertTrue(index >= 0 && index < BUCKETS, "index " + index + " of " + value);
+            assertTrue(value <= upperBound, value + " above its bucket " + upperBound);
+            assertTrue(LatencyHistogram.bucketUpperBound(index - 1) < value, value + " below its bucket");
+            assertTrue(upperBound - value <= value / 16, "bucket of " + value + " too wide: " + upperBound);
+        }
+    }
+
+    @Test
+    void largestValueHasTheLastUsedBucket() {
+        int index = LatencyHistogram.bucketIndex(Long.MAX_VALUE);
+
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.bucketUpperBound(index));
+        assertTrue(index < BUCKETS);
+    }
+
+    @Test
+    void percentilesAreReportedWithinASixteenth() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 10_000; value++)
+            histogram.record(value);
+
+        assertEquals(10_000, histogram.getCount());
+        assertEquals(5_000, histogram.getMeanNanos());
+        assertBetween(5_000, 5_000 + 5_000 / 16, histogram.getValueAtPercentile(0.50));
+        assertBetween(9_900, 9_900 + 9_900 / 16, histogram.getValueAtPercentile(0.99));
+        assertEquals(10_000, histogram.getValueAtPercentile(1.0));
+        assertEquals(10_000, histogram.getMaxNanos());
+    }
+
+    @Test
+    void negativeLatencyIsRecordedAsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+
+        assertEquals(1, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(0.99));
+    }
+
+    @Test
+    void resetForgetsEveryLatency() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1_000);
+        histogram.record(2_000_000);
+
+        histogram.reset();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMeanNanos());
+        assertEquals(0, histogram.getMaxNanos());
+        assertEquals(0, histogram.getValueAtPercentile(0.99));
+    }
+
+    /**
+     * Returns the powers of two and their neighbours over the whole range of {@code long}, plus random values
+     */
+    private static List<Long> sampleValues() {
+        List<Long> values = new ArrayList<>();
+        for (int bit = 4; bit < 63; bit++) {
+            long power = 1L << bit;
+            values.add(power - 1);
+            values.add(power);
+            values.add(power + 1);
+            values.add(power + power / 2);
+        }
+        values.add(Long.MAX_VALUE);
+
+        Random random = new Random(42);
+        for (int i = 0; i < 10_000; i++)
+            values.add(16 + (random.nextLong() >>> (1 + random.nextInt(60))) % (Long.MAX_VALUE - 16));
+        return values;
+    }
+
+    private static void assertBetween(long min, long max, long actual) {
+        assertTrue(actual >= min && actual <= max, actual + " not between " + min + " and " + max);
+    }
+}
@@ -0,0 +1,271 @@
+package database;
+
+import model.AccountModel;
+import model.TransactionModel;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of the CSV and JSON lines output, the id and time ranges and the streaming of {@link LedgerExporter}
+ *
+ * @author <a href="https://github.com/itsyourap">Ankan Pal</a>
+ */
+class LedgerExporterTest {
+    // User ID that needs quoting in CSV and escaping in JSON
+    private static final String AWKWARD_USER_ID = "b,\"o\\b\n\t";
+
+    // User ID made of one, two and three byte characters in UTF-8
+    private static final String MULTI_BYTE_USER_ID = "c\u00e4r\u00f6l-\u20ac";
+
+    private static final String CSV_HEADER =
+            "id,account_id,created_at,transaction_type,amount,other_party_account_id,other_party_user_id\n";
+
+    @TempDir
+    Path directory;
+
+    private String url;
+    private DatabaseManager db;
+    private AccountModel alice;
+    private AccountModel bob;
+
+    @BeforeEach
+    void openDatabase() {
+        url = "jdbc:sqlite:" + directory.resolve("atm_test.db");
+        db = DatabaseManager.open(url);
+        alice = db.createAccount("alice", "Alice", 1111);
+        bob = db.createAccount(AWKWARD_USER_ID, "Bob", 2222);
+        assertNotNull(alice);
+        assertNotNull(bob);
+    }
+
+    @AfterEach
+    void closeDatabase() {
+        db.close();
+    }
+
+    @Test
+    void csvQuotesTheUserIdOfTheOtherParty() throws SQLException, IOException {
+        TransactionModel deposit = write(transaction(alice, TransactionModel.TransactionType.DEPOSIT, 10_000));
+        TransactionModel transfer = write(transfer(alice, bob, 250));
+
+        String csv = exportAccount(alice, LedgerExporter.Format.CSV, 0, Long.MAX_VALUE);
+
+        assertEquals(CSV_HEADER
+                + deposit.getId() + "," + alice.getId() + "," + timestamp(deposit) + ",DEPOSIT,100.00,,\n"
+                + transfer.getId() + "," + alice.getId() + "," + timestamp(transfer) + ",TRANSFER_WITHDRAW,2.50,"
+                + bob.getId() + ",\"b,\"\"o\\b\n\t\"\n", csv);
+    }
+
+    @Test
+    void jsonEscapesTheUserIdOfTheOtherParty() throws SQLException, IOException {
+        TransactionModel deposit = write(transaction(alice, TransactionModel.TransactionType.DEPOSIT, 10_000));
+        TransactionModel transfer = write(transfer(alice, bob, 250));
+
+        String json = exportAccount(alice, LedgerExporter.Format.JSON_LINES, 0, Long.MAX_VALUE);
+
+        assertEquals("{\"id\":" + deposit.getId() + ",\"account_id\":" + alice.getId()
+                + ",\"created_at\":\"" + timestamp(deposit) + "\",\"transaction_type\":\"DEPOSIT\",\"amount\":100.00}\n"
+                + "{\"id\":" + transfer.getId() + ",\"account_id\":" + alice.getId()
+                + ",\"created_at\":\"" + timestamp(transfer) + "\",\"transaction_type\":\"TRANSFER_WITHDRAW\""
+                + ",\"amount\":2.50,\"other_party_account_id\":" + bob.getId()
+                + ",\"other_party_user_id\":\"b,\\\"o\\\\b\\u000a\\u0009\"}\n", json);
+    }
+
+    @Test
+    void exportIsLimitedToTheIdRange() throws SQLException, IOException {
+        List<TransactionModel> deposits = new ArrayList<>();
+        for (int i = 1; i <= 4; i++)
+            deposits.add(write(transaction(i % 2 == 0 ? alice : bob, TransactionModel.TransactionType.DEPOSIT, i)));
+        long fromId = deposits.get(1).getId();
+        long toId = deposits.get(3).getId();
+
+        assertEquals(List.of(deposits.get(1).getId()), exportedIds(exportAccount(alice, fromId, toId)));
+        // Ordered by account, alice before bob
+        assertEquals(
+                List.of(deposits.get(1).getId(), deposits.get(2).getId()), exportedIds(exportLedger(fromId, toId))
+        );
+    }
+
+    @Test
+    void exportIsLimitedToTheTimeRange() throws SQLException, IOException {
+        List<TransactionModel> deposits = new ArrayList<>();
+        for (int i = 1; i <= 4; i++) {
+            AccountModel account = i % 2 == 0 ? alice : bob;
+            TransactionModel deposit = write(transaction(account, TransactionModel.TransactionType.DEPOSIT, i));
+            setCreatedAt(deposit, i * 1_000L);
+            deposits.add(deposit);
+        }
+
+        LedgerExporter exporter = db.getLedgerExporter();
+        CollectingChannel account = new CollectingChannel(Integer.MAX_VALUE);
+        assertEquals(1, exporter.exportAccountBetween(alice.getId(), LedgerExporter.Format.CSV, 2_000, 4_000, account));
+        CollectingChannel ledger = new CollectingChannel(Integer.MAX_VALUE);
+        assertEquals(2, exporter.exportLedgerBetween(LedgerExporter.Format.CSV, 2_000, 4_000, ledger));
+
+        assertEquals(List.of(deposits.get(1).getId()), exportedIds(account.getText()));
+        assertEquals(List.of(deposits.get(1).getId(), deposits.get(2).getId()), exportedIds(ledger.getText()));
+        assertTrue(account.getText().contains("," + Instant.ofEpochMilli(2_000) + ","));
+    }
+
+    @Test
+    void rowsLargerThanTheBufferAreStreamedWhole() throws SQLException, IOException {
+        AccountModel carol = db.createAccount(MULTI_BYTE_USER_ID, "Carol", 3333);
+        TransactionModel deposit = write(transaction(alice, TransactionModel.TransactionType.DEPOSIT, 1_000_000));
+
+        // Several buffers of rows, with multi-byte characters crossing the buffer boundaries
+        int transfers = 5_000;
+        StringBuilder expected = new StringBuilder(CSV_HEADER);
+        try (DatabaseManager.PendingWrite write = db.beginWrite()) {
+            for (int i = 0; i < transfers; i++) {
+                TransactionModel transfer = transfer(alice, carol, 1);
+                write.write(transfer);
+                expected.append(transfer.getId()).append(',').append(alice.getId())
+                        .append(",,TRANSFER_WITHDRAW,0.01,").append(carol.getId()).append(',')
+                        .append(MULTI_BYTE_USER_ID).append('\n');
+            }
+            write.commit();
+        }
+        clearCreatedAt();
+
+        // A channel that takes less than a buffer per call, as sockets do
+        CollectingChannel channel = new CollectingChannel(1_000);
+        long rows = db.getLedgerExporter().exportAccount(
+                alice.getId(), LedgerExporter.Format.CSV, deposit.getId() + 1, Long.MAX_VALUE, channel
+        );
+
+        assertEquals(transfers, rows);
+        assertTrue(channel.getSize() > 3 * 64 * 1024);
+        assertEquals(expected.toString(), channel.getText());
+    }
+
+    private TransactionModel write(TransactionModel transaction) throws SQLException {
+        db.applyTransaction(transaction);
+        return transaction;
+    }
+
+    private String exportAccount(AccountModel account, LedgerExporter.Format format, long fromId, long toId)
+            throws SQLException, IOException {
+        CollectingChannel channel = new CollectingChannel(Integer.MAX_VALUE);
+        db.getLedgerExporter().exportAccount(account.getId(), format, fromId, toId, channel);
+        return channel.getText();
+    }
+
+    private String exportAccount(AccountModel account, long fromId, long toId) throws SQLException, IOException {
+        return exportAccount(account, LedgerExporter.Format.CSV, fromId, toId);
+    }
+
+    private String exportLedger(long fromId, long toId) throws SQLException, IOException {
+        CollectingChannel channel = new CollectingChannel(Integer.MAX_VALUE);
+        db.getLedgerExporter().exportLedger(LedgerExporter.Format.CSV, fromId, toId, channel);
+        return channel.getText();
+    }
+
+    private void setCreatedAt(TransactionModel transaction, long createdAt) throws SQLException {
+        try (
+                Connection conn = DriverManager.getConnection(url);
+                PreparedStatement stmt = conn.prepareStatement("UPDATE transactions SET created_at = ? WHERE id = ?")
+        ) {
+            stmt.setLong(1, createdAt);
+            stmt.setLong(2, transaction.getId());
+            stmt.executeUpdate();
+        }
+    }
+
+    private void clearCreatedAt() throws SQLException {
+        try (
+                Connection conn = DriverManager.getConnection(url);
+                PreparedStatement stmt = conn.prepareStatement("UPDATE transactions SET created_at = 0")
+        ) {
+            stmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Returns the ids of the rows of a CSV export, in the order they were exported
+     */
+    private static List<Long> exportedIds(String csv) {
+        List<Long> ids = new ArrayList<>();
+        String[] lines = csv.split("\n");
+        assertEquals(CSV_HEADER, lines[0] + "\n");
+        for (int i = 1; i < lines.length; i++)
+            ids.add(Long.parseLong(lines[i].substring(0, lines[i].indexOf(','))));
+        return ids;
+    }
+
+    private static String timestamp(TransactionModel transaction) {
+        return Instant.ofEpochMilli(transaction.getCreatedAt()).toString();
+    }
+
+    private static TransactionModel transaction(AccountModel account, TransactionModel.TransactionType type,
+                                                long amount) {
+        TransactionModel transaction = new TransactionModel();
+        transaction.setAccountId(account.getId());
+        transaction.setTransactionType(type);
+        transaction.setAmount(amount);
+        return transaction;
+    }
+
+    private static TransactionModel transfer(AccountModel sender, AccountModel recipient, long amount) {
+        TransactionModel transfer = transaction(sender, TransactionModel.TransactionType.TRANSFER_WITHDRAW, amount);
+        transfer.setOtherPartyAccountId(recipient.getId());
+        return transfer;
+    }
+
+    /**
+     * Collects everything written to it, taking at most {@code maxWrite} bytes per call
+     */
+    private static class CollectingChannel implements WritableByteChannel {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final int maxWrite;
+
+        private CollectingChannel(int maxWrite) {
+            this.maxWrite = maxWrite;
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            int length = Math.min(maxWrite, src.remaining());
+            byte[] chunk = new byte[length];
+            src.get(chunk);
+            bytes.write(chunk, 0, length);
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        private int getSize() {
+            return bytes.size();
+        }
+
+        private String getText() {
+            return bytes.toString(StandardCharsets.UTF_8);
+        }
+    }
+}
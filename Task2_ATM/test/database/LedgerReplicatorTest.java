@@ -0,0 +1,88 @@
+package database;
+
+import model.AccountModel;
+import model.TransactionModel;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of the ledger shipping of {@link LedgerReplicator}
+ *
+ * @author <a href="https://github.com/itsyourap">Ankan Pal</a>
+ */
+class LedgerReplicatorTest {
+    // How long (in milliseconds) the replica gets to catch up
+    private static final long CATCH_UP_MILLIS = 30_000;
+
+    // The stored balance, the ledger balance and the number of ledger rows of an account on the replica
+    private static final String SELECT_REPLICA_ACCOUNT =
+            "SELECT a.balance, COALESCE(SUM(" + LedgerVerifier.SIGNED_AMOUNT + "), 0), COUNT(t.id) " +
+                    "FROM accounts a LEFT JOIN transactions t ON t.account_id = a.id WHERE a.id = ?";
+
+    @TempDir
+    Path directory;
+
+    private DatabaseManager db;
+    private Path replicaFile;
+
+    @BeforeEach
+    void openDatabase() {
+        db = DatabaseManager.open("jdbc:sqlite:" + directory.resolve("atm_test.db"));
+        replicaFile = directory.resolve("atm_replica.db");
+    }
+
+    @AfterEach
+    void closeDatabase() {
+        db.close();
+    }
+
+    @Test
+    void replicaBalancesAddUpToTheShippedLedgerBetweenBatches() throws SQLException, InterruptedException {
+        AccountModel account = db.createAccount("alice", "Alice", 1111);
+        db.enableReplication(replicaFile, 10);
+
+        // More rows than one batch ships, committed at once
+        int deposits = LedgerReplicator.MAX_BATCH_SIZE + 500;
+        try (DatabaseManager.PendingWrite write = db.beginWrite()) {
+            for (int i = 0; i < deposits; i++) {
+                TransactionModel deposit = new TransactionModel();
+                deposit.setAccountId(account.getId());
+                deposit.setTransactionType(TransactionModel.TransactionType.DEPOSIT);
+                deposit.setAmount(1);
+                write.write(deposit);
+            }
+            write.commit();
+        }
+
+        long deadline = System.currentTimeMillis() + CATCH_UP_MILLIS;
+        try (
+                Connection replica = DriverManager.getConnection("jdbc:sqlite:" + replicaFile);
+                PreparedStatement stmt = replica.prepareStatement(SELECT_REPLICA_ACCOUNT)
+        ) {
+            stmt.setLong(1, account.getId());
+            long shippedRows;
+            do {
+                try (ResultSet rs = stmt.executeQuery()) {
+                    assertTrue(rs.next());
+                    assertEquals(rs.getLong(2), rs.getLong(1));
+                    shippedRows = rs.getLong(3);
+                }
+                if (shippedRows < deposits)
+                    Thread.sleep(1);
+            } while (shippedRows < deposits && System.currentTimeMillis() < deadline);
+            assertEquals(deposits, shippedRows);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package database;
+
+import model.AccountModel;
+import model.TransactionModel;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests of the balance checkpoints and the ledger verification of {@link LedgerVerifier}
+ *
+ * @author <a href="https://github.com/itsyourap">Ankan Pal</a>
+ */
+class LedgerVerifierTest {
+    @TempDir
+    Path directory;
+
+    private String url;
+    private DatabaseManager db;
+    private LedgerVerifier verifier;
+    private final List<AccountModel> accounts = new ArrayList<>();
+
+    @BeforeEach
+    void openDatabase() {
+        url = "jdbc:sqlite:" + directory.resolve("atm_test.db");
+        db = DatabaseManager.open(url);
+        for (int i = 0; i < 5; i++)
+            accounts.add(db.createAccount("user" + i, "User " + i, 1111));
+        verifier = db.getLedgerVerifier();
+    }
+
+    @AfterEach
+    void closeDatabase() {
+        db.close();
+    }
+
+    @Test
+    void checkpointSkipsAccountsWithoutNewLedgerRows() throws SQLException {
+        deposit(accounts.get(0), 1_000);
+        deposit(accounts.get(3), 2_000);
+
+        // The sample accounts of the new database have ledger rows as well
+        long sampleAccounts = queryLong("SELECT COUNT(DISTINCT account_id) FROM transactions") - 2;
+        assertEquals(2 + sampleAccounts, verifier.checkpoint(1));
+        assertEquals(0, verifier.checkpoint(1));
+
+        deposit(accounts.get(3), 500);
+        assertEquals(1, verifier.checkpoint(1));
+        assertEquals(2_500, queryLong(
+                "SELECT balance FROM balance_checkpoints WHERE account_id = " + accounts.get(3).getId()
+        ));
+        assertEquals(0, queryLong(
+                "SELECT COUNT(*) FROM balance_checkpoints WHERE account_id = " + accounts.get(1).getId()
+        ));
+    }
+
+    @Test
+    void chunkedCheckpointMatchesSingleCheckpoint() throws SQLException {
+        for (AccountModel account : accounts)
+            deposit(account, 100 * account.getId());
+        verifier.checkpoint(2);
+
+        LedgerVerifier.VerificationResult result = verifier.verify(drift -> {
+        });
+        assertEquals(0, result.getDrifts());
+        assertEquals(0, result.getTransactions());
+    }
+
+    @Test
+    void driftIsStillReportedAfterCheckpoint() throws SQLException {
+        deposit(accounts.get(2), 1_000);
+        try (Connection conn = DriverManager.getConnection(url); Statement statement = conn.createStatement()) {
+            statement.executeUpdate("UPDATE accounts SET balance = 5 WHERE id = " + accounts.get(2).getId());
+        }
+        verifier.checkpoint();
+
+        List<LedgerVerifier.Drift> drifts = new ArrayList<>();
+        verifier.verify(drifts::add);
+        assertEquals(1, drifts.size());
+        assertEquals(accounts.get(2).getId(), drifts.get(0).getAccountId());
+        assertEquals(1_000, drifts.get(0).getLedgerBalance());
+        assertEquals(5, drifts.get(0).getStoredBalance());
+    }
+
+    private void deposit(AccountModel account, long amount) throws SQLException {
+        TransactionModel deposit = new TransactionModel();
+        deposit.setAccountId(account.getId());
+        deposit.setTransactionType(TransactionModel.TransactionType.DEPOSIT);
+        deposit.setAmount(amount);
+        db.applyTransaction(deposit);
+    }
+
+    private long queryLong(String sql) throws SQLException {
+        try (
+                Connection conn = DriverManager.getConnection(url);
+                Statement statement = conn.createStatement();
+                ResultSet rs = statement.executeQuery(sql)
+        ) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+}
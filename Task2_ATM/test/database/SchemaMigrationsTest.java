@@ -0,0 +1,221 @@
+package database;
+
+import model.AccountModel;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of every step of {@link SchemaMigrations}, applied to a database created by the ATM before schema versioning
+ * (amounts in major units, plain text PINs)
+ *
+ * @author <a href="https://github.com/itsyourap">Ankan Pal</a>
+ */
+class SchemaMigrationsTest {
+    // The schema and sample data of the ATM before schema versioning
+    private static final String[] LEGACY_DATABASE = {
+            """
+            CREATE TABLE accounts
+            (
+                id        INTEGER PRIMARY KEY AUTOINCREMENT,
+                user_id   TEXT    NOT NULL,
+                user_name TEXT    NOT NULL,
+                user_pin  INTEGER NOT NULL,
+                balance   INTEGER NOT NULL
+            )
+            """,
+            """
+            CREATE TABLE transaction_type
+            (
+                id               INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL,
+                transaction_type TEXT                              NOT NULL
+            )
+            """,
+            """
+            INSERT INTO transaction_type (transaction_type)
+            VALUES ('DEPOSIT'), ('WITHDRAW'), ('TRANSFER_DEPOSIT'), ('TRANSFER_WITHDRAW')
+            """,
+            """
+            CREATE TABLE transactions
+            (
+                id                     INTEGER PRIMARY KEY AUTOINCREMENT,
+                account_id             INTEGER NOT NULL,
+                transaction_type       INTEGER NOT NULL,
+                amount                 INTEGER NOT NULL,
+                other_party_account_id INTEGER
+            )
+            """,
+            """
+            INSERT INTO accounts (user_id, user_pin, user_name, balance)
+            VALUES ('test01', 1234, 'Test User 01', 800.5),
+                   ('test02', 5678, 'Test User 02', 1000)
+            """,
+            """
+            INSERT INTO transactions (account_id, transaction_type, amount, other_party_account_id)
+            VALUES (1, 1, 500.5, NULL),
+                   (1, 2, 100, NULL),
+                   (1, 4, 200, 2),
+                   (2, 3, 200, 1),
+                   (2, 1, 1400, NULL),
+                   (2, 4, 600, 1),
+                   (1, 3, 600, 2)
+            """
+    };
+
+    @TempDir
+    Path directory;
+
+    private String url;
+    private DatabaseManager db;
+
+    @BeforeEach
+    void migrateLegacyDatabase() throws SQLException {
+        url = "jdbc:sqlite:" + directory.resolve("atm_legacy.db");
+        try (Connection conn = DriverManager.getConnection(url); Statement statement = conn.createStatement()) {
+            for (String sql : LEGACY_DATABASE)
+                statement.execute(sql);
+        }
+        db = DatabaseManager.open(url);
+    }
+
+    @AfterEach
+    void closeDatabase() {
+        if (db != null)
+            db.close();
+    }
+
+    @Test
+    void legacyDatabaseReachesTheLatestVersion() throws SQLException {
+        assertEquals(SchemaMigrations.LATEST_VERSION, queryLong("PRAGMA user_version"));
+    }
+
+    @Test
+    void upToDateDatabaseIsLeftAlone() throws SQLException {
+        db.close();
+        db = null;
+        try (Connection conn = DriverManager.getConnection(url)) {
+            SchemaMigrations.migrate(conn);
+            assertEquals(SchemaMigrations.LATEST_VERSION, SchemaMigrations.getVersion(conn));
+        }
+        assertEquals(2, queryLong("SELECT COUNT(*) FROM accounts"));
+    }
+
+    @Test
+    void newDatabaseGetsTheSampleData() {
+        DatabaseManager created = DatabaseManager.open("jdbc:sqlite:" + directory.resolve("atm_new.db"));
+        try {
+            AccountModel account = created.getAccount("test01", 1234);
+            assertNotNull(account);
+            assertEquals(80_000, account.getBalance());
+        } finally {
+            created.close();
+        }
+    }
+
+    @Test
+    void version1ConvertsAmountsToMinorUnits() throws SQLException {
+        assertEquals(80_050, queryLong("SELECT balance FROM accounts WHERE user_id = 'test01'"));
+        assertEquals(50_050, queryLong("SELECT amount FROM transactions WHERE id = 1"));
+        assertEquals(60_000, queryLong("SELECT amount FROM transactions WHERE id = 7"));
+    }
+
+    @Test
+    void version2KeepsPlainTextPinsUntilTheNextLogin() throws SQLException {
+        assertEquals(0, queryLong("SELECT COUNT(*) FROM accounts WHERE pin_hash IS NOT NULL"));
+        assertEquals(1234, queryLong("SELECT legacy_pin FROM accounts WHERE user_id = 'test01'"));
+
+        assertNull(db.getAccount("test01", 5678));
+        assertEquals(1234, queryLong("SELECT legacy_pin FROM accounts WHERE user_id = 'test01'"));
+
+        assertNotNull(db.getAccount("test01", 1234));
+        assertEquals(1, queryLong("SELECT COUNT(*) FROM accounts WHERE user_id = 'test01' " +
+                "AND pin_hash IS NOT NULL AND legacy_pin IS NULL"));
+        assertEquals(5678, queryLong("SELECT legacy_pin FROM accounts WHERE user_id = 'test02'"));
+
+        // The next login is checked against the hash, also by a new instance without cached credentials
+        db.close();
+        db = DatabaseManager.open(url);
+        assertNotNull(db.getAccount("test01", 1234));
+        assertNull(db.getAccount("test01", 4321));
+    }
+
+    @Test
+    void version2MakesUserIdsUnique() {
+        assertNull(db.createAccount("test01", "Duplicate", 1111));
+    }
+
+    @Test
+    void version3IndexesTransactionsByAccount() throws SQLException {
+        assertTrue(hasSchemaObject("index", "idx_transactions_account_id_id"));
+    }
+
+    @Test
+    void version4CreatesBalanceCheckpoints() throws SQLException {
+        assertTrue(hasSchemaObject("table", "balance_checkpoints"));
+        db.getLedgerVerifier().checkpoint();
+        assertEquals(2, queryLong("SELECT COUNT(*) FROM balance_checkpoints"));
+    }
+
+    @Test
+    void version5TimestampsTransactionsAndFillsDailyTotals() throws SQLException {
+        assertEquals(0, queryLong("SELECT MAX(created_at) FROM transactions"));
+        assertTrue(hasSchemaObject("index", "idx_transactions_account_id_created_at"));
+        assertEquals(7, queryLong("SELECT SUM(transaction_count) FROM daily_totals"));
+        assertEquals(
+                queryLong("SELECT SUM(amount) FROM transactions"),
+                queryLong("SELECT SUM(amount) FROM daily_totals")
+        );
+    }
+
+    @Test
+    void version6CreatesTransferDecisions() throws SQLException {
+        assertTrue(hasSchemaObject("table", "transfer_decisions"));
+        assertEquals(0, queryLong("SELECT COUNT(*) FROM transfer_decisions"));
+    }
+
+    @Test
+    void version7MakesRequestIdsUnique() throws SQLException {
+        try (Connection conn = DriverManager.getConnection(url); Statement statement = conn.createStatement()) {
+            String insert = "INSERT INTO transactions (account_id, transaction_type, amount, request_id) " +
+                    "VALUES (1, 1, 100, 'request-1')";
+            statement.executeUpdate(insert);
+            assertThrows(SQLException.class, () -> statement.executeUpdate(insert));
+
+            // Transactions without a request id are not constrained
+            statement.executeUpdate("INSERT INTO transactions (account_id, transaction_type, amount) VALUES (1, 1, 1)");
+            statement.executeUpdate("INSERT INTO transactions (account_id, transaction_type, amount) VALUES (1, 1, 1)");
+        }
+        assertEquals(9, queryLong("SELECT COUNT(*) FROM transactions WHERE request_id IS NULL"));
+    }
+
+    private long queryLong(String sql) throws SQLException {
+        try (
+                Connection conn = DriverManager.getConnection(url);
+                Statement statement = conn.createStatement();
+                ResultSet rs = statement.executeQuery(sql)
+        ) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    private boolean hasSchemaObject(String type, String name) throws SQLException {
+        return queryLong(
+                "SELECT COUNT(*) FROM sqlite_master WHERE type = '" + type + "' AND name = '" + name + "'"
+        ) == 1;
+    }
+}
@@ -0,0 +1,204 @@
+package database;
+
+import model.AccountModel;
+import model.TransactionModel;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of transfers between shards of {@link ShardedDatabaseManager}, and of their recovery when the process dies
+ * between the two commits of a transfer
+ *
+ * @author <a href="https://github.com/itsyourap">Ankan Pal</a>
+ */
+class ShardedDatabaseManagerTest {
+    private static final int SHARD_COUNT = 2;
+
+    @TempDir
+    Path directory;
+
+    private ShardedDatabaseManager db;
+    private AccountModel sender;
+    private AccountModel recipient;
+
+    @BeforeEach
+    void openShards() throws IOException, SQLException {
+        db = ShardedDatabaseManager.open(directory, SHARD_COUNT);
+        sender = db.createAccount("sender", "Sender", 1111);
+        for (int i = 0; recipient == null || shardOf(recipient) == shardOf(sender); i++)
+            recipient = db.createAccount("recipient" + i, "Recipient " + i, 2222);
+
+        TransactionModel deposit = new TransactionModel();
+        deposit.setAccountId(sender.getId());
+        deposit.setTransactionType(TransactionModel.TransactionType.DEPOSIT);
+        deposit.setAmount(10_000);
+        assertTrue(db.addTransaction(deposit));
+    }
+
+    @AfterEach
+    void closeShards() {
+        db.close();
+    }
+
+    @Test
+    void transferAcrossShardsWritesBothLegs() {
+        assertNotEquals(shardOf(sender), shardOf(recipient));
+        assertTrue(db.addTransaction(transfer(3_000)));
+
+        assertEquals(7_000, db.getAccount(sender.getId()).getBalance());
+        assertEquals(3_000, db.getAccount(recipient.getId()).getBalance());
+
+        ArrayList<TransactionModel> history = db.getTransactionHistory(db.getAccount(recipient.getId()));
+        assertEquals(1, history.size());
+        assertEquals("sender", history.get(0).getOtherPartyUserId());
+    }
+
+    @Test
+    void transferToAccountOfAnotherShardWithoutBalanceIsAborted() {
+        assertFalse(db.addTransaction(transfer(10_001)));
+
+        assertEquals(10_000, db.getAccount(sender.getId()).getBalance());
+        assertEquals(0, db.getAccount(recipient.getId()).getBalance());
+    }
+
+    @Test
+    void decidedTransferIsCompletedOnRestart() throws IOException, SQLException {
+        db.close();
+        crashAfterDecision(false);
+
+        db = ShardedDatabaseManager.open(directory, SHARD_COUNT);
+        assertEquals(1, db.getRecoveredTransfers());
+        assertEquals(7_000, db.getAccount(sender.getId()).getBalance());
+        assertEquals(3_000, db.getAccount(recipient.getId()).getBalance());
+        assertEquals(0, pendingDecisions());
+
+        // Completing the transfer again must not deposit twice
+        db.close();
+        db = ShardedDatabaseManager.open(directory, SHARD_COUNT);
+        assertEquals(0, db.getRecoveredTransfers());
+        assertEquals(3_000, db.getAccount(recipient.getId()).getBalance());
+    }
+
+    @Test
+    void committedDepositLegIsNotWrittenAgainOnRestart() throws IOException, SQLException {
+        db.close();
+        crashAfterDecision(true);
+
+        db = ShardedDatabaseManager.open(directory, SHARD_COUNT);
+        assertEquals(1, db.getRecoveredTransfers());
+        assertEquals(7_000, db.getAccount(sender.getId()).getBalance());
+        assertEquals(3_000, db.getAccount(recipient.getId()).getBalance());
+        assertEquals(1, db.getTransactionHistory(db.getAccount(recipient.getId())).size());
+        assertEquals(0, pendingDecisions());
+    }
+
+    @Test
+    void identicalDepositWrittenSinceIsNotTakenForTheDepositLeg() throws IOException, SQLException {
+        db.close();
+        crashAfterDecision(false);
+
+        // An identical deposit, which takes the row id of the deposit leg that was rolled back
+        DatabaseManager recipientShard = openShard(shardOf(recipient));
+        try (DatabaseManager.PendingWrite write = recipientShard.beginWrite()) {
+            write.write(depositLeg(null));
+            write.commit();
+        } finally {
+            recipientShard.close();
+        }
+
+        db = ShardedDatabaseManager.open(directory, SHARD_COUNT);
+        assertEquals(1, db.getRecoveredTransfers());
+        assertEquals(6_000, db.getAccount(recipient.getId()).getBalance());
+        assertEquals(0, pendingDecisions());
+    }
+
+    /**
+     * Leaves the shards as a process dying between the two commits of a 3000 transfer would: the withdraw leg and the
+     * decision are committed on the sender shard, the deposit leg only if {@code depositCommitted}
+     */
+    private void crashAfterDecision(boolean depositCommitted) throws SQLException {
+        TransactionModel withdrawal = transfer(3_000);
+        TransactionModel deposit = depositLeg("deposit-1");
+
+        DatabaseManager recipientShard = openShard(shardOf(recipient));
+        try (DatabaseManager.PendingWrite write = recipientShard.beginWrite()) {
+            write.write(deposit);
+            if (depositCommitted)
+                write.commit();
+        } finally {
+            recipientShard.close();
+        }
+
+        DatabaseManager senderShard = openShard(shardOf(sender));
+        try (DatabaseManager.PendingWrite write = senderShard.beginWrite()) {
+            write.write(withdrawal);
+            PreparedStatement stmt = write.getConnection().prepare(
+                    "INSERT INTO transfer_decisions " +
+                            "(sender_account_id, recipient_account_id, amount, deposit_request_id) " +
+                            "VALUES (?, ?, ?, ?)"
+            );
+            stmt.setLong(1, sender.getId());
+            stmt.setLong(2, recipient.getId());
+            stmt.setLong(3, 3_000);
+            stmt.setString(4, deposit.getRequestId());
+            stmt.executeUpdate();
+            write.commit();
+        } finally {
+            senderShard.close();
+        }
+    }
+
+    private long pendingDecisions() throws SQLException {
+        DatabaseManager senderShard = openShard(shardOf(sender));
+        try (
+                DatabaseManager.PendingWrite read = senderShard.beginWrite();
+                ResultSet rs = read.getConnection().prepare("SELECT COUNT(*) FROM transfer_decisions").executeQuery()
+        ) {
+            rs.next();
+            return rs.getLong(1);
+        } finally {
+            senderShard.close();
+        }
+    }
+
+    private DatabaseManager openShard(int shard) {
+        return DatabaseManager.open("jdbc:sqlite:" + directory.resolve("atm_shard_" + shard + ".db"));
+    }
+
+    private TransactionModel depositLeg(String requestId) {
+        TransactionModel deposit = new TransactionModel();
+        deposit.setAccountId(recipient.getId());
+        deposit.setTransactionType(TransactionModel.TransactionType.TRANSFER_DEPOSIT);
+        deposit.setAmount(3_000);
+        deposit.setOtherPartyAccountId(sender.getId());
+        deposit.setRequestId(requestId);
+        return deposit;
+    }
+
+    private TransactionModel transfer(long amount) {
+        TransactionModel transfer = new TransactionModel();
+        transfer.setAccountId(sender.getId());
+        transfer.setOtherPartyAccountId(recipient.getId());
+        transfer.setTransactionType(TransactionModel.TransactionType.TRANSFER_WITHDRAW);
+        transfer.setAmount(amount);
+        return transfer;
+    }
+
+    private static int shardOf(AccountModel account) {
+        return (int) (account.getId() % SHARD_COUNT);
+    }
+}
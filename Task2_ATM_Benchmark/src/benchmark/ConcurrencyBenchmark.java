@@ -0,0 +1,140 @@
+package benchmark;
+
+import benchmark.jmh.BenchmarkDatabase;
+import database.DatabaseManager;
+import model.TransactionModel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ConcurrencyBenchmark measures the throughput of N parallel ATM sessions.
+ * <p>
+ * The sessions run against a scratch database in a temporary directory (see {@link BenchmarkDatabase}), which is
+ * deleted at the end, so {@code atm_database.db} is never touched. Every session repeatedly deposits and then
+ * withdraws the same amount on one of two benchmark accounts.
+ * The benchmark is run with 1, 2, 4, ... up to the given number of sessions and prints one line per run.
+ * Passing {@code group} as third argument runs the sessions with group commit enabled.
+ * <p>
+ * Usage (from the repository root, once the benchmarks are compiled, see the README):
+ * <pre>
+ * java -cp "out/benchmark;Task2_ATM/src/;lib/*" benchmark.ConcurrencyBenchmark [maxSessions] [operationsPerSession] [group]
+ * </pre>
+ *
+ * @author <a href="https://github.com/itsyourap">Ankan Pal</a>
+ */
+public class ConcurrencyBenchmark {
+    // Number of accounts the sessions are spread over
+    private static final int ACCOUNTS = 2;
+
+    // Amount deposited and withdrawn by each operation, in minor units
+    private static final long AMOUNT = 100;
+
+    // Group commit settings used when the benchmark is run with group commit enabled
+    private static final int GROUP_COMMIT_BATCH_SIZE = 256;
+    private static final long GROUP_COMMIT_DELAY_MILLIS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int maxSessions = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int operationsPerSession = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+        boolean groupCommit = args.length > 2 && args[2].equals("group");
+
+        try (BenchmarkDatabase database = BenchmarkDatabase.create()) {
+            DatabaseManager dbManager = database.getManager();
+            long[] accountIds = new long[ACCOUNTS];
+            for (int i = 0; i < ACCOUNTS; i++)
+                accountIds[i] = database.createAccount("session-" + i, AMOUNT).getId();
+
+            if (groupCommit)
+                dbManager.enableGroupCommit(GROUP_COMMIT_BATCH_SIZE, GROUP_COMMIT_DELAY_MILLIS);
+
+            // Warm up the JIT and the SQLite page cache
+            runSessions(dbManager, accountIds, 2, 50);
+
+            System.out.printf("%-10s %-12s %-12s %-12s %-10s%n",
+                    "sessions", "operations", "millis", "ops/sec", "failures");
+            for (int sessions = 1; sessions <= maxSessions; sessions *= 2) {
+                Result result = runSessions(dbManager, accountIds, sessions, operationsPerSession);
+                System.out.printf("%-10d %-12d %-12d %-12.1f %-10d%n",
+                        sessions,
+                        result.operations,
+                        result.elapsedNanos / 1_000_000,
+                        result.operations * 1e9 / result.elapsedNanos,
+                        result.failures
+                );
+            }
+
+            if (groupCommit)
+                dbManager.disableGroupCommit();
+        }
+    }
+
+    /**
+     * Runs the given number of sessions in parallel, each doing {@code operationsPerSession} deposit/withdraw pairs
+     *
+     * @param dbManager            the DatabaseManager to run against
+     * @param accountIds           the accounts the sessions are spread over
+     * @param sessions             the number of parallel sessions
+     * @param operationsPerSession the number of deposit/withdraw pairs per session
+     * @return the result of the run
+     */
+    private static Result runSessions(DatabaseManager dbManager, long[] accountIds, int sessions,
+                                      int operationsPerSession) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(sessions);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicLong failures = new AtomicLong();
+        List<Future<?>> futures = new ArrayList<>();
+
+        for (int i = 0; i < sessions; i++) {
+            long accountId = accountIds[i % accountIds.length];
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int op = 0; op < operationsPerSession; op++) {
+                    if (!dbManager.addTransaction(newTransaction(accountId, TransactionModel.TransactionType.DEPOSIT)))
+                        failures.incrementAndGet();
+                    if (!dbManager.addTransaction(newTransaction(accountId, TransactionModel.TransactionType.WITHDRAW)))
+                        failures.incrementAndGet();
+                }
+                return null;
+            }));
+        }
+
+        long startTime = System.nanoTime();
+        start.countDown();
+        for (Future<?> future : futures)
+            future.get();
+        long elapsed = System.nanoTime() - startTime;
+        executor.shutdown();
+
+        return new Result(2L * sessions * operationsPerSession, elapsed, failures.get());
+    }
+
+    private static TransactionModel newTransaction(long accountId, TransactionModel.TransactionType type) {
+        TransactionModel transaction = new TransactionModel();
+        transaction.setAccountId(accountId);
+        transaction.setAmount(AMOUNT);
+        transaction.setTransactionType(type);
+        return transaction;
+    }
+
+    /**
+     * The outcome of a single benchmark run
+     */
+    private static class Result {
+        private final long operations;
+        private final long elapsedNanos;
+        private final long failures;
+
+        private Result(long operations, long elapsedNanos, long failures) {
+            this.operations = operations;
+            this.elapsedNanos = elapsedNanos;
+            this.failures = failures;
+        }
+    }
+}
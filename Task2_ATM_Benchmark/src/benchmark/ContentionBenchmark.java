@@ -0,0 +1,131 @@
+package benchmark;
+
+import benchmark.jmh.BenchmarkDatabase;
+import database.DatabaseManager;
+import model.TransactionModel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ContentionBenchmark shows how withdrawals scale with the number of threads when every thread uses its own account
+ * (uncontended) and when all threads share a single account (contended).
+ * <p>
+ * Every thread repeatedly deposits and then withdraws the same amount, so balances are left unchanged after a run.
+ * The benchmark accounts ({@code bench-0}, {@code bench-1}, ...) are created in a scratch database in a temporary
+ * directory (see {@link BenchmarkDatabase}), which is deleted at the end, so {@code atm_database.db} is never touched.
+ * In the contended runs all threads hit the same conditional update, so the failures
+ * column also shows that no withdrawal ever overdraws the shared account.
+ * <p>
+ * Usage (from the repository root, once the benchmarks are compiled, see the README):
+ * <pre>
+ * java -cp "out/benchmark;Task2_ATM/src/;lib/*" benchmark.ContentionBenchmark [maxThreads] [operationsPerThread]
+ * </pre>
+ *
+ * @author <a href="https://github.com/itsyourap">Ankan Pal</a>
+ */
+public class ContentionBenchmark {
+    // Prefix of the user IDs of the benchmark accounts
+    private static final String ACCOUNT_PREFIX = "bench-";
+
+    // Amount deposited and withdrawn by each operation, in minor units
+    private static final long AMOUNT = 100;
+
+    public static void main(String[] args) throws Exception {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int operationsPerThread = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+        try (BenchmarkDatabase database = BenchmarkDatabase.create()) {
+            DatabaseManager dbManager = database.getManager();
+            long[] accountIds = prepareAccounts(database, maxThreads);
+
+            // Warm up the JIT and the SQLite page cache
+            run(dbManager, accountIds, 2, 50, false);
+
+            System.out.printf("%-8s %-12s %-12s %-12s %-10s%n", "threads", "mode", "millis", "ops/sec", "failures");
+            for (int threads = 1; threads <= maxThreads; threads *= 2) {
+                for (boolean contended : new boolean[]{false, true}) {
+                    Result result = run(dbManager, accountIds, threads, operationsPerThread, contended);
+                    System.out.printf("%-8d %-12s %-12d %-12.1f %-10d%n",
+                            threads,
+                            contended ? "contended" : "uncontended",
+                            result.elapsedNanos / 1_000_000,
+                            result.operations * 1e9 / result.elapsedNanos,
+                            result.failures
+                    );
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates one funded benchmark account per thread
+     *
+     * @return the ids of the accounts
+     */
+    private static long[] prepareAccounts(BenchmarkDatabase database, int count) {
+        long[] accountIds = new long[count];
+        for (int i = 0; i < count; i++)
+            accountIds[i] = database.createAccount(ACCOUNT_PREFIX + i, AMOUNT).getId();
+        return accountIds;
+    }
+
+    private static Result run(DatabaseManager dbManager, long[] accountIds, int threads, int operationsPerThread,
+                              boolean contended) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicLong failures = new AtomicLong();
+        List<Future<?>> futures = new ArrayList<>();
+
+        for (int i = 0; i < threads; i++) {
+            long accountId = contended ? accountIds[0] : accountIds[i];
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int op = 0; op < operationsPerThread; op++) {
+                    if (!dbManager.addTransaction(newTransaction(accountId, TransactionModel.TransactionType.DEPOSIT)))
+                        failures.incrementAndGet();
+                    if (!dbManager.addTransaction(newTransaction(accountId, TransactionModel.TransactionType.WITHDRAW)))
+                        failures.incrementAndGet();
+                }
+                return null;
+            }));
+        }
+
+        long startTime = System.nanoTime();
+        start.countDown();
+        for (Future<?> future : futures)
+            future.get();
+        long elapsed = System.nanoTime() - startTime;
+        executor.shutdown();
+
+        return new Result(2L * threads * operationsPerThread, elapsed, failures.get());
+    }
+
+    private static TransactionModel newTransaction(long accountId, TransactionModel.TransactionType type) {
+        TransactionModel transaction = new TransactionModel();
+        transaction.setAccountId(accountId);
+        transaction.setAmount(AMOUNT);
+        transaction.setTransactionType(type);
+        return transaction;
+    }
+
+    /**
+     * The outcome of a single benchmark run
+     */
+    private static class Result {
+        private final long operations;
+        private final long elapsedNanos;
+        private final long failures;
+
+        private Result(long operations, long elapsedNanos, long failures) {
+            this.operations = operations;
+            this.elapsedNanos = elapsedNanos;
+            this.failures = failures;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package benchmark;
+
+import database.BulkLoader;
+import model.TransactionModel;
+
+import java.io.File;
+import java.util.SplittableRandom;
+
+/**
+ * LedgerGenerator fills a database with synthetic accounts and ledger rows for capacity tests, using the
+ * {@link BulkLoader}.
+ * <p>
+ * The ledger mimics ATM usage: 40% deposits, 35% withdrawals (multiples of 10.00, as dispensed by an ATM) and 25%
+ * transfers, written as their two legs. A small number of accounts is much busier than the rest. Balances are
+ * tracked while generating: a withdrawal or transfer the account can't cover becomes a deposit, so the loaded
+ * balances never go negative and always match the ledger. The rows are spread evenly over the last
+ * {@value #HISTORY_DAYS} days, oldest first.
+ * <p>
+ * All generated accounts have the user ID {@code user-<account id>} and the PIN 1111. Existing rows are kept, the
+ * generated ones are added after them.
+ * <p>
+ * Usage (from the repository root, once the benchmarks are compiled, see the README):
+ * <pre>
+ * java -cp "out/benchmark;Task2_ATM/src/;lib/*" benchmark.LedgerGenerator [accounts] [ledgerRows] [databaseFile] [seed]
+ * </pre>
+ *
+ * @author <a href="https://github.com/itsyourap">Ankan Pal</a>
+ */
+public class LedgerGenerator {
+    // PIN of the generated accounts
+    private static final int ACCOUNT_PIN = 1111;
+
+    // Number of ledger rows between two progress reports
+    private static final long PROGRESS_EVERY_ROWS = 10_000_000;
+
+    // Number of days the generated ledger covers
+    private static final int HISTORY_DAYS = 365;
+
+    public static void main(String[] args) throws Exception {
+        int accounts = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        long ledgerRows = args.length > 1 ? Long.parseLong(args[1]) : 10_000_000;
+        String databaseFile = args.length > 2 ? args[2] : "Task2_ATM/atm_capacity.db";
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 42;
+
+        SplittableRandom random = new SplittableRandom(seed);
+        long[] balances = new long[accounts];
+        long startTime = System.nanoTime();
+        long historyEnd = System.currentTimeMillis();
+        long historyMillis = HISTORY_DAYS * 24L * 60 * 60 * 1000;
+
+        try (BulkLoader loader = new BulkLoader("jdbc:sqlite:" + databaseFile, ACCOUNT_PIN)) {
+            // The accounts are written after the ledger, with their final balances, and get consecutive ids from here
+            long firstAccountId = loader.getNextAccountId();
+
+            long written = 0;
+            long nextProgress = PROGRESS_EVERY_ROWS;
+            while (written < ledgerRows) {
+                if (written >= nextProgress) {
+                    System.out.printf("%d ledger rows, %.0f rows/sec%n",
+                            written, written * 1e9 / (System.nanoTime() - startTime));
+                    nextProgress += PROGRESS_EVERY_ROWS;
+                }
+
+                long createdAt = historyEnd - historyMillis + (long) ((double) written / ledgerRows * historyMillis);
+                int account = pickAccount(random, accounts);
+                int kind = random.nextInt(100);
+
+                if (kind < 35) {
+                    long amount = 1000L * random.nextInt(2, 51);
+                    if (balances[account] >= amount) {
+                        balances[account] -= amount;
+                        loader.addTransaction(firstAccountId + account,
+                                TransactionModel.TransactionType.WITHDRAW, amount, 0, createdAt);
+                        written++;
+                        continue;
+                    }
+                } else if (kind < 60 && accounts > 1 && written + 2 <= ledgerRows) {
+                    long amount = logUniform(random, 100, 100_000);
+                    int recipient = pickAccount(random, accounts);
+                    if (recipient != account && balances[account] >= amount) {
+                        balances[account] -= amount;
+                        balances[recipient] += amount;
+                        loader.addTransaction(firstAccountId + account,
+                                TransactionModel.TransactionType.TRANSFER_WITHDRAW, amount, firstAccountId + recipient,
+                                createdAt);
+                        loader.addTransaction(firstAccountId + recipient,
+                                TransactionModel.TransactionType.TRANSFER_DEPOSIT, amount, firstAccountId + account,
+                                createdAt);
+                        written += 2;
+                        continue;
+                    }
+                }
+
+                long amount = logUniform(random, 1000, 200_000);
+                balances[account] += amount;
+                loader.addTransaction(firstAccountId + account, TransactionModel.TransactionType.DEPOSIT, amount, 0,
+                        createdAt);
+                written++;
+            }
+
+            for (int account = 0; account < accounts; account++) {
+                long id = firstAccountId + account;
+                loader.addAccount("user-" + id, "Generated User " + id, balances[account]);
+            }
+
+            System.out.println("Creating indexes...");
+            loader.finish();
+        }
+
+        long elapsed = System.nanoTime() - startTime;
+        System.out.printf("accounts: %d, ledger rows: %d, elapsed: %d s, %.0f rows/sec, database size: %d MB%n",
+                accounts, ledgerRows, elapsed / 1_000_000_000,
+                (accounts + ledgerRows) * 1e9 / elapsed,
+                new File(databaseFile).length() / (1024 * 1024));
+    }
+
+    /**
+     * Picks an account, low indexes are picked far more often than high ones
+     */
+    private static int pickAccount(SplittableRandom random, int accounts) {
+        double r = random.nextDouble();
+        return (int) (accounts * r * r * r);
+    }
+
+    /**
+     * Picks an amount (in minor units) between {@code min} and {@code max}, small amounts being more common
+     */
+    private static long logUniform(SplittableRandom random, long min, long max) {
+        return Math.round(min * Math.pow((double) max / min, random.nextDouble()));
+    }
+}
@@ -0,0 +1,110 @@
+package benchmark;
+
+import session.ATMServer;
+import session.SessionExecutors;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SessionLoadGenerator drives many concurrent scripted sessions against a running {@link ATMServer}.
+ * <p>
+ * Every session logs in with one of the sample accounts, deposits and withdraws 0.01, shows the transaction
+ * history and exits, so the balances are left unchanged after a run. All sessions are connected at the same time,
+ * one (virtual, if available) thread per session, and the generator reports the session throughput and the session
+ * latency percentiles.
+ * <p>
+ * Usage (from the repository root, once the benchmarks are compiled, see the README, with the server running):
+ * <pre>
+ * java -cp "out/benchmark;Task2_ATM/src/;lib/*" benchmark.SessionLoadGenerator [sessions] [port]
+ * </pre>
+ *
+ * @author <a href="https://github.com/itsyourap">Ankan Pal</a>
+ */
+public class SessionLoadGenerator {
+    // Scripts of the sessions: login, deposit 0.01, withdraw 0.01, show history, exit
+    private static final String[] SCRIPTS = {
+            "test01\n1234\n2\n0.01\n1\n0.01\n4\n5\n",
+            "test02\n5678\n2\n0.01\n1\n0.01\n4\n5\n",
+    };
+
+    // Output every successful session ends with
+    private static final String SESSION_END = "Exiting...";
+
+    public static void main(String[] args) throws Exception {
+        int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : ATMServer.DEFAULT_PORT;
+
+        ExecutorService executor = SessionExecutors.newPerSessionExecutor();
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicLong failures = new AtomicLong();
+        long[] latencies = new long[sessions];
+        List<Future<?>> futures = new ArrayList<>(sessions);
+
+        for (int i = 0; i < sessions; i++) {
+            int session = i;
+            futures.add(executor.submit(() -> {
+                start.await();
+                long sessionStart = System.nanoTime();
+                if (!runSession(port, SCRIPTS[session % SCRIPTS.length]))
+                    failures.incrementAndGet();
+                latencies[session] = System.nanoTime() - sessionStart;
+                return null;
+            }));
+        }
+
+        long startTime = System.nanoTime();
+        start.countDown();
+        for (Future<?> future : futures)
+            future.get();
+        long elapsed = System.nanoTime() - startTime;
+        executor.shutdown();
+
+        Arrays.sort(latencies);
+        System.out.printf("sessions: %d, failures: %d, threads: %s%n",
+                sessions, failures.get(), SessionExecutors.isUsingVirtualThreads() ? "virtual" : "platform");
+        System.out.printf("elapsed: %d ms, throughput: %.1f sessions/sec%n",
+                elapsed / 1_000_000, sessions * 1e9 / elapsed);
+        System.out.printf("latency p50: %.1f ms, p99: %.1f ms, max: %.1f ms%n",
+                percentile(latencies, 0.50), percentile(latencies, 0.99), percentile(latencies, 1.0));
+    }
+
+    /**
+     * Runs a single scripted session
+     *
+     * @param port   the port of the server
+     * @param script the input of the session
+     * @return true if the session ran to the end
+     */
+    private static boolean runSession(int port, String script) {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            socket.setTcpNoDelay(true);
+
+            OutputStream output = socket.getOutputStream();
+            output.write(script.getBytes(StandardCharsets.UTF_8));
+            output.flush();
+
+            InputStream input = socket.getInputStream();
+            String transcript = new String(input.readAllBytes(), StandardCharsets.UTF_8);
+            return transcript.contains(SESSION_END) && !transcript.contains("Invalid User ID or PIN");
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static double percentile(long[] sortedNanos, double percentile) {
+        int index = (int) Math.ceil(percentile * sortedNanos.length) - 1;
+        return sortedNanos[Math.max(0, index)] / 1e6;
+    }
+}
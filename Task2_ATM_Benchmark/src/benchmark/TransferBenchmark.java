@@ -0,0 +1,83 @@
+package benchmark;
+
+import benchmark.jmh.BenchmarkDatabase;
+import database.DatabaseManager;
+import model.TransactionModel;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * TransferBenchmark compares the throughput (transfers/sec) of single transfers against the bulk transfer API.
+ * <p>
+ * The transfers run against a scratch database in a temporary directory (see {@link BenchmarkDatabase}), which is
+ * deleted at the end, so {@code atm_database.db} is never touched. Transfers alternate between two benchmark
+ * accounts in both directions with the same amount.
+ * <p>
+ * Usage (from the repository root, once the benchmarks are compiled, see the README):
+ * <pre>
+ * java -cp "out/benchmark;Task2_ATM/src/;lib/*" benchmark.TransferBenchmark [transfers]
+ * </pre>
+ *
+ * @author <a href="https://github.com/itsyourap">Ankan Pal</a>
+ * @see DatabaseManager#transfer(TransactionModel)
+ * @see DatabaseManager#transferAll(List)
+ */
+public class TransferBenchmark {
+    // Amount moved by each transfer, in minor units
+    private static final long AMOUNT = 100;
+
+    public static void main(String[] args) throws IOException {
+        int transfers = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+
+        try (BenchmarkDatabase database = BenchmarkDatabase.create()) {
+            DatabaseManager dbManager = database.getManager();
+            long firstAccountId = database.createAccount("transfer-0", AMOUNT).getId();
+            long secondAccountId = database.createAccount("transfer-1", AMOUNT).getId();
+
+            // Warm up the JIT and the SQLite page cache
+            runSingle(dbManager, newTransfers(firstAccountId, secondAccountId, 200));
+            dbManager.transferAll(newTransfers(firstAccountId, secondAccountId, 200));
+
+            long singleNanos = runSingle(dbManager, newTransfers(firstAccountId, secondAccountId, transfers));
+            report("single", transfers, singleNanos);
+
+            List<TransactionModel> bulkTransfers = newTransfers(firstAccountId, secondAccountId, transfers);
+            long start = System.nanoTime();
+            int applied = dbManager.transferAll(bulkTransfers);
+            long bulkNanos = System.nanoTime() - start;
+            report("bulk", applied, bulkNanos);
+
+            System.out.printf("bulk speedup: %.1fx%n", (double) singleNanos / bulkNanos);
+        }
+    }
+
+    private static long runSingle(DatabaseManager dbManager, List<TransactionModel> transfers) {
+        long start = System.nanoTime();
+        for (TransactionModel transfer : transfers) {
+            if (!dbManager.transfer(transfer))
+                System.out.println("Transfer failed: " + transfer);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static List<TransactionModel> newTransfers(long firstAccountId, long secondAccountId, int count) {
+        List<TransactionModel> transfers = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            boolean forward = i % 2 == 0;
+            TransactionModel transfer = new TransactionModel();
+            transfer.setTransactionType(TransactionModel.TransactionType.TRANSFER_WITHDRAW);
+            transfer.setAccountId(forward ? firstAccountId : secondAccountId);
+            transfer.setOtherPartyAccountId(forward ? secondAccountId : firstAccountId);
+            transfer.setAmount(AMOUNT);
+            transfers.add(transfer);
+        }
+        return transfers;
+    }
+
+    private static void report(String mode, int transfers, long nanos) {
+        System.out.printf("%-8s %8d transfers in %6d ms = %10.1f transfers/sec%n",
+                mode, transfers, nanos / 1_000_000, transfers * 1e9 / nanos);
+    }
+}
@@ -0,0 +1,60 @@
+package benchmark.jmh;
+
+import database.DatabaseManager;
+import model.AccountModel;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AccountLookupBenchmark measures the account lookups of the ATM: the login by user ID and PIN, and the lookups by
+ * user ID (transfer recipients) and by account id.
+ * <p>
+ * The same sample account is looked up over and over, so this is the latency of a hot account, served by the
+ * account and credential caches after the first call.
+ *
+ * @author <a href="https://github.com/itsyourap">Ankan Pal</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AccountLookupBenchmark {
+    // The sample account created with every new database
+    private static final String USER_ID = "test01";
+    private static final int USER_PIN = 1234;
+
+    private BenchmarkDatabase database;
+    private DatabaseManager dbManager;
+    private long accountId;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        database = BenchmarkDatabase.create();
+        dbManager = database.getManager();
+        accountId = dbManager.getAccount(USER_ID).getId();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+    }
+
+    @Benchmark
+    public AccountModel loginByUserIdAndPin() {
+        return dbManager.getAccount(USER_ID, USER_PIN);
+    }
+
+    @Benchmark
+    public AccountModel lookupByUserId() {
+        return dbManager.getAccount(USER_ID);
+    }
+
+    @Benchmark
+    public AccountModel lookupById() {
+        return dbManager.getAccount(accountId);
+    }
+}
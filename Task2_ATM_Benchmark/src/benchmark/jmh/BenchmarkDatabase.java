@@ -0,0 +1,94 @@
+package benchmark.jmh;
+
+import database.DatabaseManager;
+import model.AccountModel;
+import model.TransactionModel;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * BenchmarkDatabase is a scratch ATM database in a temporary directory, so benchmarks never touch
+ * {@code atm_database.db} and every trial starts from the same state. The JMH benchmarks and the standalone load tests
+ * of the {@code benchmark} package share it.
+ * <p>
+ * The database is created and migrated like the ATM database, so it contains the sample accounts
+ * ({@code test01} / {@code 1234} and {@code test02} / {@code 5678}). Closing it closes the {@link DatabaseManager}
+ * and deletes the directory.
+ *
+ * @author <a href="https://github.com/itsyourap">Ankan Pal</a>
+ */
+public final class BenchmarkDatabase implements AutoCloseable {
+    // PIN of the accounts created by the benchmarks
+    public static final int ACCOUNT_PIN = 1111;
+
+    // The temporary directory holding the database file
+    private final Path directory;
+
+    // The database manager of the scratch database
+    private final DatabaseManager manager;
+
+    private BenchmarkDatabase(Path directory) {
+        this.directory = directory;
+        this.manager = DatabaseManager.open("jdbc:sqlite:" + directory.resolve("atm_database.db"));
+    }
+
+    /**
+     * Creates a new scratch database
+     *
+     * @return the database
+     * @throws IOException if the temporary directory can't be created
+     */
+    public static BenchmarkDatabase create() throws IOException {
+        return new BenchmarkDatabase(Files.createTempDirectory("atm-benchmark"));
+    }
+
+    public DatabaseManager getManager() {
+        return manager;
+    }
+
+    /**
+     * Creates an account with the given balance
+     *
+     * @param userId  the user ID of the account
+     * @param balance the initial balance in minor units, deposited as a single transaction
+     * @return the account
+     */
+    public AccountModel createAccount(String userId, long balance) {
+        AccountModel account = manager.createAccount(userId, "Benchmark " + userId, ACCOUNT_PIN);
+        if (account == null)
+            throw new IllegalStateException("Couldn't create benchmark account " + userId);
+
+        TransactionModel deposit = newTransaction(account.getId(), TransactionModel.TransactionType.DEPOSIT, balance);
+        if (balance > 0 && !manager.addTransaction(deposit))
+            throw new IllegalStateException("Couldn't fund benchmark account " + userId);
+        account.setBalance(balance);
+        return account;
+    }
+
+    /**
+     * Creates a transaction that is not written yet
+     *
+     * @param accountId the account of the transaction
+     * @param type      the type of the transaction
+     * @param amount    the amount in minor units
+     * @return the transaction
+     */
+    public static TransactionModel newTransaction(long accountId, TransactionModel.TransactionType type, long amount) {
+        TransactionModel transaction = new TransactionModel();
+        transaction.setAccountId(accountId);
+        transaction.setTransactionType(type);
+        transaction.setAmount(amount);
+        return transaction;
+    }
+
+    /**
+     * Closes the database and deletes its directory
+     */
+    @Override
+    public void close() {
+        manager.close();
+        LedgerEngines.deleteDirectory(directory);
+    }
+}
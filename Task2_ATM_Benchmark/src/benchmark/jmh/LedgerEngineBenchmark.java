@@ -0,0 +1,95 @@
+package benchmark.jmh;
+
+import database.AccountDatabase;
+import model.AccountModel;
+import model.TransactionModel;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LedgerEngineBenchmark compares the write throughput and the history reads of the SQLite engine and of the
+ * event-sourced ledger, through the {@link AccountDatabase} interface they share.
+ * <p>
+ * Neither engine forces its writes to disk on every write (SQLite runs with {@code synchronous = NORMAL}), so both
+ * give the same durability guarantee. Run with {@code -t} to measure concurrent writers.
+ *
+ * @author <a href="https://github.com/itsyourap">Ankan Pal</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LedgerEngineBenchmark {
+    // Amount of every write, in minor units
+    private static final long AMOUNT = 100;
+
+    // Number of transactions shown on a page of the ATM menu
+    private static final int PAGE_SIZE = 50;
+
+    @Param({LedgerEngines.SQLITE, LedgerEngines.EVENT_LOG})
+    public String engine;
+
+    private Path directory;
+    private AccountDatabase database;
+    private long senderId;
+    private long recipientId;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("atm-engine-benchmark");
+        database = LedgerEngines.open(engine, directory);
+
+        AccountModel sender =
+                database.createAccount("engine-sender", "Benchmark Sender", BenchmarkDatabase.ACCOUNT_PIN);
+        AccountModel recipient =
+                database.createAccount("engine-recipient", "Benchmark Recipient", BenchmarkDatabase.ACCOUNT_PIN);
+        senderId = sender.getId();
+        recipientId = recipient.getId();
+
+        // Funds every withdrawal and transfer of the run
+        if (!database.addTransaction(
+                BenchmarkDatabase.newTransaction(senderId, TransactionModel.TransactionType.DEPOSIT, Long.MAX_VALUE / 2)
+        ))
+            throw new IllegalStateException("Couldn't fund the benchmark account");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+        LedgerEngines.deleteDirectory(directory);
+    }
+
+    @Benchmark
+    public boolean deposit() {
+        return database.addTransaction(
+                BenchmarkDatabase.newTransaction(recipientId, TransactionModel.TransactionType.DEPOSIT, AMOUNT)
+        );
+    }
+
+    @Benchmark
+    public boolean withdraw() {
+        return database.addTransaction(
+                BenchmarkDatabase.newTransaction(senderId, TransactionModel.TransactionType.WITHDRAW, AMOUNT)
+        );
+    }
+
+    @Benchmark
+    public boolean transfer() {
+        TransactionModel transfer =
+                BenchmarkDatabase.newTransaction(senderId, TransactionModel.TransactionType.TRANSFER_WITHDRAW, AMOUNT);
+        transfer.setOtherPartyAccountId(recipientId);
+        return database.addTransaction(transfer);
+    }
+
+    @Benchmark
+    public List<TransactionModel> firstPage() {
+        return database.getTransactionPage(senderId, Long.MAX_VALUE, PAGE_SIZE);
+    }
+}
@@ -0,0 +1,63 @@
+package benchmark.jmh;
+
+import database.AccountDatabase;
+import database.DatabaseManager;
+import database.EventSourcedLedger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * LedgerEngines opens the storage engines compared by the engine benchmarks, by the name used in their
+ * {@code engine} parameter.
+ *
+ * @author <a href="https://github.com/itsyourap">Ankan Pal</a>
+ */
+final class LedgerEngines {
+    // The SQLite engine, the DatabaseManager of the ATM
+    static final String SQLITE = "sqlite";
+
+    // The memory-mapped event log with the in-memory balance projection
+    static final String EVENT_LOG = "event-log";
+
+    private LedgerEngines() {
+
+    }
+
+    /**
+     * Opens (and creates if necessary) an engine in the given directory
+     *
+     * @param engine    the name of the engine
+     * @param directory the directory of the engine files
+     * @return the engine
+     * @throws IOException if the engine can't be opened
+     */
+    static AccountDatabase open(String engine, Path directory) throws IOException {
+        switch (engine) {
+            case SQLITE:
+                return DatabaseManager.open("jdbc:sqlite:" + directory.resolve("atm_database.db"));
+            case EVENT_LOG:
+                return EventSourcedLedger.open(directory);
+            default:
+                throw new IllegalArgumentException("Unknown engine: " + engine);
+        }
+    }
+
+    /**
+     * Deletes a directory and everything in it
+     *
+     * @param directory the directory
+     */
+    static void deleteDirectory(Path directory) {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator)
+                Files.delete(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package benchmark.jmh;
+
+import database.AccountDatabase;
+import model.AccountModel;
+import model.TransactionModel;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LedgerRecoveryBenchmark measures how long each engine takes from opening a ledger of {@code ledgerRows} rows to
+ * serving the first balance.
+ * <p>
+ * SQLite reads the stored balance, whatever the size of the ledger. The event-sourced ledger replays the whole log to
+ * rebuild its balance projection first, so its recovery time grows with the ledger. The ledger is written once per
+ * trial, as deposits spread over {@value #ACCOUNTS} accounts.
+ *
+ * @author <a href="https://github.com/itsyourap">Ankan Pal</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LedgerRecoveryBenchmark {
+    // Number of accounts the ledger is spread over
+    private static final int ACCOUNTS = 1000;
+
+    @Param({LedgerEngines.SQLITE, LedgerEngines.EVENT_LOG})
+    public String engine;
+
+    @Param({"100000", "1000000"})
+    public int ledgerRows;
+
+    private Path directory;
+    private long lastAccountId;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("atm-recovery-benchmark");
+        try (AccountDatabase database = LedgerEngines.open(engine, directory)) {
+            long[] accountIds = new long[ACCOUNTS];
+            for (int i = 0; i < ACCOUNTS; i++) {
+                AccountModel account =
+                        database.createAccount("recovery-" + i, "Benchmark " + i, BenchmarkDatabase.ACCOUNT_PIN);
+                accountIds[i] = account.getId();
+            }
+            lastAccountId = accountIds[ACCOUNTS - 1];
+
+            for (int i = 0; i < ledgerRows; i++) {
+                TransactionModel deposit = BenchmarkDatabase.newTransaction(
+                        accountIds[i % ACCOUNTS], TransactionModel.TransactionType.DEPOSIT, 100
+                );
+                if (!database.addTransaction(deposit))
+                    throw new IllegalStateException("Couldn't write the benchmark ledger");
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        LedgerEngines.deleteDirectory(directory);
+    }
+
+    @Benchmark
+    public long openAndReadBalance() throws IOException {
+        try (AccountDatabase database = LedgerEngines.open(engine, directory)) {
+            return database.getAccount(lastAccountId).getBalance();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package benchmark.jmh;
+
+import database.ShardedDatabaseManager;
+import model.AccountModel;
+import model.TransactionModel;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ShardedWriteBenchmark measures the write throughput of concurrent writers depending on the number of shard files
+ * the ledger is spread over.
+ * <p>
+ * Every write picks its accounts at random among {@value #ACCOUNTS} accounts, so with {@code n} shards a transfer is
+ * between two shards with a probability of about {@code (n - 1) / n} and pays for the two phase commit. Runs with as
+ * many writer threads as there are processors; with a single shard they all queue for the same write lock.
+ *
+ * @author <a href="https://github.com/itsyourap">Ankan Pal</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(Threads.MAX)
+@Fork(1)
+public class ShardedWriteBenchmark {
+    // Number of accounts written to
+    private static final int ACCOUNTS = 1024;
+
+    // Amount of every write, in minor units
+    private static final long AMOUNT = 100;
+
+    // Initial balance of every account, in minor units
+    private static final long INITIAL_BALANCE = 1_000_000_000_000L;
+
+    @Param({"1", "2", "4", "8"})
+    public int shardCount;
+
+    private Path directory;
+    private ShardedDatabaseManager database;
+    private long[] accountIds;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, SQLException {
+        directory = Files.createTempDirectory("atm-shard-benchmark");
+        database = ShardedDatabaseManager.open(directory, shardCount);
+
+        accountIds = new long[ACCOUNTS];
+        for (int i = 0; i < ACCOUNTS; i++) {
+            AccountModel account =
+                    database.createAccount("shard-" + i, "Benchmark " + i, BenchmarkDatabase.ACCOUNT_PIN);
+            accountIds[i] = account.getId();
+            if (!database.addTransaction(BenchmarkDatabase.newTransaction(
+                    account.getId(), TransactionModel.TransactionType.DEPOSIT, INITIAL_BALANCE
+            )))
+                throw new IllegalStateException("Couldn't fund benchmark account " + account.getUserId());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+        LedgerEngines.deleteDirectory(directory);
+    }
+
+    private long randomAccount() {
+        return accountIds[ThreadLocalRandom.current().nextInt(ACCOUNTS)];
+    }
+
+    @Benchmark
+    public boolean deposit() {
+        return database.addTransaction(
+                BenchmarkDatabase.newTransaction(randomAccount(), TransactionModel.TransactionType.DEPOSIT, AMOUNT)
+        );
+    }
+
+    @Benchmark
+    public boolean transfer() {
+        long senderId = randomAccount();
+        long recipientId = randomAccount();
+        while (recipientId == senderId)
+            recipientId = randomAccount();
+
+        TransactionModel transfer =
+                BenchmarkDatabase.newTransaction(senderId, TransactionModel.TransactionType.TRANSFER_WITHDRAW, AMOUNT);
+        transfer.setOtherPartyAccountId(recipientId);
+        return database.addTransaction(transfer);
+    }
+}
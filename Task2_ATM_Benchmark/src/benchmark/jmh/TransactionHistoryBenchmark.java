@@ -0,0 +1,75 @@
+package benchmark.jmh;
+
+import database.DatabaseManager;
+import model.AccountModel;
+import model.TransactionModel;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TransactionHistoryBenchmark measures loading the transaction history of an account with {@code historySize}
+ * transactions, all of them transfers, so every row also needs its other party resolved.
+ * <p>
+ * The full history load is compared with loading the first page, which is what the ATM menu shows.
+ *
+ * @author <a href="https://github.com/itsyourap">Ankan Pal</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransactionHistoryBenchmark {
+    // Amount of every transfer, in minor units
+    private static final long AMOUNT = 100;
+
+    // Number of transactions shown on a page of the ATM menu
+    private static final int PAGE_SIZE = 50;
+
+    @Param({"10", "1000", "100000"})
+    public int historySize;
+
+    private BenchmarkDatabase database;
+    private DatabaseManager dbManager;
+    private AccountModel account;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        database = BenchmarkDatabase.create();
+        dbManager = database.getManager();
+
+        account = database.createAccount("history-sender", historySize * AMOUNT);
+        AccountModel recipient = database.createAccount("history-recipient", 0);
+
+        List<TransactionModel> transfers = new ArrayList<>(historySize);
+        for (int i = 0; i < historySize; i++) {
+            TransactionModel transfer = BenchmarkDatabase.newTransaction(
+                    account.getId(), TransactionModel.TransactionType.TRANSFER_WITHDRAW, AMOUNT
+            );
+            transfer.setOtherPartyAccountId(recipient.getId());
+            transfers.add(transfer);
+        }
+        if (dbManager.transferAll(transfers) != historySize)
+            throw new IllegalStateException("Couldn't write the benchmark history");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+    }
+
+    @Benchmark
+    public List<TransactionModel> fullHistory() {
+        return dbManager.getTransactionHistory(account);
+    }
+
+    @Benchmark
+    public List<TransactionModel> firstPage() {
+        return dbManager.getTransactionPage(account.getId(), Long.MAX_VALUE, PAGE_SIZE);
+    }
+}
@@ -0,0 +1,75 @@
+package benchmark.jmh;
+
+import database.DatabaseManager;
+import model.AccountModel;
+import model.TransactionModel;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TransactionWriteBenchmark measures writing to the ledger: single leg deposits and withdrawals, and transfers,
+ * which write both legs and both balance updates in one database transaction.
+ * <p>
+ * Every write is committed on its own, so this is mostly the cost of a commit. The sender is funded well enough to
+ * never run out during a run. Run with {@code -t} to measure concurrent writers.
+ *
+ * @author <a href="https://github.com/itsyourap">Ankan Pal</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransactionWriteBenchmark {
+    // Amount of every write, in minor units
+    private static final long AMOUNT = 100;
+
+    // Initial balance of the sender, in minor units
+    private static final long INITIAL_BALANCE = 1_000_000_000_000L;
+
+    private BenchmarkDatabase database;
+    private DatabaseManager dbManager;
+    private long senderId;
+    private long recipientId;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        database = BenchmarkDatabase.create();
+        dbManager = database.getManager();
+
+        AccountModel sender = database.createAccount("write-sender", INITIAL_BALANCE);
+        AccountModel recipient = database.createAccount("write-recipient", 0);
+        senderId = sender.getId();
+        recipientId = recipient.getId();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+    }
+
+    @Benchmark
+    public boolean deposit() {
+        return dbManager.addTransaction(
+                BenchmarkDatabase.newTransaction(senderId, TransactionModel.TransactionType.DEPOSIT, AMOUNT)
+        );
+    }
+
+    @Benchmark
+    public boolean withdraw() {
+        return dbManager.addTransaction(
+                BenchmarkDatabase.newTransaction(senderId, TransactionModel.TransactionType.WITHDRAW, AMOUNT)
+        );
+    }
+
+    @Benchmark
+    public boolean transfer() {
+        TransactionModel transfer =
+                BenchmarkDatabase.newTransaction(senderId, TransactionModel.TransactionType.TRANSFER_WITHDRAW, AMOUNT);
+        transfer.setOtherPartyAccountId(recipientId);
+        return dbManager.addTransaction(transfer);
+    }
+}